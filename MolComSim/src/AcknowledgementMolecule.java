@@ -20,8 +20,11 @@ public class AcknowledgementMolecule extends Molecule{
 		msgId = msgNum; 
 	}
 	
-	public void move() {
-		setPosition(getMovementController().getNextPosition(this, getSimulation()));
+	public void commitMove() {
+		setPosition(commitProposedPosition());
+		if(isDead()) {
+			return;
+		}
 		NanoMachine tx = simulation.getMedium().getTxNanoMachineAtPos(getPosition());
 		if(tx != null)
 		{
@@ -29,4 +32,12 @@ public class AcknowledgementMolecule extends Molecule{
 		}
 	}
 
+	public NanoMachine getSource() {
+		return source;
+	}
+
+	public MoleculeType getMoleculeType() {
+		return MoleculeType.ACK;
+	}
+
 }
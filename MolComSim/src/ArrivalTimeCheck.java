@@ -0,0 +1,165 @@
+/**
+ * Checks that the modes that approximate stepping every molecule (hybrid
+ * mode, first passage fast mode and adaptive steps) give the same arrival
+ * times on average as stepping every molecule one step at a time.
+ *
+ * The simulation given on the command line is run as many times as there
+ * are replicates with each of the modes off, then with each mode on in
+ * turn, with the seeds derived from the seed of the params file as the
+ * ReplicateRunner does.  For every message, the mean number of steps it
+ * took (from the completion of the one before) with each mode is compared
+ * with the mean with the modes off: the two must not differ by more than
+ * a number of standard errors of their difference.  Use a params file without collisions, noise
+ * molecules, microtubules or intermediate nodes (see
+ * FirstPassageScheduler.canSchedule) whose simulations complete all their
+ * messages.  Results go to a temporary results file, so the batch files
+ * are left alone.  Prints the means compared, or throws an
+ * IllegalStateException at the first mode that differs.
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class ArrivalTimeCheck {
+
+	/** Runs the simulation given by the remaining command line arguments
+	 *
+	 *  @param args -replicates: <number of runs per mode>, -threads: <number of concurrent runs>,
+	 *   -hybridCellSize: <int>, -hybridShell: <int>, -adaptiveStepMax: <int>,
+	 *   -sigmas: <most standard errors means may differ by>,
+	 *   followed by any of the MolComSim command line arguments
+	 */
+	public static void main(String[] args) throws InterruptedException, ExecutionException, IOException {
+		int numReplicates = 100;
+		int numThreads = Runtime.getRuntime().availableProcessors();
+		int hybridCellSize = 4;
+		int hybridShell = -1;
+		int adaptiveStepMax = 8;
+		double sigmas = 3.0;
+		ArrayList<String> simArgs = new ArrayList<String>();
+		for(int i = 0; i < args.length; i++) {
+			if(args[i].equals("-replicates:")) {
+				numReplicates = Integer.parseInt(args[++i]);
+			} else if(args[i].equals("-threads:")) {
+				numThreads = Integer.parseInt(args[++i]);
+			} else if(args[i].equals("-hybridCellSize:")) {
+				hybridCellSize = Integer.parseInt(args[++i]);
+			} else if(args[i].equals("-hybridShell:")) {
+				hybridShell = Integer.parseInt(args[++i]);
+			} else if(args[i].equals("-adaptiveStepMax:")) {
+				adaptiveStepMax = Integer.parseInt(args[++i]);
+			} else if(args[i].equals("-sigmas:")) {
+				sigmas = Double.parseDouble(args[++i]);
+			} else {
+				simArgs.add(args[i]);
+			}
+		}
+		SimulationParams simParams = new SimulationParams(simArgs.toArray(new String[simArgs.size()]));
+		if(!FirstPassageScheduler.canSchedule(simParams)) {
+			throw new IllegalArgumentException("The simulation has collisions, noise molecules, microtubules " +
+					"or intermediate nodes, which the modes checked do not support");
+		}
+		simParams.setBatchRun(true);
+		simParams.setFirstPassage(false);
+		simParams.setHybridCellSize(0);
+		simParams.setAdaptiveStepMax(0);
+		if(hybridShell < 0) {
+			hybridShell = simParams.getHybridShell();
+		}
+		File resultsFile = File.createTempFile("arrival_results", ".txt");
+		simParams.setResultsFileName(resultsFile.getPath());
+
+		SimulationParams hybridParams = new SimulationParams(simParams);
+		hybridParams.setHybridCellSize(hybridCellSize);
+		hybridParams.setHybridShell(hybridShell);
+		SimulationParams firstPassageParams = new SimulationParams(simParams);
+		firstPassageParams.setFirstPassage(true);
+		SimulationParams adaptiveParams = new SimulationParams(simParams);
+		adaptiveParams.setAdaptiveStepMax(adaptiveStepMax);
+
+		ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+		try {
+			int[][] expected = run(executor, simParams, numReplicates);
+			compare("hybridCellSize " + hybridCellSize + ", hybridShell " + hybridShell,
+					expected, run(executor, hybridParams, numReplicates), sigmas);
+			compare("firstPassage", expected, run(executor, firstPassageParams, numReplicates), sigmas);
+			compare("adaptiveStepMax " + adaptiveStepMax, expected,
+					run(executor, adaptiveParams, numReplicates), sigmas);
+		} finally {
+			executor.shutdown();
+			resultsFile.delete();
+		}
+	}
+
+	/**
+	 * @return the number of steps each message took, by replicate then by message
+	 */
+	private static int[][] run(ExecutorService executor, SimulationParams simParams, int numReplicates)
+			throws InterruptedException, ExecutionException {
+		ArrayList<Future<int[]>> futures = new ArrayList<Future<int[]>>();
+		for(int i = 0; i < numReplicates; i++) {
+			final SimulationParams replicateParams = new SimulationParams(simParams);
+			replicateParams.setSeed(RandomStream.mix(simParams.getSeed(), i));
+			futures.add(executor.submit(new Callable<int[]>() {
+				public int[] call() throws IOException {
+					MolComSim sim = new MolComSim(replicateParams);
+					sim.run();
+					List<Integer> steps = sim.getStepByMessage();
+					if(steps.size() < replicateParams.getNumMessages()) {
+						throw new IllegalArgumentException("Seed " + replicateParams.getSeed() +
+								" did not complete all messages, raise maxSimulationStep");
+					}
+					int[] took = new int[steps.size()];
+					for(int message = 0; message < took.length; message++) {
+						took[message] = steps.get(message) - ((message > 0) ? steps.get(message - 1) : 0);
+					}
+					return took;
+				}
+			}));
+		}
+		int[][] steps = new int[numReplicates][];
+		for(int i = 0; i < numReplicates; i++) {
+			steps[i] = futures.get(i).get();
+		}
+		return steps;
+	}
+
+	// Compares the mean number of steps each message took with a mode on and off
+	private static void compare(String mode, int[][] expected, int[][] actual, double sigmas) {
+		for(int message = 0; message < expected[0].length; message++) {
+			double[] expectedMean = meanAndError(expected, message);
+			double[] actualMean = meanAndError(actual, message);
+			double difference = (actualMean[0] - expectedMean[0]) /
+					Math.sqrt(expectedMean[1] * expectedMean[1] + actualMean[1] * actualMean[1]);
+			String comparison = mode + ", message " + (message + 1) + ": mean steps " +
+					String.format("%.1f +- %.1f", actualMean[0], actualMean[1]) + ", without " +
+					String.format("%.1f +- %.1f", expectedMean[0], expectedMean[1]) + ", " +
+					String.format("%.1f", difference) + " standard errors apart";
+			if(Math.abs(difference) > sigmas) {
+				throw new IllegalStateException(comparison);
+			}
+			System.out.println(comparison);
+		}
+	}
+
+	// The mean number of steps a message took over the replicates, and its standard error
+	private static double[] meanAndError(int[][] steps, int message) {
+		double sum = 0.0;
+		for(int[] replicate : steps) {
+			sum += replicate[message];
+		}
+		double mean = sum / steps.length;
+		double squares = 0.0;
+		for(int[] replicate : steps) {
+			squares += (replicate[message] - mean) * (replicate[message] - mean);
+		}
+		return new double[] {mean, Math.sqrt(squares / (steps.length - 1) / steps.length)};
+	}
+}
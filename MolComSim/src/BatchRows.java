@@ -0,0 +1,19 @@
+/**
+ * The rows a batch run appends to the batch files.  Rows are only
+ * written when asked for, straight into whatever they are appended
+ * to, so that long rows (the collision row of a simulation with
+ * millions of collisions) are never held in memory as a whole.
+ */
+
+import java.io.IOException;
+import java.util.List;
+
+public interface BatchRows {
+
+	// The prefixes of the batch files there are rows for, in the order they are appended
+	public List<String> getBatchFiles();
+
+	// Appends the row for the batch file, without a line separator
+	public void writeRow(String batchFile, Appendable out) throws IOException;
+
+}
@@ -0,0 +1,214 @@
+/**
+ * Decodes a snapshot written by a CheckpointWriter into a simulation
+ * whose nanomachines and microtubules have already been rebuilt from
+ * the same simulation parameters, see MolComSim.readState.
+ */
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+public class CheckpointReader {
+
+	private final ByteBuffer buffer;
+	private final MolComSim simulation;
+	private final ArrayList<Molecule> molecules = new ArrayList<Molecule>();
+	// collision handlers rebuilt so far, by their chain of decorators, shared
+	// by every molecule with the same chain as they were before the snapshot
+	private final HashMap<String, CollisionHandler> handlersByChain = new HashMap<String, CollisionHandler>();
+
+	public CheckpointReader(ByteBuffer buffer, MolComSim sim) {
+		this.buffer = buffer;
+		this.simulation = sim;
+	}
+
+	public byte getByte() {
+		return buffer.get();
+	}
+
+	public boolean getBoolean() {
+		return buffer.get() != 0;
+	}
+
+	public int getInt() {
+		return buffer.getInt();
+	}
+
+	public long getLong() {
+		return buffer.getLong();
+	}
+
+	public double getDouble() {
+		return buffer.getDouble();
+	}
+
+	// Replaces the contents of values with the ones read
+	public void getIntegers(List<Integer> values) {
+		values.clear();
+		int size = getInt();
+		for(int i = 0; i < size; i++) {
+			values.add(getInt());
+		}
+	}
+
+	public Position getPosition() {
+		int x = getInt();
+		int y = getInt();
+		int z = getInt();
+		return simulation.getMedium().getPosition(x, y, z);
+	}
+
+	// A random stream saved by putRandom, or null
+	public RandomStream getRandom() {
+		if(!getBoolean()) {
+			return null;
+		}
+		return new RandomStream(new long[] {getLong(), getLong(), getLong(), getLong()});
+	}
+
+	// The state of a non null random stream saved by putRandom
+	public long[] getRandomState() {
+		if(!getBoolean()) {
+			throw new IllegalStateException("Missing random stream in checkpoint");
+		}
+		return new long[] {getLong(), getLong(), getLong(), getLong()};
+	}
+
+	public Molecule getMoleculeRef() {
+		return molecules.get(getInt());
+	}
+
+	public NanoMachine getNanoMachineRef() {
+		int index = getInt();
+		return (index == CheckpointWriter.NONE) ? null : simulation.getNanoMachines().get(index);
+	}
+
+	public Object getObjectRef() {
+		byte kind = getByte();
+		int index = getInt();
+		switch(kind) {
+		case CheckpointWriter.MOLECULE_OBJECT:
+			return molecules.get(index);
+		case CheckpointWriter.NANOMACHINE_OBJECT:
+			return simulation.getNanoMachines().get(index);
+		case CheckpointWriter.MICROTUBULE_OBJECT:
+			return simulation.getMicrotubules().get(index);
+		default:
+			throw new IllegalStateException("Invalid object kind " + kind + " in checkpoint");
+		}
+	}
+
+	/**
+	 * Reads the table of molecules written by putMolecules.  The molecules
+	 * are neither in the medium nor in the molecule store yet.
+	 */
+	public void getMolecules() {
+		int size = getInt();
+		molecules.clear();
+		molecules.ensureCapacity(size);
+		for(int i = 0; i < size; i++) {
+			molecules.add(getMolecule());
+		}
+	}
+
+	private Molecule getMolecule() {
+		byte kind = getByte();
+		NanoMachine source = (kind == CheckpointWriter.NOISE_MOLECULE) ? null : getNanoMachineRef();
+		Position position = getPosition();
+		int numSequence = getInt();
+		int msgId = getInt();
+		int movementType = getInt();
+		MoleculeMovementType molMvType = (movementType == CheckpointWriter.NONE) ?
+				null : MoleculeMovementType.values()[movementType];
+		double volume = getDouble();
+		Molecule mol;
+		switch(kind) {
+		case CheckpointWriter.INFORMATION_MOLECULE:
+			mol = new InformationMolecule(position, numSequence, simulation, source, msgId, molMvType, volume);
+			break;
+		case CheckpointWriter.ACKNOWLEDGEMENT_MOLECULE:
+			mol = new AcknowledgementMolecule(position, simulation, source, msgId, molMvType, volume);
+			break;
+		case CheckpointWriter.PACKET_MOLECULE:
+			mol = new PacketMolecule(position, numSequence, simulation, source, msgId, molMvType, volume);
+			break;
+		case CheckpointWriter.NOISE_MOLECULE:
+			mol = new NoiseMolecule(position, simulation, molMvType, volume);
+			break;
+		default:
+			throw new IllegalStateException("Invalid molecule kind " + kind + " in checkpoint");
+		}
+		mol.setStartTime(getInt());
+		mol.setEndTime(getInt());
+		mol.setDead(getBoolean());
+		mol.setWakeStep(getInt());
+		mol.setRandom(getRandom());
+		mol.setWalkKey(getLong());
+		mol.setId(getInt());
+		getMovement(mol);
+		return mol;
+	}
+
+	// Gives mol the movement saved by putMovement
+	private void getMovement(Molecule mol) {
+		int state = getInt();
+		if(state == CheckpointWriter.NONE) {
+			return;
+		}
+		MovementState movementState = MovementState.values()[state];
+		Microtubule microtubule = (movementState == MovementState.ON_MICROTUBULE) ?
+				simulation.getMicrotubules().get(getInt()) : null;
+		byte[] handlers = new byte[getInt()];
+		int[] modes = new int[handlers.length];
+		for(int i = 0; i < handlers.length; i++) {
+			handlers[i] = getByte();
+			if(handlers[i] == CheckpointWriter.DECOMPOSING_HANDLER) {
+				modes[i] = getInt();
+			}
+		}
+		String chain = Arrays.toString(handlers) + Arrays.toString(modes);
+		CollisionHandler collH = handlersByChain.get(chain);
+		if(collH == null) {
+			collH = simulation.getPlan().dispatch(getCollisionHandler(handlers, modes));
+			handlersByChain.put(chain, collH);
+		}
+		mol.setMovement(movementState, collH, microtubule);
+	}
+
+	// The chain of decorators saved by putMovement, outermost first
+	private CollisionHandler getCollisionHandler(byte[] handlers, int[] modes) {
+		// decorate from the innermost handler out
+		CollisionHandler collH = null;
+		for(int i = handlers.length - 1; i >= 0; i--) {
+			switch(handlers[i]) {
+			case CheckpointWriter.SIMPLE_HANDLER:
+				collH = new SimpleCollisionHandler();
+				break;
+			case CheckpointWriter.NULL_HANDLER:
+				collH = new NullCollisionHandler(collH);
+				break;
+			case CheckpointWriter.STANDARD_HANDLER:
+				collH = new StandardCollisionHandler(collH);
+				break;
+			case CheckpointWriter.ON_TUBULE_HANDLER:
+				collH = new OnTubuleCollisionHandler(collH);
+				break;
+			case CheckpointWriter.DECOMPOSING_HANDLER:
+				collH = new DecomposingCollisionHandler(collH, modes[i]);
+				break;
+			default:
+				throw new IllegalStateException("Invalid collision handler " + handlers[i] + " in checkpoint");
+			}
+		}
+		return collH;
+	}
+
+	/**
+	 * @return whether the whole snapshot has been read
+	 */
+	public boolean isFinished() {
+		return !buffer.hasRemaining();
+	}
+}
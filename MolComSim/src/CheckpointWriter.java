@@ -0,0 +1,233 @@
+/**
+ * Encodes the state of a simulation into a compact binary snapshot,
+ * see MolComSim.writeState and CheckpointReader, which decodes it.
+ *
+ * The snapshot is built in memory, so the simulation only pauses for
+ * as long as it takes to encode it, and is written to disk later by a
+ * Checkpointer.  Molecules are written once each, in a table, and
+ * everything else (the molecule store, the cells of the medium, the
+ * absorptions of the fast mode) refers to them by their index in
+ * that table.  Nanomachines and microtubules are rebuilt from the
+ * simulation parameters on restore, so they are referred to by their
+ * index in the simulation.
+ */
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+public class CheckpointWriter {
+
+	private static final int INITIAL_CAPACITY = 1 << 16;
+
+	// kinds of molecules
+	static final byte INFORMATION_MOLECULE = 0;
+	static final byte ACKNOWLEDGEMENT_MOLECULE = 1;
+	static final byte NOISE_MOLECULE = 2;
+	static final byte PACKET_MOLECULE = 3;
+
+	// kinds of collision handlers, from the outermost decorator in
+	static final byte SIMPLE_HANDLER = 0;
+	static final byte NULL_HANDLER = 1;
+	static final byte STANDARD_HANDLER = 2;
+	static final byte ON_TUBULE_HANDLER = 3;
+	static final byte DECOMPOSING_HANDLER = 4;
+
+	// kinds of objects in the medium
+	static final byte MOLECULE_OBJECT = 0;
+	static final byte NANOMACHINE_OBJECT = 1;
+	static final byte MICROTUBULE_OBJECT = 2;
+
+	// no molecule, nanomachine, movement type...
+	static final int NONE = -1;
+
+	private ByteBuffer buffer = ByteBuffer.allocate(INITIAL_CAPACITY);
+	private final ArrayList<Molecule> molecules = new ArrayList<Molecule>();
+	private final IdentityHashMap<Object, Integer> indexes = new IdentityHashMap<Object, Integer>();
+
+	public CheckpointWriter(MolComSim sim) {
+		for(int i = 0; i < sim.getNanoMachines().size(); i++) {
+			indexes.put(sim.getNanoMachines().get(i), i);
+		}
+		for(int i = 0; i < sim.getMicrotubules().size(); i++) {
+			indexes.put(sim.getMicrotubules().get(i), i);
+		}
+	}
+
+	// Makes room for at least size more bytes
+	private void ensureCapacity(int size) {
+		if(buffer.remaining() < size) {
+			ByteBuffer larger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + size));
+			buffer.flip();
+			larger.put(buffer);
+			buffer = larger;
+		}
+	}
+
+	public void putByte(byte value) {
+		ensureCapacity(1);
+		buffer.put(value);
+	}
+
+	public void putBoolean(boolean value) {
+		putByte(value ? (byte) 1 : (byte) 0);
+	}
+
+	public void putInt(int value) {
+		ensureCapacity(4);
+		buffer.putInt(value);
+	}
+
+	public void putLong(long value) {
+		ensureCapacity(8);
+		buffer.putLong(value);
+	}
+
+	public void putDouble(double value) {
+		ensureCapacity(8);
+		buffer.putDouble(value);
+	}
+
+	public void putIntegers(List<Integer> values) {
+		putInt(values.size());
+		ensureCapacity(4 * values.size());
+		for(int value : values) {
+			buffer.putInt(value);
+		}
+	}
+
+	public void putPosition(Position pos) {
+		putInt(pos.getX());
+		putInt(pos.getY());
+		putInt(pos.getZ());
+	}
+
+	// The whole state of random, which may be null
+	public void putRandom(RandomStream random) {
+		putBoolean(random != null);
+		if(random != null) {
+			for(long word : random.getState()) {
+				putLong(word);
+			}
+		}
+	}
+
+	/**
+	 * Adds mol to the table of molecules written by putMolecules,
+	 * if it is not there yet
+	 */
+	public void addMolecule(Molecule mol) {
+		if(!indexes.containsKey(mol)) {
+			indexes.put(mol, molecules.size());
+			molecules.add(mol);
+		}
+	}
+
+	public void putMoleculeRef(Molecule mol) {
+		putInt(indexes.get(mol));
+	}
+
+	public void putNanoMachineRef(NanoMachine nm) {
+		putInt((nm == null) ? NONE : indexes.get(nm));
+	}
+
+	// An object of the medium: a molecule, a nanomachine or a microtubule
+	public void putObjectRef(Object obj) {
+		if(obj instanceof Molecule) {
+			putByte(MOLECULE_OBJECT);
+		} else if(obj instanceof NanoMachine) {
+			putByte(NANOMACHINE_OBJECT);
+		} else if(obj instanceof Microtubule) {
+			putByte(MICROTUBULE_OBJECT);
+		} else {
+			throw new IllegalStateException("Cannot save " + obj + " in a checkpoint");
+		}
+		putInt(indexes.get(obj));
+	}
+
+	/**
+	 * Writes every molecule added with addMolecule, in order
+	 */
+	public void putMolecules() {
+		putInt(molecules.size());
+		for(Molecule mol : molecules) {
+			putMolecule(mol);
+		}
+	}
+
+	private void putMolecule(Molecule mol) {
+		if(mol instanceof InformationMolecule) {
+			putByte(INFORMATION_MOLECULE);
+			putNanoMachineRef(((InformationMolecule) mol).getSource());
+		} else if(mol instanceof AcknowledgementMolecule) {
+			putByte(ACKNOWLEDGEMENT_MOLECULE);
+			putNanoMachineRef(((AcknowledgementMolecule) mol).getSource());
+		} else if(mol instanceof PacketMolecule) {
+			putByte(PACKET_MOLECULE);
+			putNanoMachineRef(((PacketMolecule) mol).getSource());
+		} else {
+			putByte(NOISE_MOLECULE);
+		}
+		putPosition(mol.getPosition());
+		putInt(mol.getNumSequence());
+		putInt((mol.getMsgId() == null) ? NONE : mol.getMsgId());
+		putInt((mol.getMoleculeMovementType() == null) ? NONE : mol.getMoleculeMovementType().ordinal());
+		putDouble(mol.getVolume());
+		putInt(mol.getStartTime());
+		putInt(mol.getEndTime());
+		putBoolean(mol.isDead());
+		putInt(mol.getWakeStep());
+		putRandom(mol.getRandom());
+		putLong(mol.getWalkKey());
+		putInt(mol.getId());
+		putMovement(mol);
+	}
+
+	// How mol moves: its movement state, microtubule and collision handler
+	private void putMovement(Molecule mol) {
+		if(mol.getMovementState() == null) {
+			putInt(NONE);
+			return;
+		}
+		putInt(mol.getMovementState().ordinal());
+		if(mol.getMovementState() == MovementState.ON_MICROTUBULE) {
+			putInt(indexes.get(mol.getMicrotubule()));
+		}
+		// the chain of decorators, outermost first
+		CollisionHandler collH = mol.getCollisionHandler();
+		if(collH instanceof FlatCollisionHandler) {
+			collH = ((FlatCollisionHandler) collH).getReference();
+		}
+		ArrayList<CollisionHandler> handlers = new ArrayList<CollisionHandler>();
+		for(CollisionHandler ch = collH; ch != null;
+				ch = (ch instanceof CollisionDecorator) ? ((CollisionDecorator) ch).collH : null) {
+			handlers.add(ch);
+		}
+		putInt(handlers.size());
+		for(CollisionHandler ch : handlers) {
+			if(ch instanceof SimpleCollisionHandler) {
+				putByte(SIMPLE_HANDLER);
+			} else if(ch instanceof NullCollisionHandler) {
+				putByte(NULL_HANDLER);
+			} else if(ch instanceof StandardCollisionHandler) {
+				putByte(STANDARD_HANDLER);
+			} else if(ch instanceof OnTubuleCollisionHandler) {
+				putByte(ON_TUBULE_HANDLER);
+			} else if(ch instanceof DecomposingCollisionHandler) {
+				putByte(DECOMPOSING_HANDLER);
+				putInt(((DecomposingCollisionHandler) ch).getMode());
+			} else {
+				throw new IllegalStateException("Cannot save " + ch + " in a checkpoint");
+			}
+		}
+	}
+
+	/**
+	 * @return the snapshot, ready to be read from
+	 */
+	public ByteBuffer finish() {
+		buffer.flip();
+		return buffer;
+	}
+}
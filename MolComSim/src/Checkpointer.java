@@ -0,0 +1,127 @@
+/**
+ * Periodically saves a running simulation to a checkpoint file, and
+ * loads checkpoint files to resume simulations from.
+ *
+ * A snapshot is encoded in memory on the simulation's thread, between
+ * two steps, and then written on a background thread through a file
+ * channel, to a temporary file that replaces the checkpoint file once
+ * complete.  The step loop therefore only waits for the encoding, and
+ * a crash while writing leaves the previous checkpoint intact.  If a
+ * snapshot is due while the previous one is still being written, it is
+ * taken as soon as that write completes instead.
+ */
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+public class Checkpointer {
+
+	private final Path file;
+	private final Path tempFile;
+	private final int interval;
+	private int nextStep;
+	private final ExecutorService writer;
+	private Future<?> pendingWrite = null;
+
+	/**
+	 * @param fileName Where to save the simulation
+	 * @param interval How many steps to run between two snapshots
+	 * @param firstStep The step the simulation starts from
+	 */
+	public Checkpointer(String fileName, int interval, int firstStep) {
+		this.file = Paths.get(fileName);
+		this.tempFile = Paths.get(fileName + ".tmp");
+		this.interval = interval;
+		this.nextStep = firstStep + interval;
+		this.writer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "checkpoint writer");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Saves sim if a snapshot is due, to be called before running a step
+	 */
+	public void checkpoint(MolComSim sim) throws IOException {
+		if((sim.getSimStep() < nextStep) || !finishedWriting()) {
+			return;
+		}
+		CheckpointWriter out = new CheckpointWriter(sim);
+		sim.writeState(out);
+		final ByteBuffer snapshot = out.finish();
+		pendingWrite = writer.submit(new Runnable() {
+			public void run() {
+				try {
+					write(snapshot);
+				} catch (IOException e) {
+					System.out.println("Error: unable to write checkpoint file: " + file);
+					e.printStackTrace();
+				}
+			}
+		});
+		nextStep = sim.getSimStep() + interval;
+	}
+
+	private boolean finishedWriting() {
+		return (pendingWrite == null) || pendingWrite.isDone();
+	}
+
+	private void write(ByteBuffer snapshot) throws IOException {
+		try(FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			while(snapshot.hasRemaining()) {
+				channel.write(snapshot);
+			}
+			channel.force(false);
+		}
+		Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Waits for the last snapshot to be written
+	 */
+	public void close() {
+		try {
+			if(pendingWrite != null) {
+				pendingWrite.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			e.printStackTrace();
+		} finally {
+			writer.shutdown();
+		}
+	}
+
+	/**
+	 * Reads a checkpoint file, to resume sim from
+	 *
+	 * @param fileName The checkpoint file
+	 * @param sim The simulation to restore, see MolComSim.readState
+	 * @return a reader for the snapshot in the file
+	 */
+	public static CheckpointReader load(String fileName, MolComSim sim) throws IOException {
+		try(FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+			ByteBuffer snapshot = ByteBuffer.allocate((int) channel.size());
+			while(snapshot.hasRemaining() && (channel.read(snapshot) >= 0)) {
+			}
+			snapshot.flip();
+			return new CheckpointReader(snapshot, sim);
+		}
+	}
+}
@@ -1,5 +1,3 @@
-import java.util.ArrayList;
-
 /**
  * CollisionDecorator uses the Decorator design pattern
  * to allow CollisionHandlers to use any combination of parameters:
@@ -20,14 +18,7 @@ public abstract class CollisionDecorator implements CollisionHandler {
 	
 	public boolean isCollision(Molecule mol, Position nextPos, MolComSim simulation) {
 		double vin = mol.getVolume();
-		double vsum = 0.0;
-		ArrayList<Object> alreadyThere = simulation.getMedium().getObjectsAtPos(nextPos);
-		
-		for(Object o: alreadyThere) {
-			if(o instanceof Molecule) {
-				vsum += ((Molecule) o).getVolume();
-			}
-		}
+		double vsum = simulation.getMedium().getMoleculeVolumeAtPos(nextPos);
 		
 		if(vsum >= 1) {
 			simulation.addCollisionNum(mol, nextPos, simulation);
@@ -36,68 +27,94 @@ public abstract class CollisionDecorator implements CollisionHandler {
 		
 		double p = vsum + vin / (1 - vsum);
 		
-		if(Math.random() < p) {
+		if(simulation.getRandom().getStream(SimulationRandom.Purpose.COLLISIONS).nextDouble() < p) {
 			simulation.addCollisionNum(mol, nextPos, simulation);
 			return true;
 		}
 		return false;
 	}
 	
+	/**
+	 * Walks the cells crossed by the straight line from the center of the cell of mol to the
+	 * center of the cell nextPos, in order (3D DDA, Amanatides-Woo), and finds the first one 
+	 * inside a nanomachine mol could be absorbed by: a receiver for information molecules, 
+	 * a transmitter for acknowledgement molecules.  The cell mol is in is included, nextPos
+	 * is not, as arriving there is dealt with once the molecule has moved.
+	 * 
+	 * Cell boundaries are half way between integer coordinates, so the boundary crossing
+	 * times along each axis are odd multiples of 1 / (2 * |delta|) and can be compared 
+	 * exactly with integer arithmetic.  Exactly |delX| + |delY| + |delZ| cells are visited,
+	 * stepping along x first, then y, then z when a line crosses several boundaries at once.
+	 * 
+	 * @return the position of the first nanomachine cell crossed, or null if there is none
+	 */
 	public Position checkCollsitionNanoMachine(Molecule mol, Position nextPos, MolComSim simulation) {
+		// by class rather than getMoleculeType, packet molecules report INFO as well but have no target
+		byte target;
+		if(mol instanceof InformationMolecule) {
+			target = StaticGeometry.RECEIVER;
+		} else if(mol instanceof AcknowledgementMolecule) {
+			target = StaticGeometry.TRANSMITTER;
+		} else {
+			return null;
+		}
 		Position molPosition = mol.getPosition();
 		
-		double stepLength = simulation.getSimParams().getMolRandMoveX();
-		
-		int x1 = molPosition.getX();
-		int y1 = molPosition.getY();
-		int z1 = molPosition.getZ();
-
-		int x2 = nextPos.getX();
-		int y2 = nextPos.getY();
-		int z2 = nextPos.getZ();
+		int x = molPosition.getX();
+		int y = molPosition.getY();
+		int z = molPosition.getZ();
 		
-		int delX = (x2 - x1);
-		int delY = (y2 - y1);
-		int delZ = (z2 - z1);
+		int delX = nextPos.getX() - x;
+		int delY = nextPos.getY() - y;
+		int delZ = nextPos.getZ() - z;
 		
-		double unitLength = Math.sqrt(delX*delX + delY*delY + delZ*delZ);
+		int stepX = Integer.signum(delX);
+		int stepY = Integer.signum(delY);
+		int stepZ = Integer.signum(delZ);
+		long absX = Math.abs(delX);
+		long absY = Math.abs(delY);
+		long absZ = Math.abs(delZ);
 		
-		double x = ((double)delX/unitLength);
-		double y = ((double)delY/unitLength);
-		double z = ((double)delZ/unitLength);
+		// boundary crossings so far along each axis; the next one along x happens at 
+		// time (2 * crossedX + 1) / (2 * absX), and so on, axes that do not move never cross
+		long crossedX = 0;
+		long crossedY = 0;
+		long crossedZ = 0;
 		
-		DoublePosition direction = new DoublePosition(x, y, z);
-		DoublePosition currentPos = direction.toDouble(molPosition);
-		
-		int count = 0;
-		while(!currentPos.toRoundInt().equals(nextPos)) {
-			count++;
-			Position tmpPos = checkIsThereNanoMachine(mol, currentPos.toInt(), simulation);
-			if(tmpPos != null) {
-				return tmpPos;
+		long remaining = absX + absY + absZ;
+		Medium medium = simulation.getMedium();
+		while(remaining > 0) {
+			if(isNanoMachineCell(medium, target, x, y, z)) {
+				return medium.getPosition(x, y, z);
 			}
-			currentPos = currentPos.addDouble(direction);
-			if(count == (int)stepLength * 2) {
-				System.out.println("ERROR");
-				System.exit(1);
+			// compare crossing times a / (2 * absA) < b / (2 * absB) as a * absB < b * absA
+			boolean xBeforeY = (crossedX < absX) && ((crossedY == absY) || ((2 * crossedX + 1) * absY <= (2 * crossedY + 1) * absX));
+			boolean xBeforeZ = (crossedX < absX) && ((crossedZ == absZ) || ((2 * crossedX + 1) * absZ <= (2 * crossedZ + 1) * absX));
+			boolean yBeforeZ = (crossedY < absY) && ((crossedZ == absZ) || ((2 * crossedY + 1) * absZ <= (2 * crossedZ + 1) * absY));
+			if(xBeforeY && xBeforeZ) {
+				x += stepX;
+				crossedX++;
+			} else if(yBeforeZ) {
+				y += stepY;
+				crossedY++;
+			} else {
+				z += stepZ;
+				crossedZ++;
 			}
+			remaining--;
 		}
 		return null;
 	}
 	
-	private Position checkIsThereNanoMachine(Molecule mol, Position pos, MolComSim simulation) {
-		switch(mol.getClass().getName()) {
-		case "InformationMolecule":
-			if(simulation.getMedium().getRxNanoMachineAtPos(pos) != null) {
-				return pos;
-			}
-			break;
-		case "AcknowledgementMolecule":
-			if(simulation.getMedium().getTxNanoMachineAtPos(pos) != null) {
-				return pos;
-			}
-			break;
+	private boolean isNanoMachineCell(Medium medium, byte target, int x, int y, int z) {
+		int cell = medium.getStaticGeometry().cellIndex(x, y, z);
+		if(cell != -1) {
+			return (medium.getStaticGeometry().getTag(cell) & target) != 0;
 		}
-		return null;
+		// outside of the medium, ask the medium itself
+		if(target == StaticGeometry.RECEIVER) {
+			return medium.getRxNanoMachineAtPos(x, y, z) != null;
+		}
+		return medium.getTxNanoMachineAtPos(x, y, z) != null;
 	}
 }
@@ -0,0 +1,17 @@
+
+public enum CollisionDispatch {
+
+	FLAT,
+	DECORATORS;
+	
+	public static CollisionDispatch getCollisionDispatch(String stringRep) {
+		if(stringRep.equals("FLAT")) {
+			return FLAT;
+		} else if(stringRep.equals("DECORATORS")) {
+			return DECORATORS;
+		} else {
+			throw new IllegalArgumentException("Invalid argument: " + stringRep + 
+					" to CollisionDispatch.getCollisionDispatch");
+		}
+	}
+}
@@ -0,0 +1,99 @@
+/**
+ * Compares how fast molecules are moved with the flat collision handlers
+ * (collisionDispatch FLAT) and with the chains of collision decorators
+ * they stand for (collisionDispatch DECORATORS), see FlatCollisionHandler.
+ * 
+ * The same simulation (same seed) is run with each dispatch in turn, for a
+ * number of rounds, on the current thread.  Both give the same results, so
+ * they take the same number of molecule steps, and the fastest round of each
+ * is printed as molecule steps per second.  The first rounds warm the JIT
+ * compiler up and are not counted.  Runs append their results to a
+ * temporary results file, deleted at the end, and count collisions in a
+ * few histogram bins only, so writing results takes next to no time even
+ * for simulations with many collisions.  Use a params file with collisions, and
+ * microtubules or decomposing, for the dispatch to make a difference.
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+
+public class CollisionDispatchBenchmark {
+
+	private static final int BENCHMARK_HISTOGRAM_BINS = 16;
+
+	/** Runs the simulation given by the remaining command line arguments
+	 * 
+	 *  @param args -steps: <number of steps of each run>, -rounds: <number of runs with 
+	 *   each dispatch>, -warmups: <number of runs with each dispatch before measuring>, 
+	 *   followed by any of the MolComSim command line arguments
+	 */
+	public static void main(String[] args) throws IOException {
+		int numSteps = 1000;
+		int numRounds = 5;
+		int numWarmups = 2;
+		ArrayList<String> simArgs = new ArrayList<String>();
+		for(int i = 0; i < args.length; i++) {
+			if(args[i].equals("-steps:")) {
+				numSteps = Integer.parseInt(args[++i]);
+			} else if(args[i].equals("-rounds:")) {
+				numRounds = Integer.parseInt(args[++i]);
+			} else if(args[i].equals("-warmups:")) {
+				numWarmups = Integer.parseInt(args[++i]);
+			} else {
+				simArgs.add(args[i]);
+			}
+		}
+		SimulationParams simParams = new SimulationParams(simArgs.toArray(new String[simArgs.size()]));
+		simParams.setBatchRun(true);
+		simParams.setMaxNumSteps(numSteps);
+		simParams.setCollisionHistogramBins(BENCHMARK_HISTOGRAM_BINS);
+		File resultsFile = File.createTempFile("dispatch_results", ".txt");
+		simParams.setResultsFileName(resultsFile.getPath());
+		CollisionDispatch[] dispatches = CollisionDispatch.values();
+		double[] best = new double[dispatches.length];
+		long moleculeSteps = -1;
+		try {
+			for(int round = 0; round < numWarmups + numRounds; round++) {
+				for(int d = 0; d < dispatches.length; d++) {
+					long[] run = measure(simParams, dispatches[d]);
+					if(moleculeSteps == -1) {
+						moleculeSteps = run[1];
+					} else if(run[1] != moleculeSteps) {
+						System.out.println("Warning: " + dispatches[d] + " took " + run[1] + 
+								" molecule steps instead of " + moleculeSteps);
+					}
+					if(round >= numWarmups) {
+						best[d] = Math.max(best[d], run[1] * 1e9 / run[0]);
+					}
+				}
+			}
+		} finally {
+			resultsFile.delete();
+		}
+		if(moleculeSteps == 0) {
+			System.out.println("No molecule moved, nothing to measure");
+			return;
+		}
+		System.out.println("Molecule steps per run: " + moleculeSteps);
+		for(int d = 0; d < dispatches.length; d++) {
+			System.out.println(dispatches[d] + ": " + String.format("%.0f", best[d]) + " molecule steps per second");
+		}
+		System.out.println("FLAT / DECORATORS: " + String.format("%.3f", 
+				best[CollisionDispatch.FLAT.ordinal()] / best[CollisionDispatch.DECORATORS.ordinal()]));
+	}
+
+	/**
+	 * @return the nanoseconds taken to run the simulation with the given
+	 *  dispatch, and the number of molecule steps taken
+	 */
+	private static long[] measure(SimulationParams params, CollisionDispatch dispatch) throws IOException {
+		SimulationParams runParams = new SimulationParams(params);
+		runParams.setCollisionDispatch(dispatch);
+		MolComSim sim = new MolComSim(runParams);
+		long start = System.nanoTime();
+		sim.run();
+		long elapsed = System.nanoTime() - start;
+		return new long[] {elapsed, sim.getStepEngine().getMoleculeSteps()};
+	}
+}
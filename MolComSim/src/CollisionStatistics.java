@@ -0,0 +1,174 @@
+/**
+ * Counts the collisions between molecules in a simulation
+ * in constant memory, however many collisions there are.
+ *
+ * Collisions are counted in a matrix indexed by the type of the
+ * molecule that moved and the type of the one it ran into, and
+ * the steps at which they happened are kept in a histogram with a
+ * bounded number of bins.  Each bin covers a single step until the
+ * simulation runs for more steps than there are bins, from then on
+ * the bins are merged two by two, doubling the steps each one covers,
+ * as often as needed.
+ */
+
+import java.io.IOException;
+import java.util.Arrays;
+
+public class CollisionStatistics {
+
+	// types of molecules collisions are counted for, other molecules are ignored
+	public static final int ACK = 0;
+	public static final int INFO = 1;
+	public static final int NOISE = 2;
+	public static final int NUM_TYPES = 3;
+	public static final int OTHER = -1;
+
+	private static final int INITIAL_BINS = 1024;
+
+	// counts[type of the moving molecule][type of the molecule hit]
+	private final long[][] counts = new long[NUM_TYPES][NUM_TYPES];
+	private long total = 0;
+
+	// histogram[i] counts the collisions from step i * binWidth to (i + 1) * binWidth - 1
+	private final int maxBins;
+	private long[] histogram;
+	private int binWidth = 1;
+
+	/**
+	 * @param maxBins The most bins the histogram of collision steps may use
+	 */
+	public CollisionStatistics(int maxBins) {
+		if(maxBins < 2) {
+			throw new IllegalArgumentException("Invalid number of collision histogram bins: " + maxBins);
+		}
+		this.maxBins = maxBins;
+		this.histogram = new long[Math.min(INITIAL_BINS, maxBins)];
+	}
+
+	// The type collisions of obj are counted as
+	public static int typeOf(Object obj) {
+		if(obj instanceof AcknowledgementMolecule) {
+			return ACK;
+		} else if(obj instanceof InformationMolecule) {
+			return INFO;
+		} else if(obj instanceof NoiseMolecule) {
+			return NOISE;
+		}
+		return OTHER;
+	}
+
+	/**
+	 * Counts a collision at step between a molecule of type moving,
+	 * and one of type hit, see typeOf.
+	 */
+	public void add(int moving, int hit, int step) {
+		if((moving == OTHER) || (hit == OTHER)) {
+			return;
+		}
+		counts[moving][hit]++;
+		total++;
+		int bin = step / binWidth;
+		while(bin >= histogram.length) {
+			if(histogram.length < maxBins) {
+				histogram = Arrays.copyOf(histogram, Math.min(histogram.length * 2, maxBins));
+			} else {
+				mergeBins();
+				bin = step / binWidth;
+			}
+		}
+		histogram[bin]++;
+	}
+
+	// Halves the resolution of the histogram
+	private void mergeBins() {
+		int half = (histogram.length + 1) / 2;
+		for(int i = 0; i < half; i++) {
+			long count = histogram[2 * i];
+			if((2 * i + 1) < histogram.length) {
+				count += histogram[2 * i + 1];
+			}
+			histogram[i] = count;
+		}
+		Arrays.fill(histogram, half, histogram.length, 0);
+		binWidth *= 2;
+	}
+
+	public long getCount(int moving, int hit) {
+		return counts[moving][hit];
+	}
+
+	public long getTotal() {
+		return total;
+	}
+
+	// Number of steps each bin of the histogram covers, 1 unless the simulation outran the bins
+	public int getBinWidth() {
+		return binWidth;
+	}
+
+	public int getNumBins() {
+		return histogram.length;
+	}
+
+	// Collisions counted from step bin * getBinWidth() on, for getBinWidth() steps
+	public long getBinCount(int bin) {
+		return histogram[bin];
+	}
+
+	/**
+	 * Writes the row of the collision batch file, without a line
+	 * separator: the step of every collision, the number of collisions
+	 * between acknowledgement and acknowledgement, acknowledgement and
+	 * information, acknowledgement and noise, information and information,
+	 * information and noise molecules, and the number of decomposed
+	 * molecules if not negative.  Once bins cover several steps, collisions
+	 * are reported at the first step of their bin.
+	 */
+	public void writeBatchRow(Appendable out, int decomposingNum) throws IOException {
+		if(total == 0) {
+			out.append("0,0/0/0/0/0");
+			return;
+		}
+		String separator = "";
+		for(int bin = 0; bin < histogram.length; bin++) {
+			String step = String.valueOf(bin * (long) binWidth);
+			for(long i = 0; i < histogram[bin]; i++) {
+				out.append(separator).append(step);
+				separator = "/";
+			}
+		}
+		out.append("," + counts[ACK][ACK] + "/" + counts[ACK][INFO] + "/" + counts[ACK][NOISE] +
+				"/" + counts[INFO][INFO] + "/" + counts[INFO][NOISE]);
+		if(decomposingNum >= 0) {
+			out.append("," + decomposingNum);
+		}
+	}
+
+	public void writeState(CheckpointWriter out) {
+		for(long[] row : counts) {
+			for(long count : row) {
+				out.putLong(count);
+			}
+		}
+		out.putLong(total);
+		out.putInt(binWidth);
+		out.putInt(histogram.length);
+		for(long count : histogram) {
+			out.putLong(count);
+		}
+	}
+
+	public void readState(CheckpointReader in) {
+		for(long[] row : counts) {
+			for(int i = 0; i < row.length; i++) {
+				row[i] = in.getLong();
+			}
+		}
+		total = in.getLong();
+		binWidth = in.getInt();
+		histogram = new long[in.getInt()];
+		for(int i = 0; i < histogram.length; i++) {
+			histogram[i] = in.getLong();
+		}
+	}
+}
@@ -0,0 +1,93 @@
+/**
+ * The Philox4x32-10 counter-based generator (Salmon et al., Random123):
+ * the four random words for a counter and a key are a fixed function of
+ * both, ten rounds of multiplications and xors, so drawing them needs no
+ * state to keep, save or restore, and the words for many keys can be
+ * computed independently of each other, in any order, in one loop over
+ * arrays (see fill).
+ *
+ * Molecules on a random walk draw their steps from it with walkRandom
+ * COUNTER, each with its own key (see Molecule.getWalkKey) and the
+ * simulation step as counter, one word per axis.
+ */
+
+public final class CounterRandom {
+
+	private static final long M0 = 0xD2511F53L;
+	private static final long M1 = 0xCD9E8D57L;
+	private static final int W0 = 0x9E3779B9;
+	private static final int W1 = 0xBB67AE85;
+	private static final int ROUNDS = 10;
+	private static final double WORD_UNIT = 0x1.0p-32;
+
+	private CounterRandom() {
+	}
+
+	/**
+	 * Writes the first three words for the counter (step, 0, 0, 0) and each of
+	 * keys[from] to keys[to - 1] at the same index of x, y and z, as word would.
+	 * The loop only reads keys and writes the three arrays, without branches
+	 * or calls, one index independent of the others.
+	 */
+	public static void fill(long[] keys, int step, int from, int to, int[] x, int[] y, int[] z) {
+		for(int i = from; i < to; i++) {
+			long key = keys[i];
+			int k0 = (int) key;
+			int k1 = (int) (key >>> 32);
+			int c0 = step;
+			int c1 = 0;
+			int c2 = 0;
+			int c3 = 0;
+			for(int round = 0; round < ROUNDS; round++) {
+				long p0 = M0 * (c0 & 0xffffffffL);
+				long p1 = M1 * (c2 & 0xffffffffL);
+				c0 = (int) (p1 >>> 32) ^ c1 ^ k0;
+				c1 = (int) p1;
+				c2 = (int) (p0 >>> 32) ^ c3 ^ k1;
+				c3 = (int) p0;
+				k0 += W0;
+				k1 += W1;
+			}
+			x[i] = c0;
+			y[i] = c1;
+			z[i] = c2;
+		}
+	}
+
+	/**
+	 * @param index Which of the four words to return, 0 to 3
+	 * @return word index of the output of Philox4x32-10 for the counter (c0, c1, c2, c3) and key (k0, k1)
+	 */
+	public static int word(int c0, int c1, int c2, int c3, int k0, int k1, int index) {
+		for(int round = 0; round < ROUNDS; round++) {
+			long p0 = M0 * (c0 & 0xffffffffL);
+			long p1 = M1 * (c2 & 0xffffffffL);
+			c0 = (int) (p1 >>> 32) ^ c1 ^ k0;
+			c1 = (int) p1;
+			c2 = (int) (p0 >>> 32) ^ c3 ^ k1;
+			c3 = (int) p0;
+			k0 += W0;
+			k1 += W1;
+		}
+		switch(index) {
+		case 0:
+			return c0;
+		case 1:
+			return c1;
+		case 2:
+			return c2;
+		default:
+			return c3;
+		}
+	}
+
+	// Word axis (0 to 2) of a step, the same fill writes for key in x, y or z
+	public static int word(long key, int step, int axis) {
+		return word(step, 0, 0, 0, (int) key, (int) (key >>> 32), axis);
+	}
+
+	// uniformly distributed in [0, 1)
+	public static double toDouble(int word) {
+		return (word & 0xffffffffL) * WORD_UNIT;
+	}
+}
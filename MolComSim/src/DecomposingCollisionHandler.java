@@ -13,6 +13,10 @@ public class DecomposingCollisionHandler extends CollisionDecorator {
 		this.mode = mode;
 	}
 
+	int getMode() {
+		return mode;
+	}
+
 	/**
 	 * Moving molecule stays in place if it collides with another molecule;
 	 * Additionally, if an acknowledgement molecule and an information molecule with
@@ -33,21 +37,20 @@ public class DecomposingCollisionHandler extends CollisionDecorator {
 				if (mol instanceof InformationMolecule) {
 					for (Object o : alreadyThere) {
 						if (o instanceof AcknowledgementMolecule) {
-							if (((AcknowledgementMolecule) o).getMsgId() == mol.getMsgId()) {
+							if (((AcknowledgementMolecule) o).getMsgId().intValue() == mol.getMsgId()) {
 								// remove info molecule from simulation
-								simulation.moveObject(mol, mol.getPosition(), simulation.getMedium().garbageSpot());
+								simulation.removeMolecule(mol);
 								simulation.addDecomposingNum();
-								return simulation.getMedium().garbageSpot();
+								return mol.getPosition();
 							}
 						}
 					}
 				} else if (mol instanceof AcknowledgementMolecule) {
 					for (Object o : alreadyThere) {
 						if (o instanceof InformationMolecule) {
-							if (((InformationMolecule) o).getMsgId() == mol.getMsgId()) {
+							if (((InformationMolecule) o).getMsgId().intValue() == mol.getMsgId()) {
 								// remove info molecule from simulation
-								simulation.getMedium().moveObject(o, nextPosition,
-										simulation.getMedium().garbageSpot());
+								simulation.removeMolecule((Molecule) o, nextPosition);
 								simulation.addDecomposingNum();
 								break;
 							}
@@ -68,9 +71,9 @@ public class DecomposingCollisionHandler extends CollisionDecorator {
 						if (o instanceof AcknowledgementMolecule) {
 							if (((AcknowledgementMolecule) o).getMsgId() >= mol.getMsgId()) {
 								// remove info molecule from simulation
-								simulation.moveObject(mol, mol.getPosition(), simulation.getMedium().garbageSpot());
+								simulation.removeMolecule(mol);
 								simulation.addDecomposingNum();
-								return simulation.getMedium().garbageSpot();
+								return mol.getPosition();
 							}
 						}
 					}
@@ -79,8 +82,7 @@ public class DecomposingCollisionHandler extends CollisionDecorator {
 						if (o instanceof InformationMolecule) {
 							if (((InformationMolecule) o).getMsgId() <= mol.getMsgId()) {
 								// remove info molecule from simulation
-								simulation.getMedium().moveObject(o, nextPosition,
-										simulation.getMedium().garbageSpot());
+								simulation.removeMolecule((Molecule) o, nextPosition);
 								simulation.addDecomposingNum();
 								break;
 							}
@@ -102,13 +104,12 @@ public class DecomposingCollisionHandler extends CollisionDecorator {
 						if (o instanceof AcknowledgementMolecule) {
 							if (((AcknowledgementMolecule) o).getMsgId() >= mol.getMsgId()) {
 								// remove info molecule from simulation
-								simulation.moveObject(mol, mol.getPosition(), simulation.getMedium().garbageSpot());
+								simulation.removeMolecule(mol);
 								simulation.addDecomposingNum();
-								return simulation.getMedium().garbageSpot();
+								return mol.getPosition();
 							} else if (((AcknowledgementMolecule) o).getMsgId() < mol.getMsgId()) {
 								// remove info molecule from simulation
-								simulation.getMedium().moveObject(o, nextPosition,
-										simulation.getMedium().garbageSpot());
+								simulation.removeMolecule((Molecule) o, nextPosition);
 								simulation.addDecomposingNum();
 								break;
 							}
@@ -119,15 +120,14 @@ public class DecomposingCollisionHandler extends CollisionDecorator {
 						if (o instanceof InformationMolecule) {
 							if (((InformationMolecule) o).getMsgId() <= mol.getMsgId()) {
 								// remove info molecule from simulation
-								simulation.getMedium().moveObject(o, nextPosition,
-										simulation.getMedium().garbageSpot());
+								simulation.removeMolecule((Molecule) o, nextPosition);
 								simulation.addDecomposingNum();
 								break;
 							} else if (((InformationMolecule) o).getMsgId() > mol.getMsgId()) {
 								// remove info molecule from simulation
-								simulation.moveObject(mol, mol.getPosition(), simulation.getMedium().garbageSpot());
+								simulation.removeMolecule(mol);
 								simulation.addDecomposingNum();
-								return simulation.getMedium().garbageSpot();
+								return mol.getPosition();
 							}
 						}
 					}
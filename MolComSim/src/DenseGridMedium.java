@@ -0,0 +1,409 @@
+/**
+ *  Medium that keeps track of the objects in it with flat
+ *  arrays indexed by the linearized (x, y, z) cell of the medium.
+ *
+ *  Each cell stores the number of molecules in it and the head and tail
+ *  of an intrusive doubly linked list of all the objects in the cell.
+ *  List nodes live in parallel arrays as well, and every molecule 
+ *  remembers its own node, so moving a molecule never hashes a Position
+ *  or walks a list.
+ *
+ *  The lists behave exactly like the lists of a HashMapMedium, so both
+ *  media give the same results: objects are appended to the end of the
+ *  list of their cell, and removed from (or moved from) the position 
+ *  they are said to be at, if they are there at all.  A molecule whose 
+ *  position changed without the medium being told (collision handlers
+ *  that never call moveObject) is therefore left behind in its old cell,
+ *  and may end up in several cells.  Such molecules are looked for in 
+ *  the list of the cell instead, see MULTIPLE_NODES.
+ *
+ *  Positions outside of the bounds of the medium are kept in 
+ *  a small map on the side.
+ *
+ *  Every position within the bounds is represented by a single
+ *  Position instance, created the first time it is asked for, so 
+ *  moving molecules around does not allocate any Position.
+ */
+
+import java.util.*;
+
+public class DenseGridMedium extends Medium {
+
+	private static final int NO_NODE = -1;
+	// gridNode of a molecule that may have several nodes, found by walking cell lists
+	private static final int MULTIPLE_NODES = -2;
+	private static final int INITIAL_NODE_CAPACITY = 1024;
+
+	// lowest coordinate and number of cells in each dimension
+	private final int minX;
+	private final int minY;
+	private final int minZ;
+	private final int dimX;
+	private final int dimY;
+	private final int dimZ;
+
+	// per-cell state, indexed by cellIndex(x, y, z)
+	private final int[] head;
+	private final int[] tail;
+	private final int[] moleculeCount;
+	// number of cells with at least one molecule
+	private int numMoleculeCells = 0;
+	// the shared Position of each cell, see getPosition
+	private final Position[] positions;
+
+	// list nodes, each one holding a single object in a single cell
+	private Object[] nodeObject;
+	private int[] nodeNext;
+	private int[] nodePrev;
+	private int[] nodeCell;
+	private int freeNode = NO_NODE;
+	private int nodesUsed = 0;
+
+	// objects outside of the bounds of the medium
+	private HashMap<Position, ArrayList<Object>> outOfBounds;
+
+	public DenseGridMedium(int l, int h, int w, ArrayList<MoleculeParams> noiseMoleculeParams, MolComSim sim) {
+		super(l, h, w, noiseMoleculeParams, sim);
+		// getClosestPosition keeps molecules within [-dim/2, dim/2] in each dimension
+		minX = length / -2;
+		minY = width / -2;
+		minZ = height / -2;
+		dimX = (length / 2) - minX + 1;
+		dimY = (width / 2) - minY + 1;
+		dimZ = (height / 2) - minZ + 1;
+		int numCells = dimX * dimY * dimZ;
+		head = new int[numCells];
+		Arrays.fill(head, NO_NODE);
+		tail = new int[numCells];
+		Arrays.fill(tail, NO_NODE);
+		moleculeCount = new int[numCells];
+		positions = new Position[numCells];
+		nodeObject = new Object[INITIAL_NODE_CAPACITY];
+		nodeNext = new int[INITIAL_NODE_CAPACITY];
+		nodePrev = new int[INITIAL_NODE_CAPACITY];
+		nodeCell = new int[INITIAL_NODE_CAPACITY];
+		outOfBounds = new HashMap<Position, ArrayList<Object>>();
+	}
+
+	// Linearized index of the cell at (x, y, z), or NO_NODE if outside of the medium.
+	private int cellIndex(int x, int y, int z) {
+		int cx = x - minX;
+		int cy = y - minY;
+		int cz = z - minZ;
+		if(cx < 0 || cx >= dimX || cy < 0 || cy >= dimY || cz < 0 || cz >= dimZ) {
+			return NO_NODE;
+		}
+		return (cx * dimY + cy) * dimZ + cz;
+	}
+
+	private int cellIndex(Position pos) {
+		return cellIndex(pos.getX(), pos.getY(), pos.getZ());
+	}
+
+	// Called concurrently while proposing moves: two threads may both create 
+	// the Position of a cell, which is harmless since Positions are immutable.
+	public Position getPosition(int x, int y, int z) {
+		int cell = cellIndex(x, y, z);
+		if(cell == NO_NODE) {
+			return new Position(x, y, z);
+		}
+		Position pos = positions[cell];
+		if(pos == null) {
+			pos = new Position(x, y, z);
+			positions[cell] = pos;
+		}
+		return pos;
+	}
+
+	private int allocateNode(Object obj) {
+		int node;
+		if(freeNode != NO_NODE) {
+			node = freeNode;
+			freeNode = nodeNext[node];
+		} else {
+			if(nodesUsed == nodeObject.length) {
+				int capacity = nodeObject.length * 2;
+				nodeObject = Arrays.copyOf(nodeObject, capacity);
+				nodeNext = Arrays.copyOf(nodeNext, capacity);
+				nodePrev = Arrays.copyOf(nodePrev, capacity);
+				nodeCell = Arrays.copyOf(nodeCell, capacity);
+			}
+			node = nodesUsed++;
+		}
+		nodeObject[node] = obj;
+		return node;
+	}
+
+	private void releaseNode(int node) {
+		nodeObject[node] = null;
+		nodeNext[node] = freeNode;
+		freeNode = node;
+	}
+
+	// Append node to the end of the list of cell
+	private void link(int node, int cell) {
+		nodeCell[node] = cell;
+		nodeNext[node] = NO_NODE;
+		nodePrev[node] = tail[cell];
+		if(tail[cell] != NO_NODE) {
+			nodeNext[tail[cell]] = node;
+		} else {
+			head[cell] = node;
+		}
+		tail[cell] = node;
+		if(nodeObject[node] instanceof Molecule) {
+			if(moleculeCount[cell]++ == 0) {
+				numMoleculeCells++;
+			}
+		}
+	}
+
+	private void unlink(int node) {
+		int cell = nodeCell[node];
+		if(nodePrev[node] != NO_NODE) {
+			nodeNext[nodePrev[node]] = nodeNext[node];
+		} else {
+			head[cell] = nodeNext[node];
+		}
+		if(nodeNext[node] != NO_NODE) {
+			nodePrev[nodeNext[node]] = nodePrev[node];
+		} else {
+			tail[cell] = nodePrev[node];
+		}
+		if(nodeObject[node] instanceof Molecule) {
+			if(--moleculeCount[cell] == 0) {
+				numMoleculeCells--;
+			}
+		}
+	}
+
+	// Finds the first node holding obj in the list of cell, NO_NODE if there is none
+	private int walkNodes(Object obj, int cell) {
+		for(int node = head[cell]; node != NO_NODE; node = nodeNext[node]) {
+			if(nodeObject[node] == obj) {
+				return node;
+			}
+		}
+		return NO_NODE;
+	}
+
+	//Add an object to the grid of objects
+	public void addObject(Object obj, Position pos){
+		int cell = cellIndex(pos);
+		if(cell == NO_NODE) {
+			if (!outOfBounds.containsKey(pos)){
+				outOfBounds.put(pos, new ArrayList<Object>());
+			}
+			outOfBounds.get(pos).add(obj);
+			return;
+		}
+		int node = allocateNode(obj);
+		link(node, cell);
+		if(obj instanceof Molecule) {
+			Molecule mol = (Molecule) obj;
+			mol.setGridNode((mol.getGridNode() == NO_NODE) ? node : MULTIPLE_NODES);
+		}
+	}
+
+	// Finds the first node holding obj in cell, looking at the node of a molecule if it has
+	// a single one, and walking the list of the cell otherwise
+	private int findNode(Object obj, int cell) {
+		if(obj instanceof Molecule) {
+			int node = ((Molecule) obj).getGridNode();
+			if(node != MULTIPLE_NODES) {
+				return ((node != NO_NODE) && (nodeCell[node] == cell)) ? node : NO_NODE;
+			}
+		}
+		return walkNodes(obj, cell);
+	}
+
+	private void removeOutOfBounds(Object obj, Position pos) {
+		if(outOfBounds.containsKey(pos)) {
+			outOfBounds.get(pos).remove(obj);
+			if(outOfBounds.get(pos).isEmpty())
+				outOfBounds.remove(pos);
+		}
+	}
+
+	//Remove an object from the grid of objects, if it is at pos
+	public void removeObject(Object obj, Position pos){
+		int cell = cellIndex(pos);
+		if(cell == NO_NODE) {
+			removeOutOfBounds(obj, pos);
+			return;
+		}
+		int node = findNode(obj, cell);
+		if(node == NO_NODE) {
+			return;
+		}
+		unlink(node);
+		releaseNode(node);
+		if((obj instanceof Molecule) && (((Molecule) obj).getGridNode() == node)) {
+			((Molecule) obj).setGridNode(NO_NODE);
+		}
+	}
+
+	//Move an object from its old location in the grid, if it is there, to the new position
+	public void moveObject(Object obj, Position oldPos, Position newPos){
+		int oldCell = cellIndex(oldPos);
+		int newCell = cellIndex(newPos);
+		int node = (oldCell == NO_NODE) ? NO_NODE : findNode(obj, oldCell);
+		if((node == NO_NODE) || (newCell == NO_NODE)) {
+			removeObject(obj, oldPos);
+			addObject(obj, newPos);
+			return;
+		}
+		// the node is reused, whether it is the only one of the object or not
+		unlink(node);
+		link(node, newCell);
+	}
+
+	//Checks to see if a particular position already has anything in it
+	public boolean isOccupied(Position pos){
+		int cell = cellIndex(pos);
+		if(cell == NO_NODE) {
+			return outOfBounds.containsKey(pos) && !outOfBounds.get(pos).isEmpty();
+		}
+		return head[cell] != NO_NODE;
+	}
+
+	// Microtubules inside the medium are found by the static geometry,
+	// the dense grid does not look any further
+	protected Microtubule findMicrotubuleAtPos(Position pos){
+		return null;
+	}
+
+	//Checks to see if a particular position has a molecule in it
+	public boolean hasMolecule(Position pos){
+		return hasMolecule(pos.getX(), pos.getY(), pos.getZ());
+	}
+
+	public boolean hasMolecule(int x, int y, int z){
+		int cell = cellIndex(x, y, z);
+		if(cell == NO_NODE) {
+			return !outOfBounds.isEmpty() && hasMoleculeOutOfBounds(new Position(x, y, z));
+		}
+		return moleculeCount[cell] > 0;
+	}
+
+	//Sum of the volumes of all molecules located in a particular position,
+	//added up in the order of the list as a HashMapMedium does, to round the same way
+	public double getMoleculeVolumeAtPos(Position pos){
+		int cell = cellIndex(pos);
+		if(cell == NO_NODE) {
+			return getMoleculeVolumeOutOfBounds(pos);
+		}
+		double vsum = 0.0;
+		if(moleculeCount[cell] == 0) {
+			return vsum;
+		}
+		for(int node = head[cell]; node != NO_NODE; node = nodeNext[node]) {
+			if(nodeObject[node] instanceof Molecule) {
+				vsum += ((Molecule) nodeObject[node]).getVolume();
+			}
+		}
+		return vsum;
+	}
+
+	private boolean hasMoleculeOutOfBounds(Position pos){
+		if(outOfBounds.containsKey(pos)) {
+			for(Object obj : outOfBounds.get(pos)) {
+				if(obj instanceof Molecule)
+					return true;
+			}
+		}
+		return false;
+	}
+
+	private double getMoleculeVolumeOutOfBounds(Position pos){
+		double vsum = 0.0;
+		if(outOfBounds.containsKey(pos)) {
+			for(Object obj : outOfBounds.get(pos)) {
+				if(obj instanceof Molecule)
+					vsum += ((Molecule) obj).getVolume();
+			}
+		}
+		return vsum;
+	}
+
+	//Returns a list of everything located in a particular position
+	public ArrayList<Object> getObjectsAtPos(Position pos){
+		int cell = cellIndex(pos);
+		if(cell == NO_NODE) {
+			if (isOccupied(pos))
+				return outOfBounds.get(pos);
+			return null;
+		}
+		if(head[cell] == NO_NODE) {
+			return null;
+		}
+		ArrayList<Object> objects = new ArrayList<Object>();
+		for(int node = head[cell]; node != NO_NODE; node = nodeNext[node]) {
+			objects.add(nodeObject[node]);
+		}
+		return objects;
+	}
+
+	//Returns every position with at least one molecule in it
+	public ArrayList<Position> getMoleculePositions(){
+		ArrayList<Position> molPositions = new ArrayList<Position>();
+		for(int cell = 0; cell < moleculeCount.length; cell++) {
+			if(moleculeCount[cell] > 0) {
+				int cz = cell % dimZ;
+				int cy = (cell / dimZ) % dimY;
+				int cx = cell / (dimZ * dimY);
+				molPositions.add(getPosition(cx + minX, cy + minY, cz + minZ));
+			}
+		}
+		for(Map.Entry<Position, ArrayList<Object>> entry : outOfBounds.entrySet()) {
+			for(Object obj : entry.getValue()) {
+				if(obj instanceof Molecule) {
+					molPositions.add(entry.getKey());
+					break;
+				}
+			}
+		}
+		return molPositions;
+	}
+
+	//Returns the number of positions with at least one molecule in it, without
+	//looking at the cells unless there are molecules out of bounds
+	public int getNumMoleculePositions() {
+		return outOfBounds.isEmpty() ? numMoleculeCells : getMoleculePositions().size();
+	}
+
+	//Replaces everything at pos with objects, the volume of the molecules is
+	//always added up from the objects
+	public void restoreObjectsAtPos(Position pos, ArrayList<Object> objects, double volume){
+		int cell = cellIndex(pos);
+		if(cell == NO_NODE) {
+			outOfBounds.remove(pos);
+			if(!objects.isEmpty()) {
+				outOfBounds.put(pos, new ArrayList<Object>(objects));
+			}
+			return;
+		}
+		while(head[cell] != NO_NODE) {
+			int node = head[cell];
+			unlink(node);
+			if((nodeObject[node] instanceof Molecule) && (((Molecule) nodeObject[node]).getGridNode() == node)) {
+				((Molecule) nodeObject[node]).setGridNode(NO_NODE);
+			}
+			releaseNode(node);
+		}
+		for(Object obj : objects) {
+			addObject(obj, pos);
+		}
+	}
+
+	// Nanomachines inside the medium are found by the static geometry,
+	// the dense grid does not look any further
+	protected NanoMachine findRxNanoMachineAtPos(Position pos) {
+		return null;
+	}
+
+	protected NanoMachine findTxNanoMachineAtPos(Position pos) {
+		return null;
+	}
+
+}
@@ -4,50 +4,49 @@
  *
  */
 
-import java.util.*;
-
 public class DiffusiveRandomMovementController extends MovementController{
-	private static Random random = new Random();
-	
-	public DiffusiveRandomMovementController(CollisionHandler collHandle, MolComSim sim, Molecule mol) {
-		super(collHandle, sim, mol);
+	public static final DiffusiveRandomMovementController INSTANCE = new DiffusiveRandomMovementController();
+
+	private DiffusiveRandomMovementController() {
 	}
 	
 	/** Randomly selects where to move molecule based on simulation step length parameters
 	 *  @param molecule The molecule to move
 	 *  @return the position to move to
 	 */
-	protected Position decideNextPosition() {
+	protected Position decideNextPosition(Molecule molecule) {
 		//Randomly decide the next position based on current position + some delta.
-		Position currentPosition = getMolecule().getPosition();
+		MolComSim simulation = molecule.getSimulation();
+		Position currentPosition = molecule.getPosition();
 		int currentX = currentPosition.getX();
 		int currentY = currentPosition.getY(); 
 		int currentZ = currentPosition.getZ();
 		// The idea behind the getMolRandMove~ methods are that the molecule moves a random amount in one step
 		// , and that will, for each dimension, be a random amount between -getMolRandMove~ and +getMolRandMove~
-		double maxXDelta = getSimulation().getSimParams().getPacketStepLengthX();
-		double maxYDelta = getSimulation().getSimParams().getPacketStepLengthY();
-		double maxZDelta = getSimulation().getSimParams().getPacketStepLengthZ();
-		int nextX = currentX + (int)Math.round(random.nextDouble() * (maxXDelta * 2) - maxXDelta);
-		int nextY = currentY + (int)Math.round(random.nextDouble() * (maxYDelta * 2) - maxYDelta);
-		int nextZ = currentZ + (int)Math.round(random.nextDouble() * (maxZDelta * 2) - maxZDelta);
+		SimulationPlan plan = simulation.getPlan();
+		double maxXDelta = plan.getRandomWalkDeltaX();
+		double maxYDelta = plan.getRandomWalkDeltaY();
+		double maxZDelta = plan.getRandomWalkDeltaZ();
+		int nextX = currentX + (int)Math.round(nextUniform(molecule, 0) * (maxXDelta * 2) - maxXDelta);
+		int nextY = currentY + (int)Math.round(nextUniform(molecule, 1) * (maxYDelta * 2) - maxYDelta);
+		int nextZ = currentZ + (int)Math.round(nextUniform(molecule, 2) * (maxZDelta * 2) - maxZDelta);
 //		int nextX = currentX + random.nextInt(1 + (2 * (int)maxXDelta)) - (int)maxXDelta;
 //		int nextY = currentY + random.nextInt(1 + (2 * (int)maxYDelta)) - (int)maxYDelta;
 //		int nextZ = currentZ + random.nextInt(1 + (2 * (int)maxZDelta)) - (int)maxZDelta;
-		Position nextPosition = new Position(nextX, nextY, nextZ);
+		Position nextPosition = simulation.getMedium().getClosestPosition(nextX, nextY, nextZ);
 //		
 		//If the molecule has ACTIVE movement type, it looks for a nearby microtubule to reattach to
-		if (getMolecule().getMoleculeMovementType() == MoleculeMovementType.ACTIVE){
-			//If a microtubule is found, change molecule's collision handler and movement controller
-			Microtubule microtubule = simulation.getMedium().hasMicrotubule(getMolecule().getPosition());
+		if (molecule.getMoleculeMovementType() == MoleculeMovementType.ACTIVE){
+			//If a microtubule is found, change molecule's collision handler and movement state
+			Microtubule microtubule = simulation.getMedium().hasMicrotubule(molecule.getPosition());
 			if (microtubule != null){
-				CollisionHandler collH = simulation.isUsingCollisions() ? 
-						(simulation.decomposing() ? new OnTubuleCollisionHandler(new DecomposingCollisionHandler(new SimpleCollisionHandler(), simulation.getDecomposingMode())) :
-							new OnTubuleCollisionHandler(new SimpleCollisionHandler())) : new NullCollisionHandler(new SimpleCollisionHandler());
-				new OnMicrotubuleMovementController(collH, simulation, getMolecule(), microtubule);
+				molecule.setMovement(MovementState.ON_MICROTUBULE, plan.getReattachHandler(), microtubule);
 			}
 		}
 		return nextPosition;
 	}
-}
 
+	public MovementState getMovementState() {
+		return MovementState.RANDOM_WALK;
+	}
+}
@@ -0,0 +1,209 @@
+/**
+ * Fast mode for simulations in which molecules do not interact with
+ * anything but the nanomachines that absorb them: no collisions, no 
+ * noise molecules, no microtubules and no intermediate nodes.
+ * 
+ * Molecules are then independent random walks, so instead of being moved
+ * every step, each molecule draws the step at which it will be absorbed, 
+ * and by which nanomachine, from a FirstPassageTable computed once per 
+ * release position and kind of walk.  The absorptions are kept in a queue and handed
+ * to the nanomachines at those steps, in order of release for absorptions
+ * in the same step, so the protocol logic of the transmitters and receivers 
+ * runs unchanged, as a sequence of discrete events.
+ * 
+ * Results follow the same distribution as stepping molecules, but are not
+ * identical for the same seed.
+ */
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.PriorityQueue;
+
+public class FirstPassageScheduler {
+
+	private final MolComSim simulation;
+	private final int horizon;
+	private final double[] randomWalkDelta;
+	private final double[] packetWalkDelta;
+	// tables by release position, kind of walk and target
+	private HashMap<String, FirstPassageTable> tables = new HashMap<String, FirstPassageTable>();
+	private PriorityQueue<Absorption> absorptions = new PriorityQueue<Absorption>();
+	// molecules released since the last call to absorb, and the step they were released in
+	private ArrayList<Molecule> released = new ArrayList<Molecule>();
+	private ArrayList<Integer> releaseSteps = new ArrayList<Integer>();
+	private long numScheduled = 0;
+	private NanoMachine[] absorber = new NanoMachine[1];
+
+	public FirstPassageScheduler(MolComSim sim) {
+		simulation = sim;
+		SimulationParams simParams = sim.getSimParams();
+		horizon = simParams.getFirstPassageHorizon();
+		// crossed on purpose, the same wiring as in SimulationPlan
+		randomWalkDelta = new double[] {simParams.getPacketStepLengthX(), 
+				simParams.getPacketStepLengthY(), simParams.getPacketStepLengthZ()};
+		packetWalkDelta = new double[] {simParams.getMolRandMoveX(), 
+				simParams.getMolRandMoveY(), simParams.getMolRandMoveZ()};
+	}
+
+	/**
+	 * @return whether the simulation described by simParams qualifies for the fast mode
+	 */
+	public static boolean canSchedule(SimulationParams simParams) {
+		return !simParams.isUsingCollisions() && simParams.getNoiseMoleculeParams().isEmpty() && 
+				simParams.getMicrotubuleParams().isEmpty() && simParams.getIntermediateNodeParams().isEmpty();
+	}
+
+	/**
+	 * Takes mol, released in the current step, over: when it will be absorbed is 
+	 * drawn at the next call to absorb, once all nanomachines are in place.
+	 * 
+	 * @return false if mol is not a random walking information or acknowledgement molecule,
+	 *  and has to be moved step by step.
+	 */
+	public boolean schedule(Molecule mol) {
+		if(target(mol) == StaticGeometry.EMPTY) {
+			return false;
+		}
+		MovementState state = mol.getMovementState();
+		if(state != MovementState.RANDOM_WALK && state != MovementState.PACKET_WALK) {
+			return false;
+		}
+		released.add(mol);
+		releaseSteps.add(simulation.getSimStep());
+		return true;
+	}
+
+	// Tag of the cells absorbing mol
+	private byte target(Molecule mol) {
+		if(mol instanceof InformationMolecule || mol instanceof PacketMolecule) {
+			return StaticGeometry.RECEIVER;
+		} else if(mol instanceof AcknowledgementMolecule) {
+			return StaticGeometry.TRANSMITTER;
+		}
+		return StaticGeometry.EMPTY;
+	}
+
+	// Draws when mol, released in releaseStep, will be absorbed and queues its absorption
+	private void draw(Molecule mol, int releaseStep) {
+		MovementState state = mol.getMovementState();
+		FirstPassageTable table = getTable(mol.getPosition(), state, target(mol));
+		int steps = table.sample(mol.getRandom(), absorber);
+		if(steps != FirstPassageTable.NEVER) {
+			// a molecule absorbed during its first move is absorbed in the step it was released in
+			long step = (long) releaseStep + steps - 1;
+			absorptions.add(new Absorption(step, numScheduled, mol, absorber[0]));
+		}
+		numScheduled++;
+	}
+
+	private FirstPassageTable getTable(Position start, MovementState state, byte target) {
+		String key = start + " " + state + " " + target;
+		FirstPassageTable table = tables.get(key);
+		if(table == null) {
+			double[] delta = (state == MovementState.RANDOM_WALK) ? randomWalkDelta : packetWalkDelta;
+			table = new FirstPassageTable(simulation.getMedium(), start, delta, target, horizon);
+			tables.put(key, table);
+		}
+		return table;
+	}
+
+	/**
+	 * Hands every molecule absorbed in step, or before, to the nanomachine absorbing it
+	 */
+	public void absorb(int step) {
+		for(int i = 0; i < released.size(); i++) {
+			draw(released.get(i), releaseSteps.get(i));
+		}
+		released.clear();
+		releaseSteps.clear();
+		while(!absorptions.isEmpty() && absorptions.peek().step <= step) {
+			Absorption absorption = absorptions.poll();
+			if(!absorption.molecule.isDead()) {
+				absorption.nanoMachine.receiveMolecule(absorption.molecule);
+			}
+		}
+	}
+
+	// Earliest step in which a molecule may be absorbed, Long.MAX_VALUE if none is waiting
+	public long getNextAbsorptionStep() {
+		if(!released.isEmpty()) {
+			// not drawn yet
+			return simulation.getSimStep();
+		}
+		return absorptions.isEmpty() ? Long.MAX_VALUE : absorptions.peek().step;
+	}
+
+	// Whether any molecule is still waiting to be absorbed
+	public boolean hasPendingAbsorptions() {
+		return !absorptions.isEmpty() || !released.isEmpty();
+	}
+
+	// Adds the molecules waiting to be absorbed to the molecules of a checkpoint
+	void addMolecules(CheckpointWriter out) {
+		for(Molecule mol : released) {
+			out.addMolecule(mol);
+		}
+		for(Absorption absorption : absorptions) {
+			out.addMolecule(absorption.molecule);
+		}
+	}
+
+	// The tables are not saved, they are computed again when needed
+	void writeState(CheckpointWriter out) {
+		out.putLong(numScheduled);
+		out.putInt(released.size());
+		for(int i = 0; i < released.size(); i++) {
+			out.putMoleculeRef(released.get(i));
+			out.putInt(releaseSteps.get(i));
+		}
+		out.putInt(absorptions.size());
+		for(Absorption absorption : absorptions) {
+			out.putLong(absorption.step);
+			out.putLong(absorption.order);
+			out.putMoleculeRef(absorption.molecule);
+			out.putNanoMachineRef(absorption.nanoMachine);
+		}
+	}
+
+	void readState(CheckpointReader in) {
+		numScheduled = in.getLong();
+		released.clear();
+		releaseSteps.clear();
+		int numReleased = in.getInt();
+		for(int i = 0; i < numReleased; i++) {
+			released.add(in.getMoleculeRef());
+			releaseSteps.add(in.getInt());
+		}
+		absorptions.clear();
+		int numAbsorptions = in.getInt();
+		for(int i = 0; i < numAbsorptions; i++) {
+			long step = in.getLong();
+			long order = in.getLong();
+			Molecule mol = in.getMoleculeRef();
+			absorptions.add(new Absorption(step, order, mol, in.getNanoMachineRef()));
+		}
+	}
+
+	// The absorption of a molecule by a nanomachine, at a step
+	private static class Absorption implements Comparable<Absorption> {
+		private final long step;
+		// order in which absorptions were scheduled, to break ties
+		private final long order;
+		private final Molecule molecule;
+		private final NanoMachine nanoMachine;
+
+		Absorption(long step, long order, Molecule mol, NanoMachine nm) {
+			this.step = step;
+			this.order = order;
+			this.molecule = mol;
+			this.nanoMachine = nm;
+		}
+
+		public int compareTo(Absorption other) {
+			if(step != other.step) {
+				return (step < other.step) ? -1 : 1;
+			}
+			return Long.compare(order, other.order);
+		}
+	}
+}
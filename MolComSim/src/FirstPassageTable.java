@@ -0,0 +1,318 @@
+/**
+ * Distribution of the step at which a molecule released at a given 
+ * position is first absorbed by a nanomachine, when it does a plain 
+ * random walk that nothing else interferes with, and by which nanomachine.
+ * 
+ * The distribution is computed exactly rather than by sampling walks: the
+ * probability of the molecule being in each cell of the medium is carried
+ * forward one step at a time.  A step of the random walk moves each 
+ * coordinate independently by round(U * 2 * delta - delta), and clamps it 
+ * to the medium, so a step is three one-dimensional convolutions, one per
+ * axis, after which the probability in the absorbing cells is absorbed.
+ * 
+ * In a bounded medium the probability of not being absorbed yet ends up
+ * decaying by the same factor every step, once the walk has forgotten where
+ * it started.  The distribution is carried forward until that rate has 
+ * settled (or for at most a number of steps, the horizon), and continues
+ * as a geometric tail with the last rate and absorber proportions after that.
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+public class FirstPassageTable {
+
+	// step of molecules never absorbed
+	public static final int NEVER = Integer.MAX_VALUE;
+	// below this probability of not being absorbed yet, the distribution is complete
+	private static final double NEGLIGIBLE = 1e-12;
+	// steps between two checks that the absorption rate has settled, and by how much it may still change
+	private static final int RATE_CHECK_INTERVAL = 100;
+	private static final double RATE_TOLERANCE = 1e-3;
+
+	// nanomachines absorbing the molecule
+	private final NanoMachine[] absorbers;
+	// cumulative[t - 1] is the probability of being absorbed at step t or before
+	private double[] cumulative;
+	// absorbed[i][t - 1] is the probability of being absorbed at step t by absorbers[i]
+	private double[][] absorbed;
+	private int numSteps = 0;
+	// probability of being absorbed at each step after numSteps, given not absorbed before
+	private double tailRate = 0.0;
+	// share of each absorber in the absorptions after numSteps
+	private double[] tailShares;
+
+	/**
+	 * Computes the first passage distribution of molecules released at start
+	 * 
+	 * @param medium Medium in which the molecules move
+	 * @param start Where the molecules are released
+	 * @param delta Maximum x, y, z step of the molecules
+	 * @param target StaticGeometry tag of the cells that absorb molecules
+	 * @param horizon Maximum number of steps to carry the distribution forward for
+	 */
+	public FirstPassageTable(Medium medium, Position start, double[] delta, byte target, int horizon) {
+		StaticGeometry geometry = medium.getStaticGeometry();
+		int[] min = {medium.getLength() / -2, medium.getWidth() / -2, medium.getHeight() / -2};
+		int[] dim = {(medium.getLength() / 2) - min[0] + 1, (medium.getWidth() / 2) - min[1] + 1, 
+				(medium.getHeight() / 2) - min[2] + 1};
+		int[] stride = {dim[1] * dim[2], dim[2], 1};
+
+		// absorbing cells and the index of their absorber
+		ArrayList<NanoMachine> absorberList = new ArrayList<NanoMachine>();
+		ArrayList<Integer> absorbingCells = new ArrayList<Integer>();
+		ArrayList<Integer> absorbingIndex = new ArrayList<Integer>();
+		for(int x = 0; x < dim[0]; x++) {
+			for(int y = 0; y < dim[1]; y++) {
+				for(int z = 0; z < dim[2]; z++) {
+					int cell = geometry.cellIndex(x + min[0], y + min[1], z + min[2]);
+					if((geometry.getTag(cell) & target) == 0) {
+						continue;
+					}
+					NanoMachine nm = (target == StaticGeometry.RECEIVER) ? 
+							geometry.getReceiver(cell) : geometry.getTransmitter(cell);
+					if(!absorberList.contains(nm)) {
+						absorberList.add(nm);
+					}
+					absorbingCells.add(x * stride[0] + y * stride[1] + z);
+					absorbingIndex.add(absorberList.indexOf(nm));
+				}
+			}
+		}
+		absorbers = absorberList.toArray(new NanoMachine[absorberList.size()]);
+		cumulative = new double[64];
+		absorbed = new double[absorbers.length][64];
+		tailShares = new double[absorbers.length];
+		if(absorbers.length == 0) {
+			return;
+		}
+
+		double[][] weights = new double[3][];
+		int[] lowest = new int[3];
+		for(int axis = 0; axis < 3; axis++) {
+			lowest[axis] = stepWeights(delta[axis], weights, axis);
+		}
+
+		// probability of being in each cell
+		double[] current = new double[dim[0] * dim[1] * dim[2]];
+		double[] next = new double[current.length];
+		int[] startCell = {start.getX() - min[0], start.getY() - min[1], start.getZ() - min[2]};
+		for(int axis = 0; axis < 3; axis++) {
+			startCell[axis] = Math.max(0, Math.min(dim[axis] - 1, startCell[axis]));
+		}
+		current[startCell[0] * stride[0] + startCell[1] * stride[1] + startCell[2]] = 1.0;
+
+		double free = 1.0;
+		double[] stepAbsorbed = new double[absorbers.length];
+		double rate = 0.0;
+		// rates at the last three checks, and the rate they converge to
+		double[] checkedRates = new double[3];
+		double limitRate = 0.0;
+		while(numSteps < horizon && free > NEGLIGIBLE) {
+			for(int axis = 0; axis < 3; axis++) {
+				Arrays.fill(next, 0.0);
+				convolve(current, next, dim[axis], stride[axis], weights[axis], lowest[axis]);
+				double[] swap = current;
+				current = next;
+				next = swap;
+			}
+			Arrays.fill(stepAbsorbed, 0.0);
+			double total = 0.0;
+			for(int i = 0; i < absorbingCells.size(); i++) {
+				int cell = absorbingCells.get(i);
+				stepAbsorbed[absorbingIndex.get(i)] += current[cell];
+				total += current[cell];
+				current[cell] = 0.0;
+			}
+			record(stepAbsorbed);
+			rate = (free > 0.0) ? (total / free) : 0.0;
+			free -= total;
+			if(numSteps % RATE_CHECK_INTERVAL == 0) {
+				checkedRates[0] = checkedRates[1];
+				checkedRates[1] = checkedRates[2];
+				checkedRates[2] = rate;
+				double previousLimit = limitRate;
+				limitRate = limit(checkedRates);
+				if(limitRate > 0.0 && Math.abs(limitRate - previousLimit) < RATE_TOLERANCE * limitRate) {
+					break;
+				}
+			}
+		}
+		tailRate = (limitRate > 0.0) ? limitRate : rate;
+		double lastTotal = 0.0;
+		for(int i = 0; i < absorbers.length; i++) {
+			lastTotal += stepAbsorbed[i];
+		}
+		for(int i = 0; i < absorbers.length; i++) {
+			tailShares[i] = (lastTotal > 0.0) ? (stepAbsorbed[i] / lastTotal) : 0.0;
+		}
+	}
+
+	/**
+	 * The rate converges geometrically, as the other modes of the walk die out faster than 
+	 * the slowest one, so its limit is extrapolated from three rates equally spaced in time
+	 * (Aitken's delta-squared), or is the last rate if they do not converge geometrically yet.
+	 */
+	private static double limit(double[] rates) {
+		double first = rates[1] - rates[0];
+		double second = rates[2] - rates[1];
+		if(first == 0.0 || second / first <= 0.0 || second / first >= 1.0) {
+			return rates[2];
+		}
+		return rates[2] - second * second / (second - first);
+	}
+
+	/**
+	 * Probabilities of every move along an axis: moving by k, with 
+	 * k = round(U * 2 * delta - delta) for U uniform in [0, 1)
+	 * 
+	 * @return the lowest move, weights[axis][i] being the probability of moving by lowest + i
+	 */
+	static int stepWeights(double delta, double[][] weights, int axis) {
+		if(delta <= 0.0) {
+			weights[axis] = new double[] {1.0};
+			return 0;
+		}
+		int lowest = (int) Math.floor(-delta + 0.5) - 1;
+		int highest = (int) Math.floor(delta + 0.5) + 1;
+		double[] w = new double[highest - lowest + 1];
+		for(int k = lowest; k <= highest; k++) {
+			// round(x) = k for x in [k - 0.5, k + 0.5)
+			double from = Math.max(0.0, (k - 0.5 + delta) / (2 * delta));
+			double to = Math.min(1.0, (k + 0.5 + delta) / (2 * delta));
+			w[k - lowest] = Math.max(0.0, to - from);
+		}
+		int first = 0;
+		while(w[first] == 0.0) {
+			first++;
+		}
+		int last = w.length - 1;
+		while(w[last] == 0.0) {
+			last--;
+		}
+		weights[axis] = Arrays.copyOfRange(w, first, last + 1);
+		return lowest + first;
+	}
+
+	/**
+	 * Moves the probabilities in from along an axis, clamping moves to the medium, adding them to to.
+	 * Cells with the same coordinate along the axis form blocks of stride cells, and dim consecutive
+	 * blocks form a line along the axis, so moving a whole range of blocks by the same amount is 
+	 * a single loop over contiguous cells.
+	 */
+	private static void convolve(double[] from, double[] to, int dim, int stride, double[] weights, int lowest) {
+		int lineLength = dim * stride;
+		for(int line = 0; line < from.length; line += lineLength) {
+			for(int k = 0; k < weights.length; k++) {
+				double w = weights[k];
+				int move = lowest + k;
+				// blocks in [first, last) stay inside the medium, the others are clamped to its edge
+				int first = Math.max(0, -move);
+				int last = Math.min(dim, dim - move);
+				for(int block = 0; block < first; block++) {
+					addScaled(from, line + block * stride, to, line, stride, w);
+				}
+				if(first < last) {
+					addScaled(from, line + first * stride, to, line + (first + move) * stride, (last - first) * stride, w);
+				}
+				for(int block = Math.max(last, 0); block < dim; block++) {
+					addScaled(from, line + block * stride, to, line + (dim - 1) * stride, stride, w);
+				}
+			}
+		}
+	}
+
+	private static void addScaled(double[] from, int fromIndex, double[] to, int toIndex, int length, double w) {
+		for(int i = 0; i < length; i++) {
+			to[toIndex + i] += w * from[fromIndex + i];
+		}
+	}
+
+	private void record(double[] stepAbsorbed) {
+		if(numSteps == cumulative.length) {
+			cumulative = Arrays.copyOf(cumulative, numSteps * 2);
+			for(int i = 0; i < absorbers.length; i++) {
+				absorbed[i] = Arrays.copyOf(absorbed[i], numSteps * 2);
+			}
+		}
+		double total = 0.0;
+		for(int i = 0; i < absorbers.length; i++) {
+			absorbed[i][numSteps] = stepAbsorbed[i];
+			total += stepAbsorbed[i];
+		}
+		cumulative[numSteps] = ((numSteps > 0) ? cumulative[numSteps - 1] : 0.0) + total;
+		numSteps++;
+	}
+
+	/**
+	 * Draws the step at which a molecule is absorbed, and by what
+	 * 
+	 * @param random Stream of the molecule
+	 * @param absorber Receives the absorbing nanomachine in its first element
+	 * @return the step (1 = during its first move) at which the molecule is absorbed, or NEVER
+	 */
+	public int sample(RandomStream random, NanoMachine[] absorber) {
+		double u = random.nextDouble();
+		absorber[0] = null;
+		if(numSteps == 0) {
+			return NEVER;
+		}
+		double tabulated = cumulative[numSteps - 1];
+		if(u < tabulated) {
+			// first step whose cumulative probability exceeds u
+			int low = 0;
+			int high = numSteps - 1;
+			while(low < high) {
+				int middle = (low + high) >>> 1;
+				if(cumulative[middle] > u) {
+					high = middle;
+				} else {
+					low = middle + 1;
+				}
+			}
+			absorber[0] = pick(random.nextDouble(), low);
+			return low + 1;
+		}
+		if(tailRate <= 0.0 || tailRate >= 1.0) {
+			return (tailRate >= 1.0) ? numSteps + 1 : NEVER;
+		}
+		// the probability of still being free decays by (1 - tailRate) every step
+		double extra = Math.ceil(Math.log((1.0 - u) / (1.0 - tabulated)) / Math.log(1.0 - tailRate));
+		extra = Math.max(1.0, extra);
+		double v = random.nextDouble();
+		for(int i = 0; i < absorbers.length; i++) {
+			v -= tailShares[i];
+			if(v < 0.0 || i == absorbers.length - 1) {
+				absorber[0] = absorbers[i];
+				break;
+			}
+		}
+		return (numSteps + extra >= NEVER) ? NEVER : (int) (numSteps + extra);
+	}
+
+	// Absorber at step index, in proportion to what each absorbs then
+	private NanoMachine pick(double v, int index) {
+		double total = 0.0;
+		for(int i = 0; i < absorbers.length; i++) {
+			total += absorbed[i][index];
+		}
+		v *= total;
+		for(int i = 0; i < absorbers.length - 1; i++) {
+			v -= absorbed[i][index];
+			if(v < 0.0) {
+				return absorbers[i];
+			}
+		}
+		return absorbers[absorbers.length - 1];
+	}
+
+	// Number of steps computed exactly, before the geometric tail
+	public int getNumSteps() {
+		return numSteps;
+	}
+
+	// Probability of being absorbed at each step past getNumSteps
+	public double getTailRate() {
+		return tailRate;
+	}
+}
@@ -0,0 +1,175 @@
+/**
+ * The chains of collision decorators a simulation uses, see SimulationPlan,
+ * flattened into a single final class: which chain it stands for is decided
+ * once, when it is built, and handlePotentialCollisions does what the whole
+ * chain would do, in the same order, without calling through the decorators
+ * or switching on the decomposing mode again for every molecule step.
+ * 
+ * Every molecule of a simulation using flat handlers holds one of this class,
+ * so the JIT compiler sees a single receiver class where handlers are called
+ * and can inline the handler there.  The chain it stands for is kept as the
+ * reference implementation, see getReference, and gives the same results.
+ */
+
+import java.util.ArrayList;
+
+public final class FlatCollisionHandler extends CollisionDecorator {
+
+	// the chains that can be flattened, all ending with a SimpleCollisionHandler
+	private static final int SIMPLE = 0;
+	private static final int NULL = 1;
+	private static final int STANDARD = 2;
+	private static final int DECOMPOSING = 3;
+	private static final int ON_TUBULE = 4;
+	private static final int DECOMPOSING_ON_TUBULE = 5;
+
+	private final int kind;
+	// information molecules decompose on acknowledgements of later messages too (modes 2 and 3)
+	private final boolean decomposingLaterAck;
+	// acknowledgements decompose on information molecules of later messages (mode 3)
+	private final boolean decomposingAck;
+
+	private FlatCollisionHandler(CollisionHandler reference, int kind, int mode) {
+		super(reference);
+		this.kind = kind;
+		this.decomposingLaterAck = mode >= 2;
+		this.decomposingAck = mode == 3;
+	}
+
+	/**
+	 * @param chain A chain of collision decorators
+	 * @return a flat handler doing what chain does, or null if chain cannot be flattened
+	 */
+	public static FlatCollisionHandler flatten(CollisionHandler chain) {
+		if(chain instanceof SimpleCollisionHandler) {
+			return new FlatCollisionHandler(chain, SIMPLE, 0);
+		}
+		if(!(chain instanceof CollisionDecorator)) {
+			return null;
+		}
+		CollisionHandler inner = ((CollisionDecorator) chain).collH;
+		if(inner instanceof SimpleCollisionHandler) {
+			if(chain instanceof NullCollisionHandler) {
+				return new FlatCollisionHandler(chain, NULL, 0);
+			} else if(chain instanceof StandardCollisionHandler) {
+				return new FlatCollisionHandler(chain, STANDARD, 0);
+			} else if(chain instanceof OnTubuleCollisionHandler) {
+				return new FlatCollisionHandler(chain, ON_TUBULE, 0);
+			} else if(isDecomposing(chain)) {
+				return new FlatCollisionHandler(chain, DECOMPOSING, ((DecomposingCollisionHandler) chain).getMode());
+			}
+		} else if((chain instanceof OnTubuleCollisionHandler) && isDecomposing(inner)) {
+			return new FlatCollisionHandler(chain, DECOMPOSING_ON_TUBULE, ((DecomposingCollisionHandler) inner).getMode());
+		}
+		return null;
+	}
+
+	// Whether ch is a decomposing handler of a known mode decorating a simple one
+	private static boolean isDecomposing(CollisionHandler ch) {
+		if(!(ch instanceof DecomposingCollisionHandler)) {
+			return false;
+		}
+		DecomposingCollisionHandler dch = (DecomposingCollisionHandler) ch;
+		return (dch.collH instanceof SimpleCollisionHandler) && (dch.getMode() >= 1) && (dch.getMode() <= 3);
+	}
+
+	// The chain of decorators this handler stands for
+	public CollisionHandler getReference() {
+		return collH;
+	}
+
+	public Position handlePotentialCollisions(Molecule mol, Position nextPos, MolComSim simulation) {
+		switch(kind) {
+		case SIMPLE:
+			return nextPos;
+		case NULL:
+			simulation.addCollisionNum(mol, nextPos, simulation);
+			simulation.moveObject(mol, mol.getPosition(), nextPos);
+			return nextPos;
+		case STANDARD:
+			return handleStandard(mol, nextPos, simulation);
+		case DECOMPOSING:
+			return handleDecomposing(mol, nextPos, simulation);
+		case ON_TUBULE:
+			return handleOnTubule(mol, nextPos, nextPos, simulation);
+		default:
+			return handleOnTubule(mol, nextPos, handleDecomposing(mol, nextPos, simulation), simulation);
+		}
+	}
+
+	// As StandardCollisionHandler
+	private Position handleStandard(Molecule mol, Position nextPos, MolComSim simulation) {
+		Position pos = checkCollsitionNanoMachine(mol, nextPos, simulation);
+		if(pos != null) {
+			return pos;
+		}
+		if(simulation.getMedium().hasMolecule(nextPos) && isCollision(mol, nextPos, simulation)) {
+			return mol.getPosition();
+		}
+		simulation.moveObject(mol, mol.getPosition(), nextPos);
+		return nextPos;
+	}
+
+	// As OnTubuleCollisionHandler, given the position the handler it decorates returned
+	private Position handleOnTubule(Molecule mol, Position nextPos, Position nextPosition, MolComSim simulation) {
+		// both sides evaluated, as isCollision draws a random number and may count a collision
+		if(simulation.getMedium().hasMolecule(nextPos) & isCollision(mol, nextPos, simulation)) {
+			mol.setMovement(MovementState.RANDOM_WALK, simulation.getPlan().getKnockedOffHandler());
+			return mol.getPosition();
+		}
+		simulation.addCollisionNum(mol, nextPos, simulation);
+		return nextPosition;
+	}
+
+	// As DecomposingCollisionHandler
+	private Position handleDecomposing(Molecule mol, Position nextPos, MolComSim simulation) {
+		Position pos = checkCollsitionNanoMachine(mol, nextPos, simulation);
+		if(pos != null) {
+			return pos;
+		}
+		if(simulation.getMedium().hasMolecule(nextPos) && isCollision(mol, nextPos, simulation)) {
+			decompose(mol, nextPos, simulation);
+			return mol.getPosition();
+		}
+		simulation.moveObject(mol, mol.getPosition(), nextPos);
+		return nextPos;
+	}
+
+	// Removes the first molecule the collision of mol at nextPos decomposes, if any
+	private void decompose(Molecule mol, Position nextPos, MolComSim simulation) {
+		ArrayList<Object> alreadyThere = simulation.getMedium().getObjectsAtPos(nextPos);
+		if(mol instanceof InformationMolecule) {
+			int msgId = mol.getMsgId();
+			for(Object o : alreadyThere) {
+				if(o instanceof AcknowledgementMolecule) {
+					int ackId = ((AcknowledgementMolecule) o).getMsgId();
+					if((ackId == msgId) || (decomposingLaterAck && (ackId > msgId))) {
+						simulation.removeMolecule(mol);
+						simulation.addDecomposingNum();
+						return;
+					} else if(decomposingAck) {
+						simulation.removeMolecule((Molecule) o, nextPos);
+						simulation.addDecomposingNum();
+						return;
+					}
+				}
+			}
+		} else if(mol instanceof AcknowledgementMolecule) {
+			int msgId = mol.getMsgId();
+			for(Object o : alreadyThere) {
+				if(o instanceof InformationMolecule) {
+					int infoId = ((InformationMolecule) o).getMsgId();
+					if((infoId == msgId) || (decomposingLaterAck && (infoId < msgId))) {
+						simulation.removeMolecule((Molecule) o, nextPos);
+						simulation.addDecomposingNum();
+						return;
+					} else if(decomposingAck) {
+						simulation.removeMolecule(mol);
+						simulation.addDecomposingNum();
+						return;
+					}
+				}
+			}
+		}
+	}
+}
@@ -23,4 +23,13 @@ public abstract class ForwardErrorCorrection {
 	public int getNumRecievedPackets() {
 		return numRecievedPackets;
 	}
+	
+	// save and restore what has been received, see MolComSim.writeState
+	void writeState(CheckpointWriter out) {
+		out.putInt(numRecievedPackets);
+	}
+	
+	void readState(CheckpointReader in) {
+		numRecievedPackets = in.getInt();
+	}
 }
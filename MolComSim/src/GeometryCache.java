@@ -0,0 +1,149 @@
+/**
+ * Static geometries built by simulations, to be shared by later
+ * simulations with the same medium dimensions, nanomachines and
+ * microtubules instead of being built again, see StaticGeometry.
+ * Safe to use from simulations running concurrently.
+ *
+ * Given a directory, geometries are also saved there, one binary file
+ * per geometry named after a hash of its params lines, so later runs
+ * (other processes included) map the file instead of building the
+ * geometry, which takes long for nanomachines with a large radius.
+ */
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class GeometryCache {
+
+	// first bytes of every geometry file, and version of their format
+	private static final int GEOMETRY_MAGIC = 0x4d435347;
+	private static final int GEOMETRY_VERSION = 1;
+
+	private final ConcurrentHashMap<String, StaticGeometry.Layout> layouts =
+			new ConcurrentHashMap<String, StaticGeometry.Layout>();
+	// where geometry files are, null to keep geometries in memory only
+	private final Path directory;
+
+	public GeometryCache() {
+		this(null);
+	}
+
+	/**
+	 * @param directory Where to save geometries and look for saved ones,
+	 *  null to keep geometries in memory only
+	 */
+	public GeometryCache(String directory) {
+		this.directory = (directory != null) ? Paths.get(directory) : null;
+	}
+
+	/**
+	 * @param key The geometry of a simulation, see SimulationParams.getGeometryKey
+	 * @return the layout built for the geometry, or null if none was built yet
+	 */
+	public StaticGeometry.Layout get(String key) {
+		StaticGeometry.Layout layout = layouts.get(key);
+		if((layout == null) && (directory != null)) {
+			layout = load(key);
+			if(layout != null) {
+				StaticGeometry.Layout other = layouts.putIfAbsent(key, layout);
+				if(other != null) {
+					layout = other;
+				}
+			}
+		}
+		return layout;
+	}
+
+	// Keeps the layout of geometry for later simulations, unless one is kept already
+	public void put(String key, StaticGeometry geometry) throws IOException {
+		StaticGeometry.Layout layout = geometry.share();
+		if((layouts.putIfAbsent(key, layout) == null) && (directory != null) && !Files.exists(getFile(key))) {
+			save(key, layout);
+		}
+	}
+
+	// Forgets the layout of a geometry no more simulation will use
+	public void remove(String key) {
+		layouts.remove(key);
+	}
+
+	public int size() {
+		return layouts.size();
+	}
+
+	// The file the geometry with the given key is saved to
+	Path getFile(String key) {
+		try {
+			byte[] hash = MessageDigest.getInstance("SHA-256").digest(key.getBytes(StandardCharsets.UTF_8));
+			StringBuilder name = new StringBuilder("geometry_");
+			for(int i = 0; i < 8; i++) {
+				name.append(String.format("%02x", hash[i]));
+			}
+			return directory.resolve(name.append(".bin").toString());
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e); // every Java platform has SHA-256
+		}
+	}
+
+	/**
+	 * Writes a layout to a temporary file, moved to the geometry file once
+	 * complete, so no other run ever maps a partly written file.
+	 */
+	private void save(String key, StaticGeometry.Layout layout) throws IOException {
+		byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+		Files.createDirectories(directory);
+		Path tempFile = Files.createTempFile(directory, "geometry", ".tmp");
+		try {
+			try(FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+				MappedByteBuffer out = channel.map(FileChannel.MapMode.READ_WRITE, 0,
+						12 + keyBytes.length + layout.getByteSize());
+				out.order(ByteOrder.LITTLE_ENDIAN);
+				out.putInt(GEOMETRY_MAGIC);
+				out.putInt(GEOMETRY_VERSION);
+				out.putInt(keyBytes.length);
+				out.put(keyBytes);
+				layout.write(out);
+				out.force();
+			}
+			Files.move(tempFile, getFile(key), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(tempFile);
+		}
+	}
+
+	// Maps the file of the geometry with the given key, null if there is none or it cannot be read
+	private StaticGeometry.Layout load(String key) {
+		Path file = getFile(key);
+		if(!Files.exists(file)) {
+			return null;
+		}
+		try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			MappedByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			in.order(ByteOrder.LITTLE_ENDIAN);
+			if((in.getInt() != GEOMETRY_MAGIC) || (in.getInt() != GEOMETRY_VERSION)) {
+				return null;
+			}
+			byte[] keyBytes = new byte[in.getInt()];
+			in.get(keyBytes);
+			if(!key.equals(new String(keyBytes, StandardCharsets.UTF_8))) {
+				return null; // another geometry with the same hash
+			}
+			return new StaticGeometry.Layout(in);
+		} catch (IOException | BufferUnderflowException | NegativeArraySizeException e) {
+			System.out.println("Error: unable to read geometry file: " + file);
+			return null;
+		}
+	}
+}
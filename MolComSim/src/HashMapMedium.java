@@ -0,0 +1,156 @@
+/**
+ *  Medium that keeps track of the objects in it
+ *  with a map from each occupied position to
+ *  the list of objects at that position
+ */
+
+import java.util.*;
+
+public class HashMapMedium extends Medium {
+
+	//Keep track of the location of all objects in the medium
+	private HashMap<Position, ArrayList<Object>> grid;
+
+	public HashMapMedium(int l, int h, int w, ArrayList<MoleculeParams> noiseMoleculeParams, MolComSim sim) {
+		super(l, h, w, noiseMoleculeParams, sim);
+		this.grid = new HashMap<Position, ArrayList<Object>>();
+	}
+
+	//Add an object to the grid of objects
+	public void addObject(Object obj, Position pos){
+		if (!grid.containsKey(pos)){
+			grid.put(pos, new ArrayList<Object>());
+		}
+		grid.get(pos).add(obj);
+	}
+	
+	//Remove an object from the grid of objects
+	public void removeObject(Object obj, Position pos){
+		if (grid.containsKey(pos)){
+			grid.get(pos).remove(obj);
+			if (grid.get(pos).isEmpty())
+				grid.remove(pos);
+			}
+	}
+	
+	//Move an object from its old location in the grid to the new position
+	public void moveObject(Object obj, Position oldPos, Position newPos){
+		removeObject(obj, oldPos);
+		addObject(obj, newPos);
+	}
+	
+	//Checks to see if a particular position already has anything in it
+	public boolean isOccupied(Position pos){
+		if (!grid.containsKey(pos) || grid.get(pos).isEmpty())
+			return false;
+		return true;
+	}
+	
+	protected Microtubule findMicrotubuleAtPos(Position pos){
+		if (!grid.containsKey(pos) || grid.get(pos).isEmpty())
+			return null;
+		else {
+			for (Object o : grid.get(pos)){
+				if (o instanceof Microtubule)
+					return (Microtubule) o;
+			}
+		}
+		return null;
+	}
+	
+	//Checks to see if a particular position has a molecule in it
+	public boolean hasMolecule(Position pos){
+		if (!grid.containsKey(pos) || grid.get(pos).isEmpty())
+			return false;
+		else {
+			for (Object o : grid.get(pos)){
+				if (o instanceof Molecule)
+					return true;
+			}
+		}
+		return false;
+	}
+	
+	//Sum of the volumes of all molecules located in a particular position
+	public double getMoleculeVolumeAtPos(Position pos){
+		double vsum = 0.0;
+		if (!grid.containsKey(pos))
+			return vsum;
+		for (Object o : grid.get(pos)){
+			if (o instanceof Molecule)
+				vsum += ((Molecule) o).getVolume();
+		}
+		return vsum;
+	}
+	
+	//Returns a list of everything located in a particular position
+	public ArrayList<Object> getObjectsAtPos(Position pos){
+		if (isOccupied(pos))
+			return grid.get(pos);
+		else 
+			return null;
+	}
+	
+	//Returns every position with at least one molecule in it
+	public ArrayList<Position> getMoleculePositions(){
+		ArrayList<Position> positions = new ArrayList<Position>();
+		for (Map.Entry<Position, ArrayList<Object>> entry : grid.entrySet()){
+			for (Object o : entry.getValue()){
+				if (o instanceof Molecule){
+					positions.add(entry.getKey());
+					break;
+				}
+			}
+		}
+		return positions;
+	}
+	
+	//Replaces everything at pos with objects, the volume of the molecules
+	//is always added up from the objects
+	public void restoreObjectsAtPos(Position pos, ArrayList<Object> objects, double moleculeVolume){
+		if (objects.isEmpty())
+			grid.remove(pos);
+		else
+			grid.put(pos, new ArrayList<Object>(objects));
+	}
+	
+	// gets first nanomachine with a receiver at this position.
+	// returns it if found, else returns null.
+	protected NanoMachine findRxNanoMachineAtPos(Position pos) {
+		if (!grid.containsKey(pos) || grid.get(pos).isEmpty())
+			return null;
+		else {
+			for (Object o : grid.get(pos)){
+				if (o instanceof NanoMachine ) {
+					NanoMachine nm = (NanoMachine)o;
+					if(nm.hasReceiver())
+						return nm;
+				}
+			}
+		}
+		return null;
+	}
+
+	// gets first nanomachine with a transmitter at this position.
+	// returns it if found, else returns null.
+	protected NanoMachine findTxNanoMachineAtPos(Position pos) {
+		if (!grid.containsKey(pos) || grid.get(pos).isEmpty())
+			return null;
+		else {
+			for (Object o : grid.get(pos)){
+				if (o instanceof NanoMachine ) {
+					NanoMachine nm = (NanoMachine)o;
+					if(nm.hasTransmitter())
+						return nm;
+				}
+			}
+		}
+		return null;
+	}
+	
+	//This is for testing purposes only, remove from program
+	/*public HashMap<Position, ArrayList<Object>> getGrid(){
+		return grid;
+	}*/
+
+}
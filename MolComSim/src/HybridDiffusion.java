@@ -0,0 +1,581 @@
+/**
+ * Hybrid mode for simulations with many molecules that only interact with
+ * the nanomachines absorbing them, under the same conditions as the first
+ * passage fast mode (see FirstPassageScheduler.canSchedule).
+ *
+ * Molecules are moved one by one only near the nanomachines, within a shell
+ * of hybridShell cells around them, where they are absorbed and the protocol
+ * logic of transmitters and receivers runs unchanged.  A molecule leaving the
+ * shell is parked: it leaves the medium, and the field of its kind (class,
+ * message, sequence number and kind of walk) gains one unit of mass where it
+ * left, on a coarse lattice of hybridCellSize cells covering the medium.  Every
+ * step the fields diffuse, with the diffusion coefficient of the random walk
+ * of their kind and reflecting at the edges of the medium (explicit finite
+ * volume steps, as many per simulation step as needed to be stable).  Fields
+ * end at the faces of the lattice cells of the shell, where their density is
+ * zero.  Mass flowing through a face turns back into parked molecules, by
+ * stochastic rounding, placed on that face, and these are moved one by one
+ * again.  Fields are then scaled to the number of molecules still parked, so
+ * no molecule is lost or made up.
+ *
+ * The far field costs the same however many molecules are in it, so long
+ * simulations with tens of thousands of molecules run in time proportional
+ * to the size of the medium.  Results approximate stepping every molecule
+ * (arrivals at the receiver follow the same diffusion, see ArrivalTimeCheck),
+ * but are not identical for the same seed.  A field mixes molecules parked at
+ * different times, so a molecule put back leaves the ones parked with it more
+ * likely near the shells than the field has them: with few molecules per
+ * field arrivals come early, and kinds of molecules released fewer than
+ * MIN_FIELD_MOLECULES at once are not parked.
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+public class HybridDiffusion {
+
+	// zones of the lattice cells: molecules are parked from FAR cells, mass turns into molecules in SHELL cells
+	private static final byte FAR = 0;
+	private static final byte BUFFER = 1;
+	private static final byte SHELL = 2;
+	// fraction of its mass a lattice cell may lose in one diffusion step, for the steps to be stable
+	private static final double STABLE_FRACTION = 0.5;
+	// mass below which a lattice cell is taken to be empty, so mass does not creep everywhere
+	private static final double NEGLIGIBLE_MASS = 1e-9;
+	// fewest molecules of a kind released at once for its fields to give the arrival times of
+	// stepping them, fewer ones arrive early (see ArrivalTimeCheck) and are not parked
+	static final int MIN_FIELD_MOLECULES = 20;
+
+	private final MolComSim simulation;
+	// lowest coordinate of the medium, and number of medium cells along each axis
+	private final int[] min = new int[3];
+	private final int[] dim = new int[3];
+	// medium cells per lattice cell along each axis, number of lattice cells and their strides
+	private final int cellSize;
+	private final int[] latticeDim = new int[3];
+	private final int[] stride = new int[3];
+	private final int numCells;
+	// width of every lattice cell along each axis, the last one may be narrower
+	private final int[][] width = new int[3][];
+	private final double[][] inverseWidth = new double[3][];
+	private final byte[] zone;
+	// index of every SHELL cell among them, -1 for the others, and the SHELL cells by index
+	private final int[] shellIndex;
+	private final int[] shellCells;
+	private final int numShellCells;
+	// transfer coefficients of each kind of walk, see Field.diffuse
+	private final Diffusion randomWalk;
+	private final Diffusion packetWalk;
+	// whether information and acknowledgement molecules are released in large enough numbers to be parked
+	private final boolean parkInformation;
+	private final boolean parkAcknowledgements;
+	// fields by kind of molecule, in the order they were created
+	private LinkedHashMap<String, Field> fields = new LinkedHashMap<String, Field>();
+	private int numParked = 0;
+
+	public HybridDiffusion(MolComSim sim) {
+		simulation = sim;
+		SimulationParams simParams = sim.getSimParams();
+		Medium medium = sim.getMedium();
+		min[0] = medium.getLength() / -2;
+		min[1] = medium.getWidth() / -2;
+		min[2] = medium.getHeight() / -2;
+		dim[0] = (medium.getLength() / 2) - min[0] + 1;
+		dim[1] = (medium.getWidth() / 2) - min[1] + 1;
+		dim[2] = (medium.getHeight() / 2) - min[2] + 1;
+		cellSize = simParams.getHybridCellSize();
+		for(int axis = 0; axis < 3; axis++) {
+			latticeDim[axis] = (dim[axis] + cellSize - 1) / cellSize;
+			width[axis] = new int[latticeDim[axis]];
+			inverseWidth[axis] = new double[latticeDim[axis]];
+			for(int i = 0; i < latticeDim[axis]; i++) {
+				width[axis][i] = Math.min(cellSize, dim[axis] - i * cellSize);
+				inverseWidth[axis][i] = 1.0 / width[axis][i];
+			}
+		}
+		stride[0] = latticeDim[1] * latticeDim[2];
+		stride[1] = latticeDim[2];
+		stride[2] = 1;
+		numCells = latticeDim[0] * stride[0];
+
+		zone = new byte[numCells];
+		markZones(medium.getStaticGeometry(), simParams.getHybridShell());
+		shellIndex = new int[numCells];
+		int numShell = 0;
+		for(int cell = 0; cell < numCells; cell++) {
+			shellIndex[cell] = (zone[cell] == SHELL) ? numShell++ : -1;
+		}
+		numShellCells = numShell;
+		shellCells = new int[numShell];
+		for(int cell = 0; cell < numCells; cell++) {
+			if(shellIndex[cell] != -1) {
+				shellCells[shellIndex[cell]] = cell;
+			}
+		}
+
+		SimulationPlan plan = sim.getPlan();
+		randomWalk = new Diffusion(new double[] {plan.getRandomWalkDeltaX(),
+				plan.getRandomWalkDeltaY(), plan.getRandomWalkDeltaZ()});
+		packetWalk = new Diffusion(new double[] {plan.getPacketWalkDeltaX(),
+				plan.getPacketWalkDeltaY(), plan.getPacketWalkDeltaZ()});
+		parkInformation = countMolecules(simParams.getInformationMoleculeParams()) >= MIN_FIELD_MOLECULES;
+		parkAcknowledgements = countMolecules(simParams.getAcknowledgmentMoleculeParams()) >= MIN_FIELD_MOLECULES;
+	}
+
+	/**
+	 * @return whether the simulation described by simParams runs in hybrid mode
+	 */
+	public static boolean canUse(SimulationParams simParams) {
+		return (simParams.getHybridCellSize() > 0) && !simParams.isFirstPassage() &&
+				FirstPassageScheduler.canSchedule(simParams) &&
+				((countMolecules(simParams.getInformationMoleculeParams()) >= MIN_FIELD_MOLECULES) ||
+				(countMolecules(simParams.getAcknowledgmentMoleculeParams()) >= MIN_FIELD_MOLECULES));
+	}
+
+	// Number of molecules released at once by the molecule params, before any adaptive change
+	private static int countMolecules(ArrayList<MoleculeParams> molParams) {
+		int count = 0;
+		for(MoleculeParams mp : molParams) {
+			count += mp.getNumMolecules();
+		}
+		return count;
+	}
+
+	/**
+	 * Lattice cells with a medium cell within shell cells of a nanomachine are
+	 * SHELL cells, their neighbours BUFFER cells, where molecules are not parked
+	 * yet so they do not go back and forth between the field and the medium.
+	 */
+	private void markZones(StaticGeometry geometry, int shell) {
+		byte nanoMachine = StaticGeometry.RECEIVER | StaticGeometry.TRANSMITTER;
+		int[] from = new int[3];
+		int[] to = new int[3];
+		for(int x = 0; x < dim[0]; x++) {
+			for(int y = 0; y < dim[1]; y++) {
+				for(int z = 0; z < dim[2]; z++) {
+					int cell = geometry.cellIndex(x + min[0], y + min[1], z + min[2]);
+					if((geometry.getTag(cell) & nanoMachine) == 0) {
+						continue;
+					}
+					int[] at = {x, y, z};
+					for(int axis = 0; axis < 3; axis++) {
+						from[axis] = Math.max(0, at[axis] - shell) / cellSize;
+						to[axis] = Math.min(dim[axis] - 1, at[axis] + shell) / cellSize;
+					}
+					mark(from, to, SHELL);
+				}
+			}
+		}
+		int[] at = new int[3];
+		for(int cell = 0; cell < numCells; cell++) {
+			if(zone[cell] != SHELL) {
+				continue;
+			}
+			toLattice(cell, at);
+			for(int axis = 0; axis < 3; axis++) {
+				from[axis] = Math.max(0, at[axis] - 1);
+				to[axis] = Math.min(latticeDim[axis] - 1, at[axis] + 1);
+			}
+			mark(from, to, BUFFER);
+		}
+	}
+
+	// Raises the zone of the lattice cells in the box [from, to] to at least value
+	private void mark(int[] from, int[] to, byte value) {
+		for(int x = from[0]; x <= to[0]; x++) {
+			for(int y = from[1]; y <= to[1]; y++) {
+				for(int z = from[2]; z <= to[2]; z++) {
+					int cell = x * stride[0] + y * stride[1] + z;
+					zone[cell] = (byte) Math.max(zone[cell], value);
+				}
+			}
+		}
+	}
+
+	private void toLattice(int cell, int[] at) {
+		at[0] = cell / stride[0];
+		at[1] = (cell % stride[0]) / stride[1];
+		at[2] = cell % stride[1];
+	}
+
+	// Lattice cell of a position of the medium
+	private int latticeCell(Position pos) {
+		int x = Math.max(0, Math.min(dim[0] - 1, pos.getX() - min[0])) / cellSize;
+		int y = Math.max(0, Math.min(dim[1] - 1, pos.getY() - min[1])) / cellSize;
+		int z = Math.max(0, Math.min(dim[2] - 1, pos.getZ() - min[2])) / cellSize;
+		return x * stride[0] + y * stride[1] + z;
+	}
+
+	/**
+	 * Parks the molecules that left the shells around the nanomachines.  To be
+	 * called after molecules moved, before they are garbage collected.
+	 */
+	public void park() {
+		MoleculeStore molecules = simulation.getMovingMolecules();
+		for(int i = 0; i < molecules.size(); i++) {
+			Molecule mol = molecules.get(i);
+			// molecules sitting out steps after a jump are parked once it is over
+			if(mol.isDead() || mol.isResting() || !canPark(mol)) {
+				continue;
+			}
+			int cell = latticeCell(mol.getPosition());
+			if(zone[cell] != FAR) {
+				continue;
+			}
+			String key = getKey(mol);
+			Field field = fields.get(key);
+			if(field == null) {
+				field = new Field((mol.getMovementState() == MovementState.RANDOM_WALK) ? randomWalk : packetWalk);
+				fields.put(key, field);
+			}
+			simulation.parkMolecule(mol);
+			field.parked.add(mol);
+			deposit(field.mass, mol.getPosition());
+			numParked++;
+		}
+	}
+
+	/**
+	 * Adds the unit mass of a molecule parked at pos to a field, shared between
+	 * its lattice cell and the neighbours on the side of pos along each axis (cloud
+	 * in cell), so the center of the mass is where the molecule was rather than at
+	 * the center of its cell.  Molecules are parked as soon as they reach a FAR
+	 * cell, near its inner edge, so putting all of their mass at the center would
+	 * move each of them away from the nanomachines.  The neighbours of FAR cells
+	 * are never SHELL cells.
+	 */
+	private void deposit(double[] mass, Position pos) {
+		int cell = latticeCell(pos);
+		int[] coord = {pos.getX() - min[0], pos.getY() - min[1], pos.getZ() - min[2]};
+		int[] at = new int[3];
+		toLattice(cell, at);
+		// offset to the neighbour mass is shared with along each axis, and the share
+		int[] toward = new int[3];
+		double[] share = new double[3];
+		for(int axis = 0; axis < 3; axis++) {
+			int i = at[axis];
+			double center = i * cellSize + (width[axis][i] - 1) / 2.0;
+			double offset = Math.max(0, Math.min(dim[axis] - 1, coord[axis])) - center;
+			int j = (offset < 0.0) ? i - 1 : i + 1;
+			if((offset != 0.0) && (j >= 0) && (j < latticeDim[axis])) {
+				toward[axis] = (j - i) * stride[axis];
+				share[axis] = Math.abs(offset) / ((width[axis][i] + width[axis][j]) / 2.0);
+			}
+		}
+		for(int corner = 0; corner < 8; corner++) {
+			double m = 1.0;
+			int target = cell;
+			for(int axis = 0; axis < 3; axis++) {
+				if((corner & (1 << axis)) != 0) {
+					m *= share[axis];
+					target += toward[axis];
+				} else {
+					m *= 1.0 - share[axis];
+				}
+			}
+			if(m > 0.0) {
+				mass[target] += m;
+			}
+		}
+	}
+
+	// Whether mol is a random walking information or acknowledgement molecule of a kind that is parked
+	private boolean canPark(Molecule mol) {
+		if((mol instanceof InformationMolecule) || (mol instanceof PacketMolecule)) {
+			if(!parkInformation) {
+				return false;
+			}
+		} else if(!(mol instanceof AcknowledgementMolecule) || !parkAcknowledgements) {
+			return false;
+		}
+		MovementState state = mol.getMovementState();
+		return (state == MovementState.RANDOM_WALK) || (state == MovementState.PACKET_WALK);
+	}
+
+	// Molecules with the same key are interchangeable as far as the field is concerned
+	private static String getKey(Molecule mol) {
+		return mol.getClass().getName() + " " + mol.getMsgId() + " " + mol.getNumSequence() +
+				" " + mol.getMovementState();
+	}
+
+	/**
+	 * Diffuses the fields by one simulation step, and puts the molecules whose
+	 * mass reached the shells back into the medium.  To be called after the
+	 * molecules that died during the step were garbage collected.
+	 */
+	public void step() {
+		Iterator<Field> it = fields.values().iterator();
+		while(it.hasNext()) {
+			Field field = it.next();
+			field.step();
+			if(field.parked.isEmpty()) {
+				it.remove();
+			}
+		}
+	}
+
+	// Stream of the simulation for putting molecules back, replaced when restoring a checkpoint
+	private RandomStream getRandom() {
+		return simulation.getRandom().getStream(SimulationRandom.Purpose.HYBRID);
+	}
+
+	// Whether any molecule is parked in a field
+	public boolean hasParkedMolecules() {
+		return numParked > 0;
+	}
+
+	public int getNumParked() {
+		return numParked;
+	}
+
+	// Puts a parked molecule back into the medium, on face of the lattice cell
+	private void release(Molecule mol, int cell, int face) {
+		int[] at = new int[3];
+		toLattice(cell, at);
+		int[] coord = new int[3];
+		for(int axis = 0; axis < 3; axis++) {
+			int low = at[axis] * cellSize;
+			if(axis != face / 2) {
+				coord[axis] = low + getRandom().nextInt(width[axis][at[axis]]);
+			} else if(face % 2 == 0) {
+				coord[axis] = low;
+			} else {
+				coord[axis] = low + width[axis][at[axis]] - 1;
+			}
+		}
+		Position pos = simulation.getMedium().getPosition(coord[0] + min[0], coord[1] + min[1], coord[2] + min[2]);
+		simulation.moleculeReentered(mol, pos);
+		numParked--;
+	}
+
+	// Adds the parked molecules to the molecules of a checkpoint
+	void addMolecules(CheckpointWriter out) {
+		for(Field field : fields.values()) {
+			for(Molecule mol : field.parked) {
+				out.addMolecule(mol);
+			}
+		}
+	}
+
+	void writeState(CheckpointWriter out) {
+		out.putInt(fields.size());
+		for(Field field : fields.values()) {
+			out.putInt(field.parked.size());
+			for(Molecule mol : field.parked) {
+				out.putMoleculeRef(mol);
+			}
+			for(int cell = 0; cell < numCells; cell++) {
+				out.putDouble(field.mass[cell]);
+			}
+		}
+	}
+
+	void readState(CheckpointReader in) {
+		fields.clear();
+		numParked = 0;
+		int numFields = in.getInt();
+		for(int i = 0; i < numFields; i++) {
+			int size = in.getInt();
+			ArrayList<Molecule> parked = new ArrayList<Molecule>(size);
+			for(int j = 0; j < size; j++) {
+				parked.add(in.getMoleculeRef());
+			}
+			Field field = new Field((parked.get(0).getMovementState() == MovementState.RANDOM_WALK) ?
+					randomWalk : packetWalk);
+			field.parked.addAll(parked);
+			for(int cell = 0; cell < numCells; cell++) {
+				field.mass[cell] = in.getDouble();
+			}
+			fields.put(getKey(parked.get(0)), field);
+			numParked += size;
+		}
+	}
+
+	/**
+	 * Transfer coefficients of the finite volume steps of a kind of random walk.
+	 * The mass moving from lattice cell i to its neighbour j along an axis in one
+	 * diffusion step is coefficient * (mass[i] / width[i] - mass[j] / width[j]).
+	 */
+	private class Diffusion {
+		// pairs of neighbouring lattice cells exchanging mass, all of them but pairs of SHELL cells
+		private final int numLinks;
+		private final int[] cell;
+		private final int[] next;
+		// where the mass moving from cell to next is taken from and put in Field.flow
+		private final int[] fromSlot;
+		private final int[] toSlot;
+		// the mass moving is cellFactor * mass[cell] - nextFactor * mass[next]
+		private final double[] cellFactor;
+		private final double[] nextFactor;
+		private final int numSubsteps;
+
+		Diffusion(double[] delta) {
+			double[] diffusion = new double[3];
+			for(int axis = 0; axis < 3; axis++) {
+				// a step of the walk moves by k with probability weights[k - lowest],
+				// each step adds its variance to the spread, twice the diffusion coefficient
+				double[][] weights = new double[3][];
+				int lowest = FirstPassageTable.stepWeights(delta[axis], weights, axis);
+				double variance = 0.0;
+				for(int k = 0; k < weights[axis].length; k++) {
+					variance += weights[axis][k] * (lowest + k) * (lowest + k);
+				}
+				diffusion[axis] = variance / 2.0;
+			}
+
+			int maxLinks = 3 * numCells;
+			cell = new int[maxLinks];
+			next = new int[maxLinks];
+			fromSlot = new int[maxLinks];
+			toSlot = new int[maxLinks];
+			cellFactor = new double[maxLinks];
+			nextFactor = new double[maxLinks];
+			// fraction of its mass each lattice cell loses in one step at most, SHELL cells have none
+			double[] outflow = new double[numCells];
+			int links = 0;
+			int[] at = new int[3];
+			for(int c = 0; c < numCells; c++) {
+				toLattice(c, at);
+				for(int axis = 0; axis < 3; axis++) {
+					int i = at[axis];
+					int n = c + stride[axis];
+					if((i == latticeDim[axis] - 1) || ((zone[c] == SHELL) && (zone[n] == SHELL))) {
+						continue;
+					}
+					cell[links] = c;
+					next[links] = n;
+					// mass flowing into a SHELL cell is kept by the face it flowed through
+					fromSlot[links] = (zone[c] == SHELL) ? numCells + shellIndex[c] * 6 + axis * 2 + 1 : c;
+					toSlot[links] = (zone[n] == SHELL) ? numCells + shellIndex[n] * 6 + axis * 2 : n;
+					// per unit time, across the distance between the centers of the two cells, or
+					// from the center of a cell to the face of a SHELL cell, where the field ends
+					double distance = (width[axis][i] + width[axis][i + 1]) / 2.0;
+					if(zone[c] == SHELL) {
+						distance = width[axis][i + 1] / 2.0;
+					} else if(zone[n] == SHELL) {
+						distance = width[axis][i] / 2.0;
+					}
+					double coefficient = diffusion[axis] / distance;
+					cellFactor[links] = coefficient * inverseWidth[axis][i];
+					nextFactor[links] = coefficient * inverseWidth[axis][i + 1];
+					outflow[c] += cellFactor[links];
+					outflow[n] += nextFactor[links];
+					links++;
+				}
+			}
+			numLinks = links;
+			double maxFraction = 0.0;
+			for(int c = 0; c < numCells; c++) {
+				if(zone[c] != SHELL) {
+					maxFraction = Math.max(maxFraction, outflow[c]);
+				}
+			}
+			numSubsteps = Math.max(1, (int) Math.ceil(maxFraction / STABLE_FRACTION));
+			for(int link = 0; link < numLinks; link++) {
+				cellFactor[link] /= numSubsteps;
+				nextFactor[link] /= numSubsteps;
+			}
+		}
+	}
+
+	// The field of one kind of molecule, and the molecules parked in it
+	private class Field {
+		private final Diffusion diffusion;
+		private final double[] mass = new double[numCells];
+		// change of mass of every lattice cell during a diffusion step, followed by
+		// the mass that flowed into each face of each SHELL cell during the step
+		private final double[] flow = new double[numCells + numShellCells * 6];
+		private final ArrayList<Molecule> parked = new ArrayList<Molecule>();
+
+		Field(Diffusion diffusion) {
+			this.diffusion = diffusion;
+		}
+
+		void step() {
+			for(int substep = 0; substep < diffusion.numSubsteps; substep++) {
+				diffuse();
+			}
+			releaseInflow();
+		}
+
+		/**
+		 * One finite volume step: every pair of neighbouring cells exchanges mass
+		 * according to the difference of their densities along the axis joining
+		 * them.  Nothing crosses the edges of the medium, and mass flowing into a
+		 * SHELL cell is kept aside, by the face it flowed through.
+		 */
+		private void diffuse() {
+			Arrays.fill(flow, 0, numCells, 0.0);
+			Diffusion d = diffusion;
+			for(int link = 0; link < d.numLinks; link++) {
+				double cellMass = mass[d.cell[link]];
+				double nextMass = mass[d.next[link]];
+				if((cellMass == 0.0) && (nextMass == 0.0)) {
+					continue;
+				}
+				double moved = d.cellFactor[link] * cellMass - d.nextFactor[link] * nextMass;
+				flow[d.fromSlot[link]] -= moved;
+				flow[d.toSlot[link]] += moved;
+			}
+			for(int cell = 0; cell < numCells; cell++) {
+				double m = mass[cell] + flow[cell];
+				mass[cell] = (m < NEGLIGIBLE_MASS) ? 0.0 : m;
+			}
+		}
+
+		/**
+		 * Puts back into the medium as many molecules as mass flowed into the
+		 * shells, rounded at random, and scales the field to what is left parked.
+		 * What is left of the field is where the molecules that did not flow into
+		 * the shells may be, whatever the rounding gave, so the whole field is
+		 * scaled rather than the rounding error put back by the faces, which
+		 * would pile mass up next to the shells and make arrivals early.
+		 */
+		private void releaseInflow() {
+			int largest = -1;
+			for(int i = 0; i < numShellCells * 6; i++) {
+				double flowed = flow[numCells + i];
+				if(flowed <= 0.0) {
+					continue;
+				}
+				if((largest == -1) || (flowed > flow[numCells + largest])) {
+					largest = i;
+				}
+				int count = (int) flowed;
+				if(getRandom().nextDouble() < flowed - count) {
+					count++;
+				}
+				for(int j = 0; (j < count) && !parked.isEmpty(); j++) {
+					releaseOne(i);
+				}
+			}
+			double total = 0.0;
+			for(int cell = 0; cell < numCells; cell++) {
+				total += mass[cell];
+			}
+			if(total > 0.0) {
+				double scale = parked.size() / total;
+				for(int cell = 0; cell < numCells; cell++) {
+					mass[cell] *= scale;
+				}
+			} else if(largest != -1) {
+				// all of the mass flowed into the shells
+				while(!parked.isEmpty()) {
+					releaseOne(largest);
+				}
+			}
+			Arrays.fill(flow, numCells, flow.length, 0.0);
+		}
+
+		// Puts one of the parked molecules, picked at random, back through a face of a SHELL cell
+		private void releaseOne(int faceIndex) {
+			int index = getRandom().nextInt(parked.size());
+			Molecule mol = parked.get(index);
+			parked.set(index, parked.get(parked.size() - 1));
+			parked.remove(parked.size() - 1);
+			release(mol, shellCells[faceIndex / 6], faceIndex % 6);
+		}
+	}
+}
@@ -47,12 +47,23 @@ public class InformationMolecule extends Molecule{
 		this.destinations = sim.getReceivers();
 	}
 	
-	public void move() {
-		setPosition(getMovementController().getNextPosition(this, getSimulation()));
+	public void commitMove() {
+		setPosition(commitProposedPosition());
+		if(isDead()) {
+			return;
+		}
 		NanoMachine rx = simulation.getMedium().getRxNanoMachineAtPos(getPosition());
 		if(rx != null) {
 			rx.receiveMolecule(this);
 		}
 	}
 
+	public NanoMachine getSource() {
+		return source;
+	}
+
+	public MoleculeType getMoleculeType() {
+		return MoleculeType.INFO;
+	}
+
 }
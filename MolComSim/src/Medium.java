@@ -2,38 +2,40 @@
  *  The medium in which the simulation takes place
  *  Has dimensions and is responsible for
  *  populating itself with noise molecules
+ *
+ *  How objects are kept track of in the medium is left
+ *  to subclasses, see MediumFactory for the available grids.
+ *  Nanomachines and microtubules are also recorded in a 
+ *  StaticGeometry, which answers which of them are at a 
+ *  position inside the medium, so only the ones outside of 
+ *  the medium are added to the grid of objects.
  */
 
 import java.util.*;
 
-public class Medium {
+public abstract class Medium {
 
-	private int length;
-	private int height;
-	private int width;
+	protected int length;
+	protected int height;
+	protected int width;
 	private NoiseMoleculeCreator mCreator;
-	private MolComSim simulation;
-	//Keep track of the location of all objects in the medium
-	private HashMap<Position, ArrayList<Object>> grid;
-	//garbageSpot is located outside of the bounds of the medium, where molecules go to die
-	private final Position garbageSpot;
+	protected MolComSim simulation;
+	protected StaticGeometry geometry;
 
-	public Medium(int l, int h, int w, ArrayList<MoleculeParams> noiseMoleculeParams, MolComSim sim) {
+	protected Medium(int l, int h, int w, ArrayList<MoleculeParams> noiseMoleculeParams, MolComSim sim) {
 		this.length = l;
 		this.height = h;
 		this.width = w;
 		this.simulation = sim;
+		this.geometry = sim.createStaticGeometry(l, h, w);
 		this.mCreator = new NoiseMoleculeCreator(noiseMoleculeParams, this.simulation);
-		this.grid = new HashMap<Position, ArrayList<Object>>();
-		garbageSpot = new Position(length*2, height*2, width*2);
-		grid.put(garbageSpot, new ArrayList<Object>());
 	}
 
 	/** Populate itself with noise molecules*/
 	public void createMolecules() {
-		mCreator.createMolecules(); 
+		mCreator.createMolecules();
 	}
-	
+
 	public int getLength() {
 		return length;
 	}
@@ -49,144 +51,168 @@ public class Medium {
 	public MolComSim getSimulation() {
 		return simulation;
 	}
-	
+
+	public StaticGeometry getStaticGeometry() {
+		return geometry;
+	}
+
 	// Checks to see if toCheck is within bounds of medium.
-	// if so, returns toCheck,  otherwise returns whatever closest position 
+	// if so, returns toCheck,  otherwise returns whatever closest position
 	// to toCheck is within the medium.
 	Position getClosestPosition(Position toCheck) {
+		if(isInside(toCheck.getX(), toCheck.getY(), toCheck.getZ())) {
+			return toCheck;
+		}
+		return getClosestPosition(toCheck.getX(), toCheck.getY(), toCheck.getZ());
+	}
+
+	// Same as getClosestPosition(Position) for the position (toCheckX, toCheckY, toCheckZ)
+	Position getClosestPosition(int toCheckX, int toCheckY, int toCheckZ) {
 		int x, y, z;
-		if(toCheck.getX() > (length / 2)) {
-			x = length / 2; 
-		} else if (toCheck.getX() < (length / -2)) {
+		if(toCheckX > (length / 2)) {
+			x = length / 2;
+		} else if (toCheckX < (length / -2)) {
 			x = (length / -2);
 		} else {
-			x = toCheck.getX();
+			x = toCheckX;
 		}
-		
-		if(toCheck.getY() > (width / 2)) {
-			y = width / 2; 
-		} else if (toCheck.getY() < (width / -2)) {
+
+		if(toCheckY > (width / 2)) {
+			y = width / 2;
+		} else if (toCheckY < (width / -2)) {
 			y = (width / -2);
 		} else {
-			y = toCheck.getY();
+			y = toCheckY;
 		}
-		
-		if(toCheck.getZ() > (height / 2)) {
-			z = height / 2; 
-		} else if (toCheck.getZ() < (height / -2)) {
+
+		if(toCheckZ > (height / 2)) {
+			z = height / 2;
+		} else if (toCheckZ < (height / -2)) {
 			z = (height / -2);
 		} else {
-			z = toCheck.getZ();
+			z = toCheckZ;
 		}
-		
+
+		return getPosition(x, y, z);
+
+	}
+
+	// Whether (x, y, z) is within bounds of the medium
+	boolean isInside(int x, int y, int z) {
+		return (x <= (length / 2)) && (x >= (length / -2)) && 
+				(y <= (width / 2)) && (y >= (width / -2)) && 
+				(z <= (height / 2)) && (z >= (height / -2));
+	}
+
+	// The Position (x, y, z).  Positions are immutable, so media
+	// may hand out the same instance every time to avoid allocating one.
+	public Position getPosition(int x, int y, int z) {
 		return new Position(x, y, z);
-		
 	}
-	
+
 	//Add an object to the grid of objects
-	public void addObject(Object obj, Position pos){
-		if (!grid.containsKey(pos)){
-			grid.put(pos, new ArrayList<Object>());
+	public abstract void addObject(Object obj, Position pos);
+
+	//Add an object that never moves (nanomachine or microtubule) to the static geometry,
+	//or to the grid of objects if pos is outside of the medium
+	public void addStaticObject(Object obj, Position pos) {
+		geometry.add(obj, pos);
+		if(!geometry.isInside(pos.getX(), pos.getY(), pos.getZ())) {
+			addObject(obj, pos);
 		}
-		grid.get(pos).add(obj);
 	}
-	
+
+	//Remove an object from the grid of objects
+	public abstract void removeObject(Object obj, Position pos);
+
 	//Move an object from its old location in the grid to the new position
-	public void moveObject(Object obj, Position oldPos, Position newPos){
-		if (grid.containsKey(oldPos)){
-			grid.get(oldPos).remove(obj);
-			if (grid.get(oldPos).isEmpty())
-				grid.remove(oldPos);
-			}
-		addObject(obj, newPos);
-	}
-	
+	public abstract void moveObject(Object obj, Position oldPos, Position newPos);
+
 	//Checks to see if a particular position already has anything in it
-	public boolean isOccupied(Position pos){
-		if (!grid.containsKey(pos) || grid.get(pos).isEmpty())
-			return false;
-		return true;
-	}
-	
-	public Microtubule hasMicrotubule(Position pos){
-		if (!grid.containsKey(pos) || grid.get(pos).isEmpty())
-			return null;
-		else {
-			for (Object o : grid.get(pos)){
-				if (o instanceof Microtubule)
-					return (Microtubule) o;
-			}
+	public abstract boolean isOccupied(Position pos);
+
+	//Returns the first microtubule running through a particular position, or null
+	public Microtubule hasMicrotubule(Position pos) {
+		int cell = geometry.cellIndex(pos.getX(), pos.getY(), pos.getZ());
+		if(cell == -1) {
+			return findMicrotubuleAtPos(pos);
 		}
-		return null;
+		return geometry.getMicrotubule(cell);
 	}
-	
+
+	//Looks for the first microtubule at a position outside of the static geometry
+	protected abstract Microtubule findMicrotubuleAtPos(Position pos);
+
 	//Checks to see if a particular position has a molecule in it
-	public boolean hasMolecule(Position pos){
-		if (!grid.containsKey(pos) || grid.get(pos).isEmpty())
-			return false;
-		else {
-			for (Object o : grid.get(pos)){
-				if (o instanceof Molecule)
-					return true;
-			}
-		}
-		return false;
+	public abstract boolean hasMolecule(Position pos);
+
+	//Same as hasMolecule(Position) for the position (x, y, z)
+	public boolean hasMolecule(int x, int y, int z) {
+		return hasMolecule(new Position(x, y, z));
 	}
-	
+
+	//Sum of the volumes of all molecules located in a particular position
+	public abstract double getMoleculeVolumeAtPos(Position pos);
+
 	//Returns a list of everything located in a particular position
-	public ArrayList<Object> getObjectsAtPos(Position pos){
-		if (isOccupied(pos) || pos.equals(garbageSpot))
-			return grid.get(pos);
-		else 
-			return null;
-	}
-	
-	public Position garbageSpot(){
-		return garbageSpot;
-	}
-	
-	//Erase all objects in the garbageSpot
-	public void collectGarbage(){
-		grid.put(garbageSpot, new ArrayList<Object>());
+	public abstract ArrayList<Object> getObjectsAtPos(Position pos);
+
+	//Returns every position with at least one molecule in it
+	public abstract ArrayList<Position> getMoleculePositions();
+
+	//Returns the number of positions with at least one molecule in it
+	public int getNumMoleculePositions() {
+		return getMoleculePositions().size();
 	}
 
+	//Replaces everything at pos with objects, in that order, holding molecules 
+	//with a total volume of moleculeVolume.  Only used to restore a saved simulation.
+	public abstract void restoreObjectsAtPos(Position pos, ArrayList<Object> objects, double moleculeVolume);
+
 	// gets first nanomachine with a receiver at this position.
 	// returns it if found, else returns null.
 	public NanoMachine getRxNanoMachineAtPos(Position pos) {
-		if (!grid.containsKey(pos) || grid.get(pos).isEmpty())
-			return null;
-		else {
-			for (Object o : grid.get(pos)){
-				if (o instanceof NanoMachine ) {
-					NanoMachine nm = (NanoMachine)o;
-					if(nm.hasReceiver())
-						return nm;
-				}
-			}
+		int cell = geometry.cellIndex(pos.getX(), pos.getY(), pos.getZ());
+		if(cell == -1) {
+			return findRxNanoMachineAtPos(pos);
+		}
+		return geometry.getReceiver(cell);
+	}
+
+	// Same as getRxNanoMachineAtPos(Position) for the position (x, y, z)
+	public NanoMachine getRxNanoMachineAtPos(int x, int y, int z) {
+		int cell = geometry.cellIndex(x, y, z);
+		if(cell == -1) {
+			return findRxNanoMachineAtPos(new Position(x, y, z));
 		}
-		return null;
+		return geometry.getReceiver(cell);
 	}
 
 	// gets first nanomachine with a transmitter at this position.
 	// returns it if found, else returns null.
 	public NanoMachine getTxNanoMachineAtPos(Position pos) {
-		if ( pos.equals(garbageSpot) || !grid.containsKey(pos) || grid.get(pos).isEmpty())
-			return null;
-		else {
-			for (Object o : grid.get(pos)){
-				if (o instanceof NanoMachine ) {
-					NanoMachine nm = (NanoMachine)o;
-					if(nm.hasTransmitter())
-						return nm;
-				}
-			}
+		int cell = geometry.cellIndex(pos.getX(), pos.getY(), pos.getZ());
+		if(cell == -1) {
+			return findTxNanoMachineAtPos(pos);
 		}
-		return null;
+		return geometry.getTransmitter(cell);
 	}
-	
-	//This is for testing purposes only, remove from program
-	/*public HashMap<Position, ArrayList<Object>> getGrid(){
-		return grid;
-	}*/
+
+	// Same as getTxNanoMachineAtPos(Position) for the position (x, y, z)
+	public NanoMachine getTxNanoMachineAtPos(int x, int y, int z) {
+		int cell = geometry.cellIndex(x, y, z);
+		if(cell == -1) {
+			return findTxNanoMachineAtPos(new Position(x, y, z));
+		}
+		return geometry.getTransmitter(cell);
+	}
+
+	// Looks for the first nanomachine with a receiver at a position 
+	// outside of the static geometry
+	protected abstract NanoMachine findRxNanoMachineAtPos(Position pos);
+
+	// Looks for the first nanomachine with a transmitter at a position 
+	// outside of the static geometry
+	protected abstract NanoMachine findTxNanoMachineAtPos(Position pos);
 
 }
@@ -0,0 +1,74 @@
+/**
+ * Checks that a simulation gives the same results with every medium
+ * type (mediumType HASHMAP and DENSE), which only differ in how they
+ * store the objects in the medium.
+ *
+ * The simulation given on the command line is run once with each medium,
+ * with the same seed, for a number of seeds in turn.  Each run appends
+ * its results to a temporary results file of its own, so the batch files
+ * are left alone, and the lines of the results files are compared.  Use
+ * a params file with collisions, and decomposing, for the order of the
+ * objects in the medium to make a difference.  Prints the number of
+ * simulations compared, or throws an IllegalStateException at the first
+ * difference.
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+public class MediumEquivalenceCheck {
+
+	/** Runs the simulation given by the remaining command line arguments
+	 *
+	 *  @param args -seeds: <number of seeds>, followed by any of the MolComSim 
+	 *   command line arguments
+	 */
+	public static void main(String[] args) throws IOException {
+		int numSeeds = 3;
+		ArrayList<String> simArgs = new ArrayList<String>();
+		for(int i = 0; i < args.length; i++) {
+			if(args[i].equals("-seeds:")) {
+				numSeeds = Integer.parseInt(args[++i]);
+			} else {
+				simArgs.add(args[i]);
+			}
+		}
+		SimulationParams simParams = new SimulationParams(simArgs.toArray(new String[simArgs.size()]));
+		simParams.setBatchRun(true);
+		MediumType[] types = MediumType.values();
+		File[] resultsFiles = new File[types.length];
+		try {
+			for(int t = 0; t < types.length; t++) {
+				resultsFiles[t] = File.createTempFile("medium_results", ".txt");
+				resultsFiles[t].delete();
+				for(int s = 0; s < numSeeds; s++) {
+					SimulationParams runParams = new SimulationParams(simParams);
+					runParams.setMediumType(types[t]);
+					runParams.setSeed(RandomStream.mix(simParams.getSeed(), s));
+					runParams.setResultsFileName(resultsFiles[t].getPath());
+					new MolComSim(runParams).run();
+				}
+			}
+			List<String> expected = Files.readAllLines(resultsFiles[0].toPath());
+			for(int t = 1; t < types.length; t++) {
+				List<String> actual = Files.readAllLines(resultsFiles[t].toPath());
+				for(int line = 0; line < Math.max(expected.size(), actual.size()); line++) {
+					if((line >= expected.size()) || (line >= actual.size()) || !actual.get(line).equals(expected.get(line))) {
+						throw new IllegalStateException(types[t] + " differs from " + types[0] + 
+								" at line " + (line + 1) + " of the results");
+					}
+				}
+			}
+			System.out.println("Media: " + types.length + ", simulations compared: " + numSeeds);
+		} finally {
+			for(File file : resultsFiles) {
+				if(file != null) {
+					file.delete();
+				}
+			}
+		}
+	}
+}
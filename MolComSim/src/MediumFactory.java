@@ -0,0 +1,17 @@
+import java.util.ArrayList;
+
+public class MediumFactory {
+
+	static public Medium create(MediumType type, int l, int h, int w, ArrayList<MoleculeParams> noiseMoleculeParams, MolComSim sim) {
+		switch (type) {
+		case DENSE:
+			return new DenseGridMedium(l, h, w, noiseMoleculeParams, sim);
+		case HASHMAP:
+			return new HashMapMedium(l, h, w, noiseMoleculeParams, sim);
+		default:
+			break;
+		}
+		return null;
+	}
+
+}
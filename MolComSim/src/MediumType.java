@@ -0,0 +1,17 @@
+
+public enum MediumType {
+
+	HASHMAP,
+	DENSE;
+	
+	public static MediumType getMediumType(String stringRep) {
+		if(stringRep.equals("HASHMAP")) {
+			return HASHMAP;
+		} else if(stringRep.equals("DENSE")) {
+			return DENSE;
+		} else {
+			throw new IllegalArgumentException("Invalid argument: " + stringRep + 
+					" to MediumType.getMediumType");
+		}
+	}
+}
@@ -1,5 +1,8 @@
 
 import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
 
 public class MolComSim {
@@ -7,21 +10,50 @@ public class MolComSim {
 	//Parameters for this simulation instance and a reader for it
 //	private FileReader paramsFile;
 	private SimulationParams simParams;
+	// what the simulation reads from simParams while running, resolved when it starts
+	private SimulationPlan plan;
 	private FileWriter outputFile = null;
 	private static final boolean APPEND_TO_FILE = true; // used to set the append field for FileWriter to write out to the
 							// same file as other simulations during a batch run.
+	// held while appending to batch files, so simulations running in the same process 
+	// (see ReplicateRunner) do not interleave their rows.
+	private static final Object BATCH_FILE_LOCK = new Object();
+	// first bytes of every checkpoint file, and version of their format
+	private static final int CHECKPOINT_MAGIC = 0x4d435343;
+	private static final int CHECKPOINT_VERSION = 8;
 	
 	//Collections of all the actors in this simulation
 	private ArrayList<Microtubule> microtubules;
 	private ArrayList<NanoMachine> nanoMachines;
 	private ArrayList<NanoMachine> transmitters;
 	private ArrayList<NanoMachine> receivers;
-	private ArrayList<Molecule> movingMolecules; 
+	private MoleculeStore movingMolecules; 
 	
 	private ArrayList<Integer> stepByMessage;
 
 	//The medium in which the simulation takes place
 	private Medium medium;
+	
+	//Moves the molecules each step, possibly on several threads
+	private StepEngine stepEngine;
+	// null unless molecules are absorbed by drawing first passage times instead of being moved
+	private FirstPassageScheduler firstPassage;
+	private HybridDiffusion hybrid;
+	private ProtectiveDomains domains;
+	// null unless trajectoryFile is set
+	private TrajectoryRecorder trajectory;
+	// null unless timeSeriesFile is set
+	private TimeSeriesSampler sampler;
+	// id of the next molecule created, see Molecule.getId
+	private int nextMoleculeId = 0;
+	//Source of all random numbers used by this simulation
+	private SimulationRandom random;
+	// results file shared with other simulations, null to append to the batch files directly
+	private ResultsSink resultsSink = null;
+	// values of the key columns of resultsSink for this simulation
+	private List<String> resultsKeys = Collections.<String>emptyList();
+	// static geometries shared with other simulations, null to build one for this simulation only
+	private GeometryCache geometryCache = null;
 
 	//Max number of steps to allow in the simulation
 	private int simStep;
@@ -34,19 +66,7 @@ public class MolComSim {
 	private int allAckNum;
 	
 	// 衝突回数
-	private ArrayList<Integer> collisionAA;
-	private ArrayList<Integer> collisionAI;
-	private ArrayList<Integer> collisionAN;
-	private ArrayList<Integer> collisionII;
-	private ArrayList<Integer> collisionIN;
-	private ArrayList<Integer> collisions;
-//	private int collisionNumAA;
-//	private int collisionNumAI;
-//	private int collisionNumAN;
-//	private int collisionNumII;
-//	private int collisionNumIN;
-	private String[] MolType = {"AcknowledgementMolecule", "InformationMolecule", "NoiseMolecule"};
-//	private int[] collNums;
+	private CollisionStatistics collisions;
 	
 	private int decomposingNum;
 	private ArrayList<Integer> infoAdjustNum;
@@ -68,13 +88,9 @@ public class MolComSim {
 	private ForwardErrorCorrection FEC = null;
 	//Number of packets are required when making data
 	private int numRequiredPackets;
-	
-	
-	//This instance of the Molecular Communication Simulation
-	static MolComSim molComSim;
 
 	
-	/** Creates a singleton instance of MolComSim
+	/** Creates an instance of MolComSim
 	 *  and runs the simulation according to input 
 	 *  parameters
 	 *  
@@ -83,23 +99,63 @@ public class MolComSim {
 	 */
 	public static void main(String[] args) throws IOException {
 //		long start = System.currentTimeMillis();
-		MolComSim molComSim = createInstance();
-		molComSim.run(args);
+		SimulationParams params = new SimulationParams(args);
+		if(params.getParameterSweep() != null) {
+			throw new IllegalArgumentException("The params file defines a sweep, run it with SweepRunner");
+		}
+		MolComSim molComSim = new MolComSim(params);
+		molComSim.run();
 //		System.out.println(String.format("Finish: %d ms", System.currentTimeMillis() - start));
 	}
+	
+	/** Creates a simulation that owns all of its state, so any number
+	 *  of simulations can run in the same process.  
+	 *  
+	 * @param params The parameters for this simulation only, these
+	 *  are modified as the simulation runs (adaptive change)
+	 */
+	public MolComSim(SimulationParams params) {
+		this.simParams = params;
+	}
+
+	/** Creates a simulation that appends its results to a results file
+	 *  shared with other simulations, if it is a batch run
+	 *  
+	 * @param params The parameters for this simulation only
+	 * @param sink Where to append the results to
+	 */
+	public MolComSim(SimulationParams params, ResultsSink sink) {
+		this.simParams = params;
+		this.resultsSink = sink;
+	}
 
-	/** Begins simulation with the parameter arguments
+	/** Creates a simulation of a parameter sweep, see SweepRunner
+	 *  
+	 * @param params The parameters for this simulation only
+	 * @param sink Where to append the results to
+	 * @param resultsKeys The value of each key column of sink
+	 * @param geometryCache Static geometries shared with the other simulations
+	 */
+	public MolComSim(SimulationParams params, ResultsSink sink, List<String> resultsKeys, GeometryCache geometryCache) {
+		this.simParams = params;
+		this.resultsSink = sink;
+		this.resultsKeys = resultsKeys;
+		this.geometryCache = geometryCache;
+	}
+
+	/** Begins simulation with the parameters
 	 *  and sets flags simStep and lasMsgCompleted
-	 * 
-	 * @param args Should be a parameter file
 	 */
-	private void startSim(String[] args) throws IOException {
+	private void startSim() throws IOException {
 		simStep = 0;
 		lastMsgCompleted = false;
+		plan = new SimulationPlan(simParams);
 		initParams();
+		// when resuming a simulation, molecules and everything else that changes come from the checkpoint
+		CheckpointReader checkpoint = (simParams.getRestoreFileName() != null) ? 
+				Checkpointer.load(simParams.getRestoreFileName(), this) : null;
 		
-		simParams = new SimulationParams(args);
-		if((simParams.getOutputFileName() != null) && (!simParams.isBatchRun())) {
+		if((simParams.getOutputFileName() != null) && (!simParams.isBatchRun()) && (checkpoint == null)) {
 			outputFile = new FileWriter(simParams.getOutputFileName());
 		}
 		if(simParams.isFEC()) {
@@ -111,10 +167,38 @@ public class MolComSim {
 		nanoMachines = new ArrayList<NanoMachine>();
 		transmitters = new ArrayList<NanoMachine>();
 		receivers = new ArrayList<NanoMachine>();
-		movingMolecules = new ArrayList<Molecule>();
+		movingMolecules = new MoleculeStore(simParams.getMoleculeLayout());
+		random = new SimulationRandom(simParams.getSeed());
+		if((geometryCache == null) && (simParams.getGeometryCacheDir() != null)) {
+			geometryCache = new GeometryCache(simParams.getGeometryCacheDir());
+		}
+		stepEngine = new StepEngine(simParams.getNumThreads(), this);
+		trajectory = (simParams.getTrajectoryFileName() != null) ? new TrajectoryRecorder(simParams.getTrajectoryFileName(),
+				simParams.getTrajectorySampling(), simParams.getTrajectoryTypes()) : null;
+		sampler = (simParams.getTimeSeriesFileName() != null) ? new TimeSeriesSampler(simParams.getTimeSeriesFileName(),
+				simParams.getTimeSeriesInterval(), simParams.getNumMessages()) : null;
+		firstPassage = (simParams.isFirstPassage() && FirstPassageScheduler.canSchedule(simParams)) ? 
+				new FirstPassageScheduler(this) : null;
 		createMedium();
+		if(checkpoint == null) {
+			medium.createMolecules();
+		}
 		createMicrotubules(); 
-		createNanoMachines();
+		createNanoMachines(checkpoint == null);
+		if(geometryCache != null) {
+			geometryCache.put(simParams.getGeometryKey(), medium.getStaticGeometry());
+		}
+		hybrid = HybridDiffusion.canUse(simParams) ? new HybridDiffusion(this) : null;
+		domains = ProtectiveDomains.canUse(simParams) ? new ProtectiveDomains(this) : null;
+		if(checkpoint != null) {
+			readState(checkpoint);
+			if(trajectory != null) {
+				// the log of a resumed simulation starts from the molecules of the checkpoint
+				for(int i = 0; i < movingMolecules.size(); i++) {
+					trajectory.entered(movingMolecules.get(i), simStep);
+				}
+			}
+		}
 
 		// Note: it is the job of the medium and NanoMachines to create molecules
 	}
@@ -130,42 +214,33 @@ public class MolComSim {
 		infoAdjustNum = new ArrayList<Integer>();
 		ackAdjustNum = new ArrayList<Integer>();
 		
-		collisionAA = new ArrayList<Integer>();
-		collisionAI = new ArrayList<Integer>();
-		collisionAN = new ArrayList<Integer>();
-		collisionII = new ArrayList<Integer>();
-		collisionIN = new ArrayList<Integer>();
-		collisions = new ArrayList<Integer>();
+		collisions = new CollisionStatistics(simParams.getCollisionHistogramBins());
 		
 		stepByMessage = new ArrayList<Integer>();
 	}
 
-	/** Makes sure there is only one instance of MolComSim
-	 * 
-	 * @return the only instance of MolComSim
-	 */
-	public static MolComSim createInstance() {
-		if(molComSim == null){
-			molComSim = new MolComSim();
-		}
-		return molComSim;
-	}
-	
 	/** Runs the simulation according to given parameters
 	 *  Moves each molecule and nanomachine for each time
 	 *  step in the simulation 
 	 * 
-	 * @param args Should be a parameter file
+	 * @return the results of the simulation
 	 */
-	private void run(String[] args)  throws IOException {
-		startSim(args);
+	public SimulationResult run()  throws IOException {
+		startSim();
+		Checkpointer checkpointer = (simParams.getCheckpointFileName() != null) ? 
+				new Checkpointer(simParams.getCheckpointFileName(), simParams.getCheckpointInterval(), simStep) : null;
 		//As long as we have not run for too long and have not
 		//yet finished sending our messages, move the simulation forward
 //		for(; (simStep < simParams.getMaxNumSteps()) && (!lastMsgCompleted); simStep++)
 		// ToDo: 情報分子と確認応答分子が全てなくなるまで実行
 //		for(; (simStep < simParams.getMaxNumSteps()) && (!lastMsgCompleted) && (!movingMolecules.isEmpty()); simStep++) 
-		for(; (!isFinish) || (movingMolecules.size() != 0); simStep++) {
-			System.out.println(simStep);
+		for(; (!isFinish) || hasMovingMolecules(); simStep++) {
+			if(checkpointer != null) {
+				checkpointer.checkpoint(this);
+			}
+			if(!simParams.isBatchRun()) {
+				System.out.println(simStep);
+			}
 			if ((simStep >= simParams.getMaxNumSteps() || lastMsgCompleted) && !isFinish) {
 				finishSimStep = simStep;
 				isFinish = true;
@@ -179,19 +254,67 @@ public class MolComSim {
 				nm.nextStep();
 			}
 			
-			for(Molecule m : movingMolecules){
-				m.move();
+			if(firstPassage != null) {
+				firstPassage.absorb(simStep);
+			}
+			stepEngine.step(movingMolecules);
+			if(hybrid != null) {
+				hybrid.park();
 			}
 			collectGarbage();
+			if(hybrid != null) {
+				hybrid.step();
+			}
+			if(sampler != null) {
+				sampler.sample(this);
+			}
+			if(movingMolecules.size() == 0) {
+				// nothing moves, so skip to the step before the next thing happens
+				simStep = Math.max(simStep, nextEventStep() - 1);
+			}
 		}
 		simStep--;
-		endSim();
+		stepEngine.shutdown();
+		if(checkpointer != null) {
+			checkpointer.close();
+		}
+		if(trajectory != null) {
+			trajectory.close();
+		}
+		if(sampler != null) {
+			sampler.close();
+		}
+		return endSim();
 	}
 
 	public int getSimStep() {
 		return simStep;
 	}
 	
+	// First step after this one in which a nanomachine, the end of the simulation,
+	// an absorption in fast mode or a field of the hybrid mode may change anything
+	private int nextEventStep() {
+		int next = simStep + 1;
+		if((lastMsgCompleted && !isFinish) || ((hybrid != null) && hybrid.hasParkedMolecules())) {
+			return next;
+		}
+		long event = isFinish ? Long.MAX_VALUE : simParams.getMaxNumSteps();
+		for(NanoMachine nm : nanoMachines) {
+			event = Math.min(event, nm.getNextEventStep(next));
+		}
+		if(firstPassage != null) {
+			event = Math.min(event, firstPassage.getNextAbsorptionStep());
+		}
+		// after the end of the simulation, the loop stops by itself once nothing is left
+		return (event >= Integer.MAX_VALUE) ? next : (int) Math.max(next, event);
+	}
+
+	// Whether any molecule is still moving, waiting to be absorbed in fast mode or parked in hybrid mode
+	private boolean hasMovingMolecules() {
+		return (movingMolecules.size() != 0) || ((firstPassage != null) && firstPassage.hasPendingAbsorptions()) ||
+				((hybrid != null) && hybrid.hasParkedMolecules());
+	}
+	
 	public void addInfoNum() {
 		this.allInfoNum++;
 	}
@@ -211,6 +334,11 @@ public class MolComSim {
 	public void addStepByMessage() {
 		this.stepByMessage.add(this.simStep);
 	}
+	
+	// Step at which each message was completed, in order
+	public List<Integer> getStepByMessage() {
+		return stepByMessage;
+	}
 
 	public boolean isLastMsgCompleted() {
 		return lastMsgCompleted;
@@ -220,8 +348,19 @@ public class MolComSim {
 		return simParams.getNumMessages();
 	}
 
-	/** Creates the medium in which the simulation takes place
-	 *  and places noise molecules inside it
+	/** The static geometry of the medium, using the cells and nodes
+	 *  built by another simulation with the same geometry if possible
+	 */
+	public StaticGeometry createStaticGeometry(int length, int height, int width) {
+		StaticGeometry.Layout layout = (geometryCache != null) ? geometryCache.get(simParams.getGeometryKey()) : null;
+		if((layout != null) && layout.hasDimensions(length, height, width)) {
+			return new StaticGeometry(layout);
+		}
+		return new StaticGeometry(length, height, width);
+	}
+
+	/** Creates the medium in which the simulation takes place,
+	 *  see Medium.createMolecules for its noise molecules
 	 * 
 	 */
 	private void createMedium() {
@@ -229,9 +368,8 @@ public class MolComSim {
 		int medLength = simParams.getMediumLength();
 		int medHeight = simParams.getMediumHeight();
 		int medWidth = simParams.getMediumWidth();
-		ArrayList<MoleculeParams> nMParams = simParams.getNoiseMoleculeParams();
-		medium = new Medium(medLength, medHeight, medWidth, nMParams, this);
-		medium.createMolecules();
+		ArrayList<MoleculeParams> nMParams = plan.getNoiseMoleculeParams();
+		medium = MediumFactory.create(simParams.getMediumType(), medLength, medHeight, medWidth, nMParams, this);
 	}
 	
 
@@ -239,14 +377,18 @@ public class MolComSim {
 	 *  Each nanomachine creates its own information or
 	 *  acknowledgment molecules
 	 * 
+	 *  @param createMolecules Whether transmitters send their first 
+	 *   message, false when resuming from a checkpoint
 	 */
-	private void createNanoMachines() {
-		ArrayList<MoleculeParams> ackParams = simParams.getAcknowledgmentMoleculeParams();
-		ArrayList<MoleculeParams> infoParams = simParams.getInformationMoleculeParams();
+	private void createNanoMachines(boolean createMolecules) {
+		ArrayList<MoleculeParams> ackParams = plan.getAcknowledgmentMoleculeParams();
+		ArrayList<MoleculeParams> infoParams = plan.getInformationMoleculeParams();
 		for (NanoMachineParam nmp : simParams.getTransmitterParams()){
 			NanoMachine nm = NanoMachine.createTransmitter(nmp.getCenter(), nmp.getRadius(), nmp.getMolReleasePoint(), infoParams, this);
 			growNanoMachine(nm); // adds NanoMachine to medium's grid
-			nm.createInfoMolecules();
+			if(createMolecules) {
+				nm.createInfoMolecules();
+			}
 			transmitters.add(nm);
 			nanoMachines.add(nm);
 		}
@@ -280,10 +422,16 @@ public class MolComSim {
 		int endY = center.getY() + (radius - 1);
 		int startZ = center.getZ() - (radius - 1);
 		int endZ = center.getZ() + (radius - 1);
+		// with a prebuilt geometry only the positions outside of the medium are left to add
+		StaticGeometry geometry = medium.getStaticGeometry();
+		geometry.register(nm);
+		boolean prebuilt = geometry.isPrebuilt();
 		for(int x = startX; x <= endX; x++) {
 			for(int y = startY; y <= endY; y++) {
 				for(int z = startZ; z <= endZ; z++) {
-					addObject(nm, new Position(x, y, z));
+					if(!prebuilt || !geometry.isInside(x, y, z)) {
+						medium.addStaticObject(nm, new Position(x, y, z));
+					}
 				}
 			}
 		}
@@ -302,11 +450,22 @@ public class MolComSim {
 
 	//Adds microtubule to medium's grid all along its length
 	private void growMicrotubule(Microtubule tempMT){
+		Position start = tempMT.getStartPoint();
+		Position end = tempMT.getEndPoint();
+		StaticGeometry geometry = medium.getStaticGeometry();
+		geometry.register(tempMT);
+		// with a prebuilt geometry there is nothing left to add if all positions 
+		// (within one of the line from start to end) are inside the medium
+		if(geometry.isPrebuilt() && 
+				geometry.isInside(Math.min(start.getX(), end.getX()) - 1, Math.min(start.getY(), end.getY()) - 1, 
+						Math.min(start.getZ(), end.getZ()) - 1) && 
+				geometry.isInside(Math.max(start.getX(), end.getX()) + 1, Math.max(start.getY(), end.getY()) + 1, 
+						Math.max(start.getZ(), end.getZ()) + 1)) {
+			return;
+		}
 		//Collect all positions the microtubule occupies
 		HashSet<Position> mtPos = new HashSet<Position>();
-		Position start = tempMT.getStartPoint();
 		mtPos.add(start);
-		Position end = tempMT.getEndPoint();
 		//Determine the direction the microtubule is pointed in, using doubles
 		DoublePosition direction = tempMT.getUnitVector();
 		DoublePosition currentPos = direction.toDouble(start);
@@ -316,11 +475,240 @@ public class MolComSim {
 			currentPos = currentPos.addDouble(direction);
 		}
 		//Add microtubule and its positions to the grid
-		addObjects(tempMT, mtPos);
+		for(Position p : mtPos) {
+			medium.addStaticObject(tempMT, p);
+		}
+	}
+
+	/** Saves everything that changes while the simulation runs, between two 
+	 *  steps, see Checkpointer.  The medium, nanomachines and microtubules are 
+	 *  rebuilt from the simulation parameters when restoring, so only their 
+	 *  state is saved.
+	 * 
+	 * @param out Where to save the simulation
+	 */
+	void writeState(CheckpointWriter out) throws IOException {
+		out.putInt(CHECKPOINT_MAGIC);
+		out.putInt(CHECKPOINT_VERSION);
+		writeParamsCheck(out);
+		out.putInt(simStep);
+		out.putLong(random.getSeed());
+		for(SimulationRandom.Purpose purpose : SimulationRandom.Purpose.values()) {
+			out.putRandom(random.getStream(purpose));
+		}
+		// how much of the output file was written at this point
+		long outputLength = -1;
+		if(outputFile != null) {
+			outputFile.flush();
+			outputLength = new File(simParams.getOutputFileName()).length();
+		}
+		out.putLong(outputLength);
+		
+		out.putInt(finishSimStep);
+		out.putBoolean(isFinish);
+		out.putInt(allInfoTime);
+		out.putInt(allAckTime);
+		out.putInt(allInfoNum);
+		out.putInt(allAckNum);
+		out.putInt(decomposingNum);
+		out.putBoolean(failure);
+		out.putInt(messagesCompleted);
+		out.putBoolean(lastMsgCompleted);
+		for(ArrayList<Integer> steps : getStepLists()) {
+			out.putIntegers(steps);
+		}
+		collisions.writeState(out);
+		// adaptive changes
+		for(MoleculeParams mp : simParams.getAllMoleculeParams()) {
+			out.putInt(mp.getNumMolecules());
+		}
+		out.putLong(stepEngine.getMoleculeSteps());
+		out.putInt(nextMoleculeId);
+		if(FEC != null) {
+			FEC.writeState(out);
+		}
+		for(NanoMachine nm : nanoMachines) {
+			nm.writeState(out);
+		}
+		
+		// moving molecules first, then the ones only found in the medium
+		// (noise), only waiting to be absorbed (fast mode) or parked (hybrid mode)
+		for(int i = 0; i < movingMolecules.size(); i++) {
+			out.addMolecule(movingMolecules.get(i));
+		}
+		ArrayList<Position> molPositions = medium.getMoleculePositions();
+		for(Position pos : molPositions) {
+			for(Object obj : medium.getObjectsAtPos(pos)) {
+				if(obj instanceof Molecule) {
+					out.addMolecule((Molecule) obj);
+				}
+			}
+		}
+		if(firstPassage != null) {
+			firstPassage.addMolecules(out);
+		}
+		if(hybrid != null) {
+			hybrid.addMolecules(out);
+		}
+		out.putMolecules();
+		out.putInt(movingMolecules.size());
+		for(int i = 0; i < movingMolecules.size(); i++) {
+			out.putMoleculeRef(movingMolecules.get(i));
+		}
+		// everything in the positions with molecules, in order, since collisions depend on it
+		out.putInt(molPositions.size());
+		for(Position pos : molPositions) {
+			ArrayList<Object> objects = medium.getObjectsAtPos(pos);
+			out.putPosition(pos);
+			out.putDouble(medium.getMoleculeVolumeAtPos(pos));
+			out.putInt(objects.size());
+			for(Object obj : objects) {
+				out.putObjectRef(obj);
+			}
+		}
+		if(firstPassage != null) {
+			firstPassage.writeState(out);
+		}
+		if(hybrid != null) {
+			hybrid.writeState(out);
+		}
+		if(sampler != null) {
+			sampler.writeState(out);
+		}
+	}
+
+	/** Restores what writeState saved into this simulation, whose medium,
+	 *  nanomachines and microtubules have just been created, without any 
+	 *  molecules.
+	 * 
+	 * @param in The checkpoint to resume from
+	 */
+	void readState(CheckpointReader in) throws IOException {
+		if((in.getInt() != CHECKPOINT_MAGIC) || (in.getInt() != CHECKPOINT_VERSION)) {
+			throw new IOException("Not a checkpoint file: " + simParams.getRestoreFileName());
+		}
+		if(!readParamsCheck(in)) {
+			throw new IOException("Checkpoint file " + simParams.getRestoreFileName() + 
+					" was not saved by a simulation with the same parameters");
+		}
+		simStep = in.getInt();
+		random = new SimulationRandom(in.getLong());
+		for(SimulationRandom.Purpose purpose : SimulationRandom.Purpose.values()) {
+			random.getStream(purpose).setState(in.getRandomState());
+		}
+		long outputLength = in.getLong();
+		if((simParams.getOutputFileName() != null) && (!simParams.isBatchRun())) {
+			// drop anything written after the checkpoint, it will be written again
+			if(outputLength >= 0) {
+				try(FileChannel channel = FileChannel.open(Paths.get(simParams.getOutputFileName()), 
+						StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+					channel.truncate(outputLength);
+				}
+			}
+			outputFile = new FileWriter(simParams.getOutputFileName(), APPEND_TO_FILE);
+		}
+		
+		finishSimStep = in.getInt();
+		isFinish = in.getBoolean();
+		allInfoTime = in.getInt();
+		allAckTime = in.getInt();
+		allInfoNum = in.getInt();
+		allAckNum = in.getInt();
+		decomposingNum = in.getInt();
+		failure = in.getBoolean();
+		messagesCompleted = in.getInt();
+		lastMsgCompleted = in.getBoolean();
+		for(ArrayList<Integer> steps : getStepLists()) {
+			in.getIntegers(steps);
+		}
+		collisions.readState(in);
+		for(MoleculeParams mp : simParams.getAllMoleculeParams()) {
+			mp.setNumMolecules(in.getInt());
+		}
+		stepEngine.setMoleculeSteps(in.getLong());
+		nextMoleculeId = in.getInt();
+		if(FEC != null) {
+			FEC.readState(in);
+		}
+		for(NanoMachine nm : nanoMachines) {
+			nm.readState(in);
+		}
+		
+		in.getMolecules();
+		int numMoving = in.getInt();
+		for(int i = 0; i < numMoving; i++) {
+			movingMolecules.add(in.getMoleculeRef());
+		}
+		int numPositions = in.getInt();
+		ArrayList<Object> objects = new ArrayList<Object>();
+		for(int i = 0; i < numPositions; i++) {
+			Position pos = in.getPosition();
+			double moleculeVolume = in.getDouble();
+			objects.clear();
+			int numObjects = in.getInt();
+			for(int j = 0; j < numObjects; j++) {
+				objects.add(in.getObjectRef());
+			}
+			medium.restoreObjectsAtPos(pos, objects, moleculeVolume);
+		}
+		if(firstPassage != null) {
+			firstPassage.readState(in);
+		}
+		if(hybrid != null) {
+			hybrid.readState(in);
+		}
+		if(sampler != null) {
+			sampler.readState(in);
+		}
+		if(!in.isFinished()) {
+			throw new IOException("Checkpoint file " + simParams.getRestoreFileName() + " is corrupt");
+		}
+	}
+
+	// Every list of steps at which something happened, in a fixed order
+	private ArrayList<ArrayList<Integer>> getStepLists() {
+		return new ArrayList<ArrayList<Integer>>(Arrays.asList(infoAdjustNum, ackAdjustNum, adjustSteps, 
+				retransmitNum, txRetransmitNum, rxRetransmitNum, stepByMessage));
+	}
+
+	// Parameters a checkpoint must have been saved with to be restored
+	private void writeParamsCheck(CheckpointWriter out) {
+		out.putInt(simParams.getMediumLength());
+		out.putInt(simParams.getMediumHeight());
+		out.putInt(simParams.getMediumWidth());
+		out.putInt(simParams.getMediumType().ordinal());
+		out.putInt(simParams.getMoleculeLayout().ordinal());
+		out.putInt(simParams.getWalkRandom().ordinal());
+		out.putInt(nanoMachines.size());
+		out.putInt(microtubules.size());
+		out.putInt(simParams.getAllMoleculeParams().size());
+		out.putBoolean(FEC != null);
+		out.putBoolean(firstPassage != null);
+		out.putBoolean(hybrid != null);
+		out.putBoolean(domains != null);
+		out.putBoolean(sampler != null);
+	}
+
+	private boolean readParamsCheck(CheckpointReader in) {
+		boolean same = (in.getInt() == simParams.getMediumLength());
+		same &= (in.getInt() == simParams.getMediumHeight());
+		same &= (in.getInt() == simParams.getMediumWidth());
+		same &= (in.getInt() == simParams.getMediumType().ordinal());
+		same &= (in.getInt() == simParams.getMoleculeLayout().ordinal());
+		same &= (in.getInt() == simParams.getWalkRandom().ordinal());
+		same &= (in.getInt() == nanoMachines.size());
+		same &= (in.getInt() == microtubules.size());
+		same &= (in.getInt() == simParams.getAllMoleculeParams().size());
+		same &= (in.getBoolean() == (FEC != null));
+		same &= (in.getBoolean() == (firstPassage != null));
+		same &= (in.getBoolean() == (hybrid != null));
+		same &= (in.getBoolean() == (domains != null));
+		same &= (in.getBoolean() == (sampler != null));
+		return same;
 	}
 
 	//any cleanup tasks, including printing simulation results to monitor or file.
-	private void endSim() throws IOException {
+	private SimulationResult endSim() throws IOException {
 		String endMessage = "";
 		if(simParams.isWait()) {
 			endMessage = "Ending simulation: Last step: " + finishSimStep + " RetransmitNum: " + retransmitNum + "\n";
@@ -354,142 +742,139 @@ public class MolComSim {
 		if((outputFile != null) && (!simParams.isBatchRun())) {
 			outputFile.close();
 		} else if(simParams.isBatchRun()) {		// Append batch file result to batch file:		
-			if(simParams.isAdjust()) {
-				printBatchNumMolecules();
-			}
-			if(simParams.isUsingCollisions()) {
-				printBatchCollision();
-			}
-			if(simParams.getNumRetransmissions() != 0 && simParams.getRetransmitWaitTime() != 0) {
-				printBatchRetransmission();
-			}
-			if(simParams.isWait()) {
-				printBatchWait();
-			}
-			if(simParams.getNumMessages() != 1) {
-				printRTTByMessage();
-			}
-			
-			FileWriter batchWriter = new FileWriter("batch_" + simParams.getOutputFileName(), APPEND_TO_FILE);
-			if(batchWriter != null) {
-//				if(simParams.isWait()) {
-//					batchWriter.append(finishSimStep + "," + allInfoTime + "," + allInfoNum + "," + allAckTime + "," + allAckNum);
-//				} else {
-//					batchWriter.append(String.valueOf(simStep));
-//				}
-				batchWriter.append(String.valueOf(simStep) + "\n");
-				batchWriter.close();
-			}
+			printBatchFiles();
 		}
+		return new SimulationResult(random.getSeed(), simStep, finishSimStep, messagesCompleted, simParams.getNumMessages(),
+				failure, txRetransmitNum.size(), rxRetransmitNum.size(), collisions.getTotal(), decomposingNum);
 	}
 	
-	public void printRTTByMessage() throws IOException {
-		FileWriter batchWriter = new FileWriter("message_batch_" + simParams.getOutputFileName(), APPEND_TO_FILE);
-		if(batchWriter != null) {
-			batchWriter.append(String.valueOf(this.stepByMessage.get(0)));
-			for(int i = 1; i < this.stepByMessage.size(); i++) {
-				batchWriter.append("," + String.valueOf(this.stepByMessage.get(i)));
+	// Appends the results of a batch run to the results file if there is one, to the batch files otherwise
+	private void printBatchFiles() throws IOException {
+		BatchRows rows = getBatchRows();
+		if(resultsSink != null) {
+			resultsSink.append(resultsKeys, random.getSeed(), rows);
+			return;
+		}
+		if(simParams.getResultsFileName() != null) {
+			ResultsSink sink = new ResultsSink(simParams.getResultsFileName());
+			try {
+				sink.append(random.getSeed(), rows);
+			} finally {
+				sink.close();
+			}
+			return;
+		}
+		synchronized(BATCH_FILE_LOCK) {
+			for(String batchFile : rows.getBatchFiles()) {
+				BufferedWriter batchWriter = new BufferedWriter(
+						new FileWriter(batchFile + simParams.getOutputFileName(), APPEND_TO_FILE));
+				try {
+					rows.writeRow(batchFile, batchWriter);
+					batchWriter.append("\n");
+				} finally {
+					batchWriter.close();
+				}
 			}
-			batchWriter.append("\n");
 		}
-		batchWriter.close();
 	}
 	
-	public void printBatchWait() throws IOException {
-		FileWriter batchWriter = new FileWriter("ptime_batch_" + simParams.getOutputFileName(), APPEND_TO_FILE);
-		if(batchWriter != null) {
-			batchWriter.append(allInfoTime + "," + allInfoNum + "," + allAckTime + "," + allAckNum + "\n");
+	/**
+	 * @return the rows this simulation adds to the batch files it appends to,
+	 *  each written only when asked for
+	 */
+	public BatchRows getBatchRows() {
+		final ArrayList<String> batchFiles = new ArrayList<String>();
+		if(simParams.isAdjust()) {
+			batchFiles.add("adjust_batch_");
+		}
+		if(simParams.isUsingCollisions()) {
+			batchFiles.add("collision_batch_");
+		}
+		if(simParams.getNumRetransmissions() != 0 && simParams.getRetransmitWaitTime() != 0) {
+			batchFiles.add("retransmission_batch_");
+		}
+		if(simParams.isWait()) {
+			batchFiles.add("ptime_batch_");
 		}
-		batchWriter.close();
+		if(simParams.getNumMessages() != 1) {
+			batchFiles.add("message_batch_");
+		}
+		batchFiles.add("batch_");
+		return new BatchRows() {
+			public List<String> getBatchFiles() {
+				return batchFiles;
+			}
+	
+			public void writeRow(String batchFile, Appendable out) throws IOException {
+				writeBatchRow(batchFile, out);
+			}
+		};
 	}
 	
-	public void printBatchCollision() throws IOException {
-		FileWriter batchWriter = new FileWriter("collision_batch_" + simParams.getOutputFileName(), APPEND_TO_FILE);
-//		if(batchWriter != null) {
-//			ArrayList<Integer> collisionNum = calcCollisionNum();
-//			int count = 0;
-//			for(int i: collisionNum) {
-//				count += i;
+	private void writeBatchRow(String batchFile, Appendable out) throws IOException {
+		switch(batchFile) {
+		case "adjust_batch_":
+			writeBatchNumMoleculesRow(out);
+			break;
+		case "collision_batch_":
+			collisions.writeBatchRow(out, simParams.isDecomposing() ? decomposingNum : -1);
+			break;
+		case "retransmission_batch_":
+			writeBatchRetransmissionRow(out);
+			break;
+		case "ptime_batch_":
+			out.append(allInfoTime + "," + allInfoNum + "," + allAckTime + "," + allAckNum);
+			break;
+		case "message_batch_":
+			writeRTTByMessageRow(out);
+			break;
+		case "batch_":
+//			if(simParams.isWait()) {
+//				out.append(finishSimStep + "," + allInfoTime + "," + allInfoNum + "," + allAckTime + "," + allAckNum);
 //			}
-//			String str = String.valueOf(count);
-//			batchWriter.append(str + "\n");
-//		}
-//		batchWriter.close();
-		if(batchWriter != null) {
-			ArrayList<Integer> collisionNum = calcCollisionNum();
-			if(simParams.isUsingCollisions()) {
-				if(collisions.size() == 0) {
-					String str = "0,0/0/0/0/0";
-					batchWriter.append(str + "\n");
-				} else {
-					String str = String.valueOf(collisions.get(0));
-					for(int i = 1; i < collisions.size(); i++) {
-						str += "/" + String.valueOf(collisions.get(i));
-					}
-					str += "," + String.valueOf(collisionNum.get(0));
-					for(int i = 1; i < collisionNum.size(); i++) {
-						str += "/" + String.valueOf(collisionNum.get(i));
-					}
-					if(simParams.isDecomposing()) {
-						str += "," + String.valueOf(decomposingNum);
-					}
-					batchWriter.append(str + "\n");
-				}
-			}
-			batchWriter.close();
+			out.append(String.valueOf(simStep));
+			break;
+		default:
+			throw new IllegalArgumentException("Invalid batch file: " + batchFile);
 		}
 	}
 	
-	public ArrayList<Integer> calcCollisionNum() {
-		ArrayList<Integer> collisionNum = new ArrayList<Integer>();
-		collisionNum.add(collisionAA.size());
-		collisionNum.add(collisionAI.size());
-		collisionNum.add(collisionAN.size());
-		collisionNum.add(collisionII.size());
-		collisionNum.add(collisionIN.size());
-		
-		return collisionNum;
-	}
-	
-	public void printBatchRetransmission() throws IOException {
-		FileWriter batchWriter = new FileWriter("retransmission_batch_" + simParams.getOutputFileName(), APPEND_TO_FILE);
-		if(batchWriter != null) {
-			String str = "";
-			if(failure) {
-				str = "F";
-			} else {
-				str = "T";
-			}
-			str += ",0";
-			if(retransmitNum.size() != 0) {
-				for(int i = 0; i < retransmitNum.size(); i++) {
-					str += "/" + String.valueOf(retransmitNum.get(i));
-				}
-				str += ",0";
-				for(int i = 0; i < txRetransmitNum.size(); i++) {
-					str += "/" + String.valueOf(txRetransmitNum.get(i));
-				}
-				str += ",0";
-				for(int i = 0; i < rxRetransmitNum.size(); i++) {
-					str += "/" + String.valueOf(rxRetransmitNum.get(i));
-				}
+	private void writeRTTByMessageRow(Appendable out) throws IOException {
+		out.append(String.valueOf(this.stepByMessage.get(0)));
+		for(int i = 1; i < this.stepByMessage.size(); i++) {
+			out.append(",").append(String.valueOf(this.stepByMessage.get(i)));
+		}
+	}
+	
+	public CollisionStatistics getCollisionStatistics() {
+		return collisions;
+	}
+	
+	private void writeBatchRetransmissionRow(Appendable out) throws IOException {
+		out.append(failure ? "F" : "T");
+		out.append(",0");
+		if(retransmitNum.size() != 0) {
+			for(int i = 0; i < retransmitNum.size(); i++) {
+				out.append("/").append(String.valueOf(retransmitNum.get(i)));
+			}
+			out.append(",0");
+			for(int i = 0; i < txRetransmitNum.size(); i++) {
+				out.append("/").append(String.valueOf(txRetransmitNum.get(i)));
+			}
+			out.append(",0");
+			for(int i = 0; i < rxRetransmitNum.size(); i++) {
+				out.append("/").append(String.valueOf(rxRetransmitNum.get(i)));
 			}
-			batchWriter.append(str + "\n");
-			batchWriter.close();
 		}
 	}
 	
-	public void printBatchNumMolecules() throws IOException {
+	private void writeBatchNumMoleculesRow(Appendable out) throws IOException {
 		stackAdjustParams();
-		FileWriter batchWriter = new FileWriter("adjust_batch_" + simParams.getOutputFileName(), APPEND_TO_FILE);
-		if(batchWriter != null) {
-			if(simParams.isAdjust()) {
-				for(int i = 0; i < adjustSteps.size() - 1; i++) {
-					batchWriter.append(adjustSteps.get(i) + "/" + infoAdjustNum.get(i) + "/" + ackAdjustNum.get(i) + ",");
-				}
-				batchWriter.append(adjustSteps.get(adjustSteps.size() - 1) + "/" + infoAdjustNum.get(adjustSteps.size() - 1) + "/" + ackAdjustNum.get(adjustSteps.size() - 1) + "\n");
+		for(int i = 0; i < adjustSteps.size(); i++) {
+			if(i > 0) {
+				out.append(",");
 			}
-			batchWriter.close();
+			out.append(adjustSteps.get(i) + "/" + infoAdjustNum.get(i) + "/" + ackAdjustNum.get(i));
 		}
 	}
 	
@@ -548,14 +933,40 @@ public class MolComSim {
 	 */
 	public void addMolecules(ArrayList<Molecule> mols) {
 		for (Molecule mol : mols){
+			mol.setRandom(random.newMoleculeStream());
+			if(plan.isCounterRandom()) {
+				mol.setWalkKey(mol.getRandom().nextLong());
+			}
+			mol.setId(nextMoleculeId++);
+			if(sampler != null) {
+				sampler.entered(mol);
+			}
 			// Only add the molecules to the movingMolecules list if they do, in fact, move.
-			if(!(mol.getMovementController() instanceof NullMovementController)) {
+			if(mol.getMovementState() != MovementState.STATIONARY) {
+				// in fast mode, molecules that are only waiting to be absorbed never enter the medium
+				if((firstPassage != null) && firstPassage.schedule(mol)) {
+					continue;
+				}
 				movingMolecules.add(mol);
+				if(trajectory != null) {
+					trajectory.entered(mol, simStep);
+				}
 			}
 			addObject(mol, mol.getPosition());
 		}
 	}
 
+	//Puts a molecule parked by parkMolecule back into the medium at pos
+	public void moleculeReentered(Molecule mol, Position pos) {
+		mol.setDead(false);
+		mol.setPosition(pos);
+		movingMolecules.add(mol);
+		addObject(mol, pos);
+		if(trajectory != null) {
+			trajectory.entered(mol, simStep);
+		}
+	}
+
 	//Reports to the console that a message has been completed
 	public void completedMessage(int msgNum) {
 		messagesCompleted = msgNum;
@@ -600,11 +1011,33 @@ public class MolComSim {
 		return messagesCompleted;
 	}
 
+	public SimulationRandom getRandom() {
+		return random;
+	}
+
+	public SimulationPlan getPlan() {
+		return plan;
+	}
+
 	public SimulationParams getSimParams() {
 		return simParams;
 	}
 
-	public ArrayList<Molecule> getMovingMolecules() {
+	public StepEngine getStepEngine() {
+		return stepEngine;
+	}
+
+	// Large steps of molecules far from obstacles, null unless adaptiveStepMax is set
+	public ProtectiveDomains getProtectiveDomains() {
+		return domains;
+	}
+
+	// Where molecule movements are recorded, null unless trajectoryFile is set
+	public TrajectoryRecorder getTrajectoryRecorder() {
+		return trajectory;
+	}
+
+	public MoleculeStore getMovingMolecules() {
 		return movingMolecules;
 	}
 
@@ -637,7 +1070,7 @@ public class MolComSim {
 	}
 	
 	public boolean isUsingCollisions() {
-		return simParams.isUsingCollisions();
+		return plan.isUsingCollisions();
 	}
 	
 	public boolean assembling(){
@@ -645,11 +1078,11 @@ public class MolComSim {
 	}
 	
 	public boolean decomposing(){
-		return simParams.isDecomposing();
+		return plan.isDecomposing();
 	}
 	
 	public int getDecomposingMode() {
-		return simParams.getDecomposing();
+		return plan.getDecomposingMode();
 	}
 	
 	public int getRetransmitWaitTime(){
@@ -660,6 +1093,10 @@ public class MolComSim {
 		this.failure = failure;
 	}
 	
+	public boolean isFailure() {
+		return failure;
+	}
+	
 	public ForwardErrorCorrection getFEC() {
 		return FEC;
 	}
@@ -684,54 +1121,67 @@ public class MolComSim {
 		return medium.isOccupied(pos);
 	}
 	
-	//Removes all molecules located at the garbageSpot, waiting to be deleted
-	public void collectGarbage(){
-		ArrayList<Object> garbage = medium.getObjectsAtPos(medium.garbageSpot());
-		medium.collectGarbage();
-		for (Object o : garbage){
-			movingMolecules.remove(o);
+	//Takes a molecule out of the simulation: it leaves the medium right away,
+	//and is dropped from the moving molecules when garbage is collected
+	public void removeMolecule(Molecule mol){
+		removeMolecule(mol, mol.getPosition());
+	}
+	
+	//Same as removeMolecule(mol), for a molecule found in the medium at pos
+	public void removeMolecule(Molecule mol, Position pos){
+		if(mol.isDead()) {
+			return;
+		}
+		takeOutOfMedium(mol, pos);
+		if(sampler != null) {
+			sampler.left(mol);
+		}
+	}
+
+	//Takes a molecule out of the medium while it stays in the simulation, parked 
+	//by the hybrid mode until it is put back, see moleculeReentered
+	public void parkMolecule(Molecule mol){
+		if(!mol.isDead()) {
+			takeOutOfMedium(mol, mol.getPosition());
 		}
 	}
+
+	private void takeOutOfMedium(Molecule mol, Position pos){
+		medium.removeObject(mol, pos);
+		movingMolecules.kill(mol);
+		if(mol.isRecorded()) {
+			trajectory.left(mol, simStep);
+		}
+	}
+	
+	//Removes all molecules that died during this step
+	public void collectGarbage(){
+		movingMolecules.removeDead();
+	}
 	
 	public FileWriter getOutputFile() {
 		return outputFile;
 	}
 	
 	public void addCollisionNum(Molecule mol, Position nextPosition, MolComSim simulation) {
+		// only molecules are counted, don't bother listing the objects if there are none
+		if(!simulation.getMedium().hasMolecule(nextPosition)) {
+			return;
+		}
 		ArrayList<Object> alreadyThere = simulation.getMedium().getObjectsAtPos(nextPosition);
 		if(alreadyThere == null) {
 			return;
 		}
 		
+		int myMolType = CollisionStatistics.typeOf(mol);
+		if(myMolType == CollisionStatistics.OTHER) {
+			return;
+		}
 		for(Object o : alreadyThere) {
 			// なぜか自分と衝突判定してる??
 			if(mol != o) {
-				String myMolType = mol.getClass().getName();
-				String collMolType = o.getClass().getName();
-				String types[] = {myMolType, collMolType};
-				
-//				System.out.println(myMolType + " vs " + collMolType);
-				
 				// Info,Ack,Noiseの場合だけ
-				if(Arrays.asList(MolType).contains(myMolType) && Arrays.asList(MolType).contains(collMolType)) {
-					Arrays.sort(types); // Ack -> Info -> Noise順番に
-					if(myMolType == MolType[0]) {
-						if(collMolType == MolType[0]) {
-							collisionAA.add(simStep);
-						} else if(collMolType == MolType[1]) {
-							collisionAI.add(simStep);
-						} else if(collMolType == MolType[2]) {
-							collisionAN.add(simStep);
-						}
-					} else if(myMolType == MolType[1]) {
-						if(collMolType == MolType[1]) {
-							collisionII.add(simStep);
-						} else if(collMolType == MolType[2]) {
-							collisionIN.add(simStep);
-						}
-					}
-					collisions.add(simStep);
-				}
+				collisions.add(myMolType, CollisionStatistics.typeOf(o), simStep);
 			}
 		}
 	}
@@ -10,7 +10,13 @@ public abstract class Molecule {
 
 	private Position position;
 	private int numSequence;
-	private MovementController movementController;
+	//How the molecule moves and deals with collisions, null if it is not moving at all,
+	//and the microtubule it moves along if it is ON_MICROTUBULE.  The collision handler
+	//is shared with other molecules, see SimulationPlan, so changing how a molecule
+	//moves allocates nothing.
+	private MovementState movementState;
+	private CollisionHandler collisionHandler;
+	private Microtubule microtubule;
 	protected MolComSim simulation;
 	private MoleculeMovementType moleculeMovementType;
 	private int startTime = 0;
@@ -18,9 +24,33 @@ public abstract class Molecule {
 	//Id of the message a molecule carries - null for noise molecules
 	protected Integer msgId;
 	private double volume = 0.0;
+	//Node holding this molecule in a DenseGridMedium, -1 if none, -2 if it may have several
+	private int gridNode = -1;
+	//The MoleculeStore of moving molecules this molecule is in, and its index there, -1 if none
+	private MoleculeStore store;
+	private int storeIndex = -1;
+	//Set once the molecule has been removed from the simulation
+	private boolean dead = false;
+	//Random stream only this molecule draws from, so that its movement
+	//does not depend on the order in which molecules are moved
+	private RandomStream random;
+	//Key of the CounterRandom words the molecule draws its random walk from, with walkRandom COUNTER
+	private long walkKey = 0;
+	//Where the molecule decided to go during the current step, and the collision
+	//handler it had when making that decision
+	private Position proposedPosition;
+	private CollisionHandler proposingHandler;
+	//Number of steps the molecule decided to jump by this step, and the first step it 
+	//moves again after its last jump, see ProtectiveDomains
+	private int jumpSteps = 1;
+	private int wakeStep = 0;
+	//Number of the molecule in the simulation, in the order molecules were created,
+	//and whether its movements are recorded, see TrajectoryRecorder
+	private int id = 0;
+	private boolean recorded = false;
 
 	protected Molecule(MovementController mc, Position psn, MolComSim sim, MoleculeMovementType molMvType, double volume) {
-		this.movementController = mc;
+		this.movementState = (mc != null) ? mc.getMovementState() : null;
 		this.position = psn;
 		this.simulation = sim;
 		this.moleculeMovementType = molMvType; 
@@ -28,7 +58,7 @@ public abstract class Molecule {
 	}
 	
 	protected Molecule(Position psn, MolComSim sim, MoleculeMovementType molMvType, double volume) {
-		this.movementController = null;
+		this.movementState = null;
 		this.position = psn;
 		this.simulation = sim;
 		this.moleculeMovementType = molMvType;
@@ -36,7 +66,7 @@ public abstract class Molecule {
 	}
 	
 	protected Molecule(Position psn, MolComSim sim, MoleculeMovementType molMvType) {
-		this.movementController = null;
+		this.movementState = null;
 		this.position = psn;
 		this.simulation = sim;
 		this.moleculeMovementType = molMvType;
@@ -58,8 +88,59 @@ public abstract class Molecule {
 		this.numSequence = numSeq;
  	}
 	
-	//Moves the molecule as defined by its movementController
-	public abstract void move();
+	//Moves the molecule as defined by its movement state
+	public void move() {
+		if(isResting()) {
+			return;
+		}
+		proposeMove();
+		commitMove();
+	}
+	
+	/**
+	 * Decides where the molecule would like to move this step.
+	 * Only modifies this molecule, so it may run concurrently
+	 * with proposeMove of other molecules.
+	 */
+	public void proposeMove() {
+		proposingHandler = collisionHandler;
+		ProtectiveDomains domains = simulation.getProtectiveDomains();
+		jumpSteps = (domains != null) ? domains.getJumpSteps(this) : 1;
+		if(jumpSteps > 1) {
+			proposedPosition = domains.jump(this, jumpSteps);
+		} else {
+			proposedPosition = getMovementController().proposeNextPosition(this);
+		}
+	}
+	
+	/**
+	 * Moves the molecule to the position decided on by proposeMove, 
+	 * handling any collisions on the way. Molecules are committed 
+	 * one at a time.
+	 */
+	public abstract void commitMove();
+	
+	// Handles collisions for the proposed position, returns where the molecule ends up
+	protected Position commitProposedPosition() {
+		if(proposingHandler == null) {
+			// proposed by the step kernel of a MoleculeStore, straight into its columns
+			proposingHandler = collisionHandler;
+			proposedPosition = store.getProposedPosition(storeIndex, simulation.getMedium());
+		}
+		Position nextPosition = proposingHandler.handlePotentialCollisions(this, proposedPosition, simulation);
+		if(recorded && !dead) {
+			simulation.getTrajectoryRecorder().moved(this, simulation.getSimStep(), position, 
+					proposedPosition, nextPosition, jumpSteps > 1);
+		}
+		proposingHandler = null;
+		proposedPosition = null;
+		if(jumpSteps > 1) {
+			// sits out the other steps of the jump
+			setWakeStep(simulation.getSimStep() + jumpSteps);
+			jumpSteps = 1;
+		}
+		return nextPosition;
+	}
 
 	public Position getPosition() {
 		return position;
@@ -69,20 +150,60 @@ public abstract class Molecule {
 		return numSequence;
 	}
 
-	public void setMovementController(MovementController mc) {
-		this.movementController = mc;
+	/**
+	 * Changes how the molecule moves
+	 * 
+	 * @param state How it moves from now on, not ON_MICROTUBULE
+	 * @param collH How it deals with collisions from now on
+	 */
+	public void setMovement(MovementState state, CollisionHandler collH) {
+		setMovement(state, collH, null);
+	}
+
+	/**
+	 * Changes how the molecule moves
+	 * 
+	 * @param state How it moves from now on
+	 * @param collH How it deals with collisions from now on
+	 * @param tubule The microtubule it moves along if state is ON_MICROTUBULE
+	 */
+	public void setMovement(MovementState state, CollisionHandler collH, Microtubule tubule) {
+		this.movementState = state;
+		this.collisionHandler = collH;
+		this.microtubule = tubule;
+		if(store != null) {
+			store.movementChanged(this);
+		}
 	}
 
 	public MolComSim getSimulation() {
 		return simulation;
 	}
 
+	// The controller moving the molecule, null if it is not moving at all
 	public MovementController getMovementController() {
-		return movementController;
+		return MovementController.forState(movementState);
+	}
+
+	// How the molecule moves, null if it is not moving at all
+	public MovementState getMovementState() {
+		return movementState;
+	}
+
+	public CollisionHandler getCollisionHandler() {
+		return collisionHandler;
+	}
+
+	// The microtubule the molecule moves along, null unless it is ON_MICROTUBULE
+	public Microtubule getMicrotubule() {
+		return microtubule;
 	}
 	
 	protected void setPosition(Position p) {
 		this.position = p;
+		if(store != null) {
+			store.positionChanged(this);
+		}
 	}
 
 	public MoleculeMovementType getMoleculeMovementType() {
@@ -93,6 +214,12 @@ public abstract class Molecule {
 		return this.msgId;
 	}
 	
+	public abstract MoleculeType getMoleculeType();
+	
+	public int getStartTime() {
+		return this.startTime;
+	}
+	
 	public void setStartTime(int startTime) {
 		this.startTime = startTime;
 	}
@@ -101,6 +228,10 @@ public abstract class Molecule {
 		this.endTime = endTime;
 	}
 	
+	int getEndTime() {
+		return this.endTime;
+	}
+	
 	public int getSendTime() {
 		return this.endTime - this.startTime;
 	}
@@ -108,5 +239,78 @@ public abstract class Molecule {
 	public double getVolume() {
 		return this.volume;
 	}
+	
+	public RandomStream getRandom() {
+		return random;
+	}
+	
+	void setRandom(RandomStream random) {
+		this.random = random;
+	}
+
+	public int getId() {
+		return id;
+	}
+
+	void setId(int id) {
+		this.id = id;
+	}
+
+	public boolean isRecorded() {
+		return recorded;
+	}
+
+	void setRecorded(boolean recorded) {
+		this.recorded = recorded;
+	}
+
+	public long getWalkKey() {
+		return walkKey;
+	}
+
+	void setWalkKey(long walkKey) {
+		this.walkKey = walkKey;
+	}
+	
+	// Whether the molecule sits out the current step, after jumping by several steps
+	public boolean isResting() {
+		return simulation.getSimStep() < wakeStep;
+	}
+
+	int getWakeStep() {
+		return wakeStep;
+	}
+
+	void setWakeStep(int wakeStep) {
+		this.wakeStep = wakeStep;
+		if(store != null) {
+			store.wakeStepChanged(this);
+		}
+	}
+
+	public boolean isDead() {
+		return dead;
+	}
+	
+	void setDead(boolean dead) {
+		this.dead = dead;
+	}
+	
+	int getStoreIndex() {
+		return storeIndex;
+	}
+	
+	void setStore(MoleculeStore store, int storeIndex) {
+		this.store = store;
+		this.storeIndex = storeIndex;
+	}
+	
+	int getGridNode() {
+		return gridNode;
+	}
+	
+	void setGridNode(int gridNode) {
+		this.gridNode = gridNode;
+	}
 
 }
@@ -26,26 +26,27 @@ public class MoleculeCreator {
 		this.position = molReleasePsn;
 		this.FEC = this.simulation.getFEC();
 	}
-
+
 
 	//TODO: Should this method be simplified with factories or helper methods?
 	//TODO: This entire method is crap.  Make helper methods or use some kind of design pattern
 	//TODO: lastTransmissionStatus should be it's own enumerated type.  IT tracks whether any previous 
 	// communications were successful or not for adaptive changes.
 	public void createMolecules(int lastTransmissionStatus) { 
-		//		int numSeq = 0;
+		//		int numSeq = 0;
 		ArrayList<Molecule> newMols = new ArrayList<Molecule>();
+		SimulationPlan plan = simulation.getPlan();
 		for (MoleculeParams mp : molParams){
 			MoleculeType molType = mp.getMoleculeType();
 			MoleculeMovementType molMoveType = mp.getMoleculeMovementType();
 			mp.applyAdaptiveChange(lastTransmissionStatus); // make changes to num molecules based on communication success.
-			if(simulation.getSimParams().isFEC()) {
+			if(plan.isFEC()) {
 				mp = FEC.encode(mp);
 			}
 			simulation.stackAdjustParams();
 			//			for (int i = 0; i < mp.getNumMolecules(); i++){
-			if(simulation.getSimParams().isFEC()) {
-				for(int i = 0; i < simulation.getSimParams().getFECParams().getPacketNum(); i++) {
+			if(plan.isFEC()) {
+				for(int i = 0; i < plan.getFECPacketNum(); i++) {
 					for (int j = 0; j < mp.getNumMolecules(); j++){
 						Molecule tempMol;
 						if (molType.equals(MoleculeType.ACK)){
@@ -54,7 +55,7 @@ public class MoleculeCreator {
 							simulation.addInfoNum();
 						}
 						else if (molType.equals(MoleculeType.INFO)){
-							tempMol = new InformationMolecule(position, i + 1, simulation, source, source.getTransmitterMessageId(), molMoveType, Math.pow(simulation.getSimParams().getPacketDiameter(), 3));
+							tempMol = new InformationMolecule(position, i + 1, simulation, source, source.getTransmitterMessageId(), molMoveType, plan.getPacketVolume());
 							tempMol.setStartTime(simulation.getSimStep());
 							simulation.addAckNum();
 						}
@@ -69,42 +70,32 @@ public class MoleculeCreator {
 						//Look for nearby microtubules if the molecules are ACTIVE
 						if (molMoveType.equals(MoleculeMovementType.ACTIVE)){
 							Microtubule microtubule = simulation.getMedium().hasMicrotubule(tempMol.getPosition());
-							if(simulation.getSimParams().isFEC()) {
-								collH = simulation.isUsingCollisions() ? 
-										(simulation.decomposing() ? new DecomposingCollisionHandler(new SimpleCollisionHandler(), simulation.getDecomposingMode()) :
-											new StandardCollisionHandler(new SimpleCollisionHandler())) : new SimpleCollisionHandler();
-										new PacketMovementController(collH, simulation, tempMol);
+							if(plan.isFEC()) {
+								collH = plan.getWalkHandler();
+								tempMol.setMovement(MovementState.PACKET_WALK, collH);
 							}
 							else if (microtubule != null){
-								collH = simulation.isUsingCollisions() ? 
-										(simulation.decomposing() ? new OnTubuleCollisionHandler(new DecomposingCollisionHandler(new SimpleCollisionHandler(), simulation.getDecomposingMode())) :
-											new OnTubuleCollisionHandler(new SimpleCollisionHandler())) : new SimpleCollisionHandler();
-										new OnMicrotubuleMovementController(collH, simulation, tempMol, microtubule);
+								collH = plan.getOnTubuleHandler();
+								tempMol.setMovement(MovementState.ON_MICROTUBULE, collH, microtubule);
 							}
 							else{
-								collH = simulation.isUsingCollisions() ? 
-										(simulation.decomposing() ? new DecomposingCollisionHandler(new SimpleCollisionHandler(), simulation.getDecomposingMode()) :
-											new StandardCollisionHandler(new SimpleCollisionHandler())) : new SimpleCollisionHandler();
-										new DiffusiveRandomMovementController(collH, simulation, tempMol);
+								collH = plan.getWalkHandler();
+								tempMol.setMovement(MovementState.RANDOM_WALK, collH);
 							}
 						}
 						else if (molMoveType.equals(MoleculeMovementType.PASSIVE)){
-							if(simulation.getSimParams().isFEC()) {
-								collH = simulation.isUsingCollisions() ? 
-										(simulation.decomposing() ? new DecomposingCollisionHandler(new SimpleCollisionHandler(), simulation.getDecomposingMode()) :
-											new StandardCollisionHandler(new SimpleCollisionHandler())) : new SimpleCollisionHandler();
-										new PacketMovementController(collH, simulation, tempMol);
+							if(plan.isFEC()) {
+								collH = plan.getWalkHandler();
+								tempMol.setMovement(MovementState.PACKET_WALK, collH);
 							}
 							else {
-								collH = simulation.isUsingCollisions() ? 
-										(simulation.decomposing() ? new DecomposingCollisionHandler(new SimpleCollisionHandler(), simulation.getDecomposingMode()) :
-											new StandardCollisionHandler(new SimpleCollisionHandler())) : new SimpleCollisionHandler();
-										new DiffusiveRandomMovementController(collH, simulation, tempMol);
+								collH = plan.getWalkHandler();
+								tempMol.setMovement(MovementState.RANDOM_WALK, collH);
 							}
 						}
 						else if (molMoveType.equals(MoleculeMovementType.NONE)){
-							collH = new SimpleCollisionHandler();
-							new NullMovementController(collH, simulation, tempMol);
+							collH = plan.getStillHandler();
+							tempMol.setMovement(MovementState.STATIONARY, collH);
 						} else {
 							//TODO: error management
 						}
@@ -135,42 +126,32 @@ public class MoleculeCreator {
 					//Look for nearby microtubules if the molecules are ACTIVE
 					if (molMoveType.equals(MoleculeMovementType.ACTIVE)){
 						Microtubule microtubule = simulation.getMedium().hasMicrotubule(tempMol.getPosition());
-						if(simulation.getSimParams().isFEC()) {
-							collH = simulation.isUsingCollisions() ? 
-									(simulation.decomposing() ? new DecomposingCollisionHandler(new SimpleCollisionHandler(), simulation.getDecomposingMode()) :
-										new StandardCollisionHandler(new SimpleCollisionHandler())) : new SimpleCollisionHandler();
-									new PacketMovementController(collH, simulation, tempMol);
+						if(plan.isFEC()) {
+							collH = plan.getWalkHandler();
+							tempMol.setMovement(MovementState.PACKET_WALK, collH);
 						}
 						else if (microtubule != null){
-							collH = simulation.isUsingCollisions() ? 
-									(simulation.decomposing() ? new OnTubuleCollisionHandler(new DecomposingCollisionHandler(new SimpleCollisionHandler(), simulation.getDecomposingMode())) :
-										new OnTubuleCollisionHandler(new SimpleCollisionHandler())) : new SimpleCollisionHandler();
-									new OnMicrotubuleMovementController(collH, simulation, tempMol, microtubule);
+							collH = plan.getOnTubuleHandler();
+							tempMol.setMovement(MovementState.ON_MICROTUBULE, collH, microtubule);
 						}
 						else{
-							collH = simulation.isUsingCollisions() ? 
-									(simulation.decomposing() ? new DecomposingCollisionHandler(new SimpleCollisionHandler(), simulation.getDecomposingMode()) :
-										new StandardCollisionHandler(new SimpleCollisionHandler())) : new SimpleCollisionHandler();
-									new DiffusiveRandomMovementController(collH, simulation, tempMol);
+							collH = plan.getWalkHandler();
+							tempMol.setMovement(MovementState.RANDOM_WALK, collH);
 						}
 					}
 					else if (molMoveType.equals(MoleculeMovementType.PASSIVE)){
-						if(simulation.getSimParams().isFEC()) {
-							collH = simulation.isUsingCollisions() ? 
-									(simulation.decomposing() ? new DecomposingCollisionHandler(new SimpleCollisionHandler(), simulation.getDecomposingMode()) :
-										new StandardCollisionHandler(new SimpleCollisionHandler())) : new SimpleCollisionHandler();
-									new PacketMovementController(collH, simulation, tempMol);
+						if(plan.isFEC()) {
+							collH = plan.getWalkHandler();
+							tempMol.setMovement(MovementState.PACKET_WALK, collH);
 						}
 						else {
-							collH = simulation.isUsingCollisions() ? 
-									(simulation.decomposing() ? new DecomposingCollisionHandler(new SimpleCollisionHandler(), simulation.getDecomposingMode()) :
-										new StandardCollisionHandler(new SimpleCollisionHandler())) : new SimpleCollisionHandler();
-									new DiffusiveRandomMovementController(collH, simulation, tempMol);
+							collH = plan.getWalkHandler();
+							tempMol.setMovement(MovementState.RANDOM_WALK, collH);
 						}
 					}
 					else if (molMoveType.equals(MoleculeMovementType.NONE)){
-						collH = new SimpleCollisionHandler();
-						new NullMovementController(collH, simulation, tempMol);
+						collH = plan.getStillHandler();
+						tempMol.setMovement(MovementState.STATIONARY, collH);
 					} else {
 						//TODO: error management
 					}
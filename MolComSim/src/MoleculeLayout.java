@@ -0,0 +1,17 @@
+
+public enum MoleculeLayout {
+
+	OBJECTS,
+	COLUMNS;
+	
+	public static MoleculeLayout getMoleculeLayout(String stringRep) {
+		if(stringRep.equals("OBJECTS")) {
+			return OBJECTS;
+		} else if(stringRep.equals("COLUMNS")) {
+			return COLUMNS;
+		} else {
+			throw new IllegalArgumentException("Invalid argument: " + stringRep + 
+					" to MoleculeLayout.getMoleculeLayout");
+		}
+	}
+}
@@ -9,7 +9,7 @@ public class MoleculeParams {
 
 	private int numMolecules;
 	private MoleculeType moleculeType;
-	private MoleculeMovementType moleculeMovementType = SimulationParams.getMovementDefault(moleculeType);
+	private MoleculeMovementType moleculeMovementType; // not given for noise molecules
 	private int adaptiveChange = 0; // default is no adaptive change.  Amount to adjust num mols based
 									// on comm success/failure.
 	private double size = 1.0;
@@ -24,6 +24,16 @@ public class MoleculeParams {
 		this.volume = Math.pow(this.size, 3);
 	}
 
+	// Copies other, so adaptive changes to one copy do not affect the other
+	public MoleculeParams(MoleculeParams other) {
+		this.numMolecules = other.numMolecules;
+		this.moleculeType = other.moleculeType;
+		this.moleculeMovementType = other.moleculeMovementType;
+		this.adaptiveChange = other.adaptiveChange;
+		this.size = other.size;
+		this.volume = other.volume;
+	}
+
 	public MoleculeParams(Scanner readParams) {
 		numMolecules = readParams.nextInt();
 		moleculeType = MoleculeType.getMoleculeType(readParams.next());
@@ -45,6 +55,11 @@ public class MoleculeParams {
 		return numMolecules;
 	}
 
+	// Only to restore the number of molecules after adaptive changes, see CheckpointReader
+	void setNumMolecules(int numMolecules) {
+		this.numMolecules = numMolecules;
+	}
+
 	public MoleculeType getMoleculeType() {
 		return moleculeType;
 	}
@@ -0,0 +1,297 @@
+/**
+ * The molecules that move in a simulation, kept in an array 
+ * where every molecule knows its own index.
+ * 
+ * Molecules are never removed in the middle of a step: they are 
+ * flagged as dead and put in a death queue, and at the end of the 
+ * step each dead molecule is replaced by the last molecule of the
+ * array (swap-remove), so removing a molecule costs O(1) no matter
+ * how many molecules are alive.  The order of the molecules therefore
+ * changes as molecules die, but only as a function of which molecules
+ * died, so it is the same for the same seed.
+ * 
+ * With the COLUMNS layout the store also keeps the state needed to 
+ * step molecules on a random walk (position, movement state, random
+ * stream and walk key) in one primitive array per field, structure-of-arrays
+ * style, kept up to date by the molecules themselves.  proposeMoves then
+ * decides the next position of molecules on a random walk straight from
+ * those arrays, without touching the Molecule objects or their movement
+ * controllers.  Molecules remain the view used for everything else 
+ * (collisions, protocol logic).
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+public class MoleculeStore {
+
+	private static final int INITIAL_CAPACITY = 256;
+
+	private final boolean columnar;
+	private Molecule[] molecules = new Molecule[INITIAL_CAPACITY];
+	private int size = 0;
+	// molecules that died during the current step
+	private ArrayList<Molecule> deathQueue = new ArrayList<Molecule>();
+	// first step every molecule moves again after a jump, see ProtectiveDomains, with any layout
+	private int[] wakeStep = new int[INITIAL_CAPACITY];
+
+	// columns, only allocated with the COLUMNS layout
+	private int[] x;
+	private int[] y;
+	private int[] z;
+	private byte[] movementState;
+	private boolean[] active;
+	private RandomStream[] random;
+	private long[] walkKey;
+	// next position decided by proposeRandomWalks
+	private int[] proposedX;
+	private int[] proposedY;
+	private int[] proposedZ;
+
+	public MoleculeStore(MoleculeLayout layout) {
+		columnar = (layout == MoleculeLayout.COLUMNS);
+		if(columnar) {
+			allocateColumns(INITIAL_CAPACITY);
+		}
+	}
+
+	public boolean isColumnar() {
+		return columnar;
+	}
+
+	private void allocateColumns(int capacity) {
+		if(x == null) {
+			x = new int[capacity];
+			y = new int[capacity];
+			z = new int[capacity];
+			movementState = new byte[capacity];
+			active = new boolean[capacity];
+			random = new RandomStream[capacity];
+			walkKey = new long[capacity];
+			proposedX = new int[capacity];
+			proposedY = new int[capacity];
+			proposedZ = new int[capacity];
+		} else {
+			x = Arrays.copyOf(x, capacity);
+			y = Arrays.copyOf(y, capacity);
+			z = Arrays.copyOf(z, capacity);
+			movementState = Arrays.copyOf(movementState, capacity);
+			active = Arrays.copyOf(active, capacity);
+			random = Arrays.copyOf(random, capacity);
+			walkKey = Arrays.copyOf(walkKey, capacity);
+			proposedX = Arrays.copyOf(proposedX, capacity);
+			proposedY = Arrays.copyOf(proposedY, capacity);
+			proposedZ = Arrays.copyOf(proposedZ, capacity);
+		}
+	}
+
+	public void add(Molecule mol) {
+		if(size == molecules.length) {
+			molecules = Arrays.copyOf(molecules, size * 2);
+			wakeStep = Arrays.copyOf(wakeStep, size * 2);
+			if(columnar) {
+				allocateColumns(size * 2);
+			}
+		}
+		int index = size++;
+		molecules[index] = mol;
+		mol.setStore(this, index);
+		wakeStep[index] = mol.getWakeStep();
+		if(columnar) {
+			active[index] = (mol.getMoleculeMovementType() == MoleculeMovementType.ACTIVE);
+			random[index] = mol.getRandom();
+			walkKey[index] = mol.getWalkKey();
+			positionChanged(mol);
+			movementChanged(mol);
+		}
+	}
+
+	public Molecule get(int index) {
+		return molecules[index];
+	}
+
+	// Number of molecules, including the ones that died this step
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Flags mol as dead, it will be removed at the end of the step.
+	 * Molecules that do not move (and so were never added) may be
+	 * killed as well, they are simply never removed from the store.
+	 */
+	public void kill(Molecule mol) {
+		if(!mol.isDead()) {
+			mol.setDead(true);
+			deathQueue.add(mol);
+		}
+	}
+
+	/**
+	 * Removes all molecules that died since the last call
+	 */
+	public void removeDead() {
+		for(Molecule dead : deathQueue) {
+			int index = dead.getStoreIndex();
+			if(index < 0) {
+				continue;
+			}
+			int last = --size;
+			molecules[index] = molecules[last];
+			molecules[index].setStore(this, index);
+			molecules[last] = null;
+			wakeStep[index] = wakeStep[last];
+			if(columnar) {
+				moveColumns(last, index);
+			}
+			dead.setStore(null, -1);
+		}
+		deathQueue.clear();
+	}
+
+	private void moveColumns(int from, int to) {
+		x[to] = x[from];
+		y[to] = y[from];
+		z[to] = z[from];
+		movementState[to] = movementState[from];
+		active[to] = active[from];
+		random[to] = random[from];
+		random[from] = null;
+		walkKey[to] = walkKey[from];
+	}
+
+	// Called by mol whenever its position changes
+	void positionChanged(Molecule mol) {
+		if(columnar) {
+			Position p = mol.getPosition();
+			int index = mol.getStoreIndex();
+			x[index] = p.getX();
+			y[index] = p.getY();
+			z[index] = p.getZ();
+		}
+	}
+
+	// Called by mol whenever it gets a new movement controller.
+	// May be called concurrently for different molecules while proposing moves.
+	void movementChanged(Molecule mol) {
+		if(columnar) {
+			movementState[mol.getStoreIndex()] = (byte) mol.getMovementState().ordinal();
+		}
+	}
+
+	// Called by mol whenever it jumps by several steps
+	void wakeStepChanged(Molecule mol) {
+		wakeStep[mol.getStoreIndex()] = mol.getWakeStep();
+	}
+
+	// Whether the molecule at index sits out step after a jump
+	public boolean isResting(int index, int step) {
+		return step < wakeStep[index];
+	}
+
+	// Number of molecules moving in the given way, dead ones included
+	public int count(MovementState state) {
+		int count = 0;
+		if(columnar) {
+			byte ordinal = (byte) state.ordinal();
+			for(int i = 0; i < size; i++) {
+				if(movementState[i] == ordinal) {
+					count++;
+				}
+			}
+		} else {
+			for(int i = 0; i < size; i++) {
+				if(molecules[i].getMovementState() == state) {
+					count++;
+				}
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Whether the next position of the molecule at index can be decided by
+	 * proposeRandomWalks: it is on a random walk, and not looking for 
+	 * microtubules to attach to along the way.
+	 */
+	public boolean isPlainRandomWalk(int index, boolean hasMicrotubules) {
+		byte state = movementState[index];
+		return (state == MovementState.RANDOM_WALK.ordinal() || state == MovementState.PACKET_WALK.ordinal()) &&
+				!(active[index] && hasMicrotubules);
+	}
+
+	/**
+	 * Proposes the next move of every molecule in [from, to).  Molecules on a 
+	 * plain random walk (see isPlainRandomWalk) have their next position 
+	 * decided right here from the columns, exactly like the random walk
+	 * movement controllers would, and stored in the proposal columns; 
+	 * the others propose their move themselves.  Without columns, all 
+	 * molecules propose their move themselves.
+	 * 
+	 * With counterRandom, the random words of the whole range are first
+	 * computed in one pass by CounterRandom.fill, straight into the proposal
+	 * columns, then turned into positions in a second pass, so the random
+	 * streams of the molecules are never touched.
+	 * 
+	 * @param step The current simulation step, the counter of CounterRandom
+	 * @param counterRandom Whether random walks are drawn from CounterRandom
+	 * @param randomWalkDelta Maximum x, y, z step of a RANDOM_WALK molecule
+	 * @param packetWalkDelta Maximum x, y, z step of a PACKET_WALK molecule
+	 * @param medium To keep the proposed positions within its bounds
+	 * @param hasMicrotubules Whether active molecules may attach to microtubules
+	 */
+	public void proposeMoves(int from, int to, int step, boolean counterRandom, double[] randomWalkDelta,
+			double[] packetWalkDelta, Medium medium, boolean hasMicrotubules) {
+		if(!columnar) {
+			for(int i = from; i < to; i++) {
+				molecules[i].proposeMove();
+			}
+			return;
+		}
+		int maxX = medium.getLength() / 2;
+		int maxY = medium.getWidth() / 2;
+		int maxZ = medium.getHeight() / 2;
+		int minX = medium.getLength() / -2;
+		int minY = medium.getWidth() / -2;
+		int minZ = medium.getHeight() / -2;
+		if(counterRandom) {
+			CounterRandom.fill(walkKey, step, from, to, proposedX, proposedY, proposedZ);
+			for(int i = from; i < to; i++) {
+				if(!isPlainRandomWalk(i, hasMicrotubules)) {
+					molecules[i].proposeMove();
+					continue;
+				}
+				double[] delta = (movementState[i] == MovementState.RANDOM_WALK.ordinal()) ? randomWalkDelta : packetWalkDelta;
+				int nextX = x[i] + (int)Math.round(CounterRandom.toDouble(proposedX[i]) * (delta[0] * 2) - delta[0]);
+				int nextY = y[i] + (int)Math.round(CounterRandom.toDouble(proposedY[i]) * (delta[1] * 2) - delta[1]);
+				int nextZ = z[i] + (int)Math.round(CounterRandom.toDouble(proposedZ[i]) * (delta[2] * 2) - delta[2]);
+				proposedX[i] = Math.max(minX, Math.min(maxX, nextX));
+				proposedY[i] = Math.max(minY, Math.min(maxY, nextY));
+				proposedZ[i] = Math.max(minZ, Math.min(maxZ, nextZ));
+			}
+			return;
+		}
+		for(int i = from; i < to; i++) {
+			if(!isPlainRandomWalk(i, hasMicrotubules)) {
+				molecules[i].proposeMove();
+				continue;
+			}
+			double[] delta = (movementState[i] == MovementState.RANDOM_WALK.ordinal()) ? randomWalkDelta : packetWalkDelta;
+			RandomStream r = random[i];
+			int nextX = x[i] + (int)Math.round(r.nextDouble() * (delta[0] * 2) - delta[0]);
+			int nextY = y[i] + (int)Math.round(r.nextDouble() * (delta[1] * 2) - delta[1]);
+			int nextZ = z[i] + (int)Math.round(r.nextDouble() * (delta[2] * 2) - delta[2]);
+			proposedX[i] = Math.max(minX, Math.min(maxX, nextX));
+			proposedY[i] = Math.max(minY, Math.min(maxY, nextY));
+			proposedZ[i] = Math.max(minZ, Math.min(maxZ, nextZ));
+		}
+	}
+
+	Position getProposedPosition(int index, Medium medium) {
+		return medium.getPosition(proposedX[index], proposedY[index], proposedZ[index]);
+	}
+}
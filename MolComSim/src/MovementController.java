@@ -1,40 +1,78 @@
 /**
- * Class that determines how a molecule moves to its 
- * next position and how it deals with collisions
+ * Class that determines how a molecule moves to its
+ * next position.
+ *
+ * Movement controllers hold no state: how a molecule moves is given
+ * by its MovementState, and the one instance of the controller of
+ * that state (see forState) moves every molecule in it.  How a
+ * molecule deals with collisions is given by the collision handler
+ * it holds, shared with the other molecules, see SimulationPlan.
  */
 
 public abstract class MovementController {
 
-	private CollisionHandler collisionHandler;
-	protected MolComSim simulation;
-	private Molecule molecule;
-
-	protected MovementController(CollisionHandler collHandle, MolComSim sim, Molecule mol) {
-		collisionHandler = collHandle;
-		simulation = sim;
-		molecule = mol;
-		mol.setMovementController(this);
+	/**
+	 * @param state How a molecule is moving
+	 * @return the controller moving molecules in that state, null for null
+	 */
+	public static MovementController forState(MovementState state) {
+		if(state == null) {
+			return null;
+		}
+		switch(state) {
+		case RANDOM_WALK:
+			return DiffusiveRandomMovementController.INSTANCE;
+		case PACKET_WALK:
+			return PacketMovementController.INSTANCE;
+		case ON_MICROTUBULE:
+			return OnMicrotubuleMovementController.INSTANCE;
+		default:
+			return NullMovementController.INSTANCE;
+		}
 	}
 
-	/** 
-	 * 
+	/**
+	 *
 	 * @param molecule The molecule trying to move
-	 * @param sim The simulation in which this is taking place
 	 * @return the position the molecule should move to next
 	 */
-	public Position getNextPosition(Molecule molecule, MolComSim sim) {
-		Position nextPosition = simulation.getMedium().getClosestPosition(decideNextPosition());
-		return collisionHandler.handlePotentialCollisions(molecule, nextPosition, simulation);
+	public Position getNextPosition(Molecule molecule) {
+		return molecule.getCollisionHandler().handlePotentialCollisions(molecule,
+				proposeNextPosition(molecule), molecule.getSimulation());
 	}
 
-	protected abstract Position decideNextPosition();
-
-	protected MolComSim getSimulation() {
-		return simulation;
+	/**
+	 * First phase of a step: decides where the molecule would like to go,
+	 * without touching anything but the molecule itself, so proposals
+	 * for different molecules can be made concurrently.  The collision
+	 * handler of the molecule then handles collisions for the proposed
+	 * position and moves the molecule in the medium, see Molecule.commitMove.
+	 *
+	 * @param molecule The molecule trying to move
+	 * @return the position the molecule would like to move to
+	 */
+	public Position proposeNextPosition(Molecule molecule) {
+		return molecule.getSimulation().getMedium().getClosestPosition(decideNextPosition(molecule));
 	}
 
-	protected Molecule getMolecule() {
-		return molecule;
+	protected abstract Position decideNextPosition(Molecule molecule);
+
+	/**
+	 * @param molecule The molecule on a random walk
+	 * @param axis 0, 1 or 2 for x, y or z
+	 * @return the uniform random number in [0, 1) the step of molecule along axis
+	 *  is drawn from: the next of its random stream, or with walkRandom COUNTER the 
+	 *  CounterRandom word of its walk key for the current step, as MoleculeStore.proposeMoves
+	 */
+	protected static double nextUniform(Molecule molecule, int axis) {
+		MolComSim simulation = molecule.getSimulation();
+		if(simulation.getPlan().isCounterRandom()) {
+			return CounterRandom.toDouble(CounterRandom.word(molecule.getWalkKey(), simulation.getSimStep(), axis));
+		}
+		return molecule.getRandom().nextDouble();
 	}
 
+	// Kind of movement, so molecule stores can step molecules without asking the controller
+	public abstract MovementState getMovementState();
+
 }
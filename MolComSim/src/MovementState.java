@@ -0,0 +1,15 @@
+/**
+ * How a molecule is currently moving, one per kind of MovementController
+ */
+
+public enum MovementState {
+
+	// random walk using the packet step lengths (DiffusiveRandomMovementController)
+	RANDOM_WALK,
+	// random walk using the molecule step lengths (PacketMovementController)
+	PACKET_WALK,
+	// moving along a microtubule (OnMicrotubuleMovementController)
+	ON_MICROTUBULE,
+	// not moving at all (NullMovementController)
+	STATIONARY;
+}
@@ -22,6 +22,9 @@ public class NanoMachine {
 	public static final int LAST_COMMUNICATION_FAILURE = -1;
 	public static final int NO_PREVIOUS_COMMUNICATION = 0;
 
+	// Returned by getNextEventStep when nothing is left to happen
+	public static final int NO_EVENT = Integer.MAX_VALUE;
+
 	private NanoMachine(Position psn, int r) {
 		this.position = psn;
 		this.radius = r;
@@ -104,6 +107,44 @@ public class NanoMachine {
 		}
 	}
 
+	/**
+	 * First step, from step on, in which nextStep may do anything
+	 * besides letting time pass, assuming no molecule is received
+	 * in the meantime
+	 * 
+	 * @param step The next step to run
+	 * @return that step, or NO_EVENT if there is none
+	 */
+	public int getNextEventStep(int step) {
+		int next = NO_EVENT;
+		if(tx != null) {
+			next = Math.min(next, tx.getNextEventStep(step));
+		}
+		if(rx != null) {
+			next = Math.min(next, rx.getNextEventStep(step));
+		}
+		return next;
+	}
+
+	// Saves the protocol state of the transmitter and/or receiver, see MolComSim.writeState
+	void writeState(CheckpointWriter out) {
+		if(tx != null) {
+			tx.writeState(out);
+		}
+		if(rx != null) {
+			rx.writeState(out);
+		}
+	}
+
+	void readState(CheckpointReader in) {
+		if(tx != null) {
+			tx.readState(in);
+		}
+		if(rx != null) {
+			rx.readState(in);
+		}
+	}
+
 	/** Receives molecule by either transmitter or receiver,
 	 *  depending on type of molecule
 	 * 
@@ -169,7 +210,9 @@ public class NanoMachine {
 		private int retransmissionsLeft;
 		private MoleculeCreator moleculeCreator;
 		private NanoMachine nanoMachine;
-		private int countdown;
+		// step in which the countdown runs out, kept as a step rather than
+		// counted down so that steps in which nothing happens can be skipped
+		private int timeout;
 		private boolean createMoleculesDelayed = false;
 		private Position molReleasePsn;
 		private ForwardErrorCorrection FEC;
@@ -199,23 +242,30 @@ public class NanoMachine {
 		 *  Creates molecules for this transmitter
 		 */
 		public void createMolecules() {
+			createMolecules(simulation.getSimStep());
+		}
+
+		// Creates molecules, the countdown starts in firstStep 
+		// and runs out retransmitWaitTime steps later
+		private void createMolecules(int firstStep) {
 			moleculeCreator.createMolecules(lastCommunicationStatus);
-			countdown = simulation.getRetransmitWaitTime();
+			timeout = firstStep + simulation.getRetransmitWaitTime();
 		}
 
 		/**
 		 * Creates molecules if time hasn't run out
 		 */
 		public void nextStep() {
+			int step = simulation.getSimStep();
 			if(createMoleculesDelayed) {
-				createMolecules();
+				createMolecules(step + 1);
 				createMoleculesDelayed = false;
-			} else if(countdown-- <= 0) {
+			} else if(step >= timeout) {
 				if(simulation.isUsingAcknowledgements()) {
 					lastCommunicationStatus = LAST_COMMUNICATION_FAILURE;
 					if(retransmissionsLeft-- > 0) {
 						simulation.addTxRetransmitNum();
-						createMolecules();
+						createMolecules(step + 1);
 					} else {
 						simulation.setFailure(true);
 					}
@@ -236,11 +286,47 @@ public class NanoMachine {
 							}
 						}
 					}
-					createMolecules();
+					createMolecules(step + 1);
 				}
 			} 
 		}
 
+		/**
+		 * First step, from step on, in which nextStep may do anything
+		 * 
+		 * @param step The next step to run
+		 * @return that step, or NO_EVENT if there is none
+		 */
+		public int getNextEventStep(int step) {
+			if(createMoleculesDelayed) {
+				return step;
+			}
+			// once out of retransmissions, running out of time again only repeats the failure
+			if(simulation.isUsingAcknowledgements() && (retransmissionsLeft <= 0) && 
+					(lastCommunicationStatus == LAST_COMMUNICATION_FAILURE) && simulation.isFailure()) {
+				return NO_EVENT;
+			}
+			return Math.max(step, timeout);
+		}
+
+		void writeState(CheckpointWriter out) {
+			out.putInt(currMsgId);
+			out.putInt(retransmissionsLeft);
+			out.putInt(timeout);
+			out.putBoolean(createMoleculesDelayed);
+			out.putIntegers(msgsRetransmitted);
+			out.putInt(lastCommunicationStatus);
+		}
+
+		void readState(CheckpointReader in) {
+			currMsgId = in.getInt();
+			retransmissionsLeft = in.getInt();
+			timeout = in.getInt();
+			createMoleculesDelayed = in.getBoolean();
+			in.getIntegers(msgsRetransmitted);
+			lastCommunicationStatus = in.getInt();
+		}
+
 		// Receives and retransmits a molecule for multi-hop/signal boosted communications.
 		// Only called for intermediate nodes.
 		public void retransmit(Molecule m) {
@@ -253,7 +339,7 @@ public class NanoMachine {
 				msgsRetransmitted.add(currMsgId);
 				createMoleculesDelayed = true;  
 				// Need to remove received molecules from the simulation.
-				simulation.moveObject(m, m.getPosition(), simulation.getMedium().garbageSpot());			
+				simulation.removeMolecule(m);			
 			}
 		}
 		
@@ -278,7 +364,7 @@ public class NanoMachine {
 //				createMoleculesDelayed = true;
 			}			
 			// Need to remove received molecules from the simulation.
-			simulation.moveObject(m, m.getPosition(), simulation.getMedium().garbageSpot());
+			simulation.removeMolecule(m);
 		}
 
 		public NanoMachine getNanoMachine() {
@@ -305,7 +391,9 @@ public class NanoMachine {
 		private int retransmissionsLeft;
 		private MoleculeCreator moleculeCreator;
 		private NanoMachine nanoMachine;
+		// the countdown at the beginning of countdownStep, see countdownAt
 		private int countdown;
+		private int countdownStep;
 		private boolean createMoleculesDelayed = false;
 		private Position molReleasePsn;
 		private boolean neverReceivedAnyInfoMols = true; // Prevent receiver from timing out and sending acknowledgements
@@ -345,8 +433,21 @@ public class NanoMachine {
 		 *  Creates molecules for this receiver
 		 */
 		public void createMolecules() {
+			createMolecules(simulation.getSimStep());
+		}
+
+		// Creates molecules, the countdown starts in firstStep
+		private void createMolecules(int firstStep) {
 			moleculeCreator.createMolecules(lastCommunicationStatus);
 			countdown = simulation.getRetransmitWaitTime();
+			countdownStep = firstStep;
+		}
+
+		// The countdown at the beginning of step.  Once an information molecule
+		// has been received, it goes down by two every step: once when checking
+		// whether to retransmit, and once when checking for failure.
+		private int countdownAt(int step) {
+			return countdown - 2 * (step - countdownStep);
 		}
 		
 		/**
@@ -354,18 +455,72 @@ public class NanoMachine {
 		 * this simulation and time hasn't run out
 		 */
 		public void nextStep() {
+			int step = simulation.getSimStep();
 			if(createMoleculesDelayed) {
-				createMolecules();
+				createMolecules(step + 1);
 				createMoleculesDelayed = false;
-			} else if(simulation.isUsingAcknowledgements() && !neverReceivedAnyInfoMols && 
-			((countdown-- <= 0) && (retransmissionsLeft-- > 0))){
-				lastCommunicationStatus = LAST_COMMUNICATION_FAILURE;
-				simulation.addRxRetransmitNum();
-				createMolecules();
-			}  else if(simulation.isUsingAcknowledgements() && !neverReceivedAnyInfoMols && 
-					((countdown-- <= 0) && (retransmissionsLeft < 0))) {
-				simulation.setFailure(true);
+			} else if(simulation.isUsingAcknowledgements() && !neverReceivedAnyInfoMols) {
+				int current = countdownAt(step);
+				if((current <= 0) && (retransmissionsLeft-- > 0)) {
+					lastCommunicationStatus = LAST_COMMUNICATION_FAILURE;
+					simulation.addRxRetransmitNum();
+					createMolecules(step + 1);
+				} else if((current - 1 <= 0) && (retransmissionsLeft < 0)) {
+					simulation.setFailure(true);
+				}
+			}
+		}
+
+		/**
+		 * First step, from step on, in which nextStep may do anything
+		 * 
+		 * @param step The next step to run
+		 * @return that step, or NO_EVENT if there is none
+		 */
+		public int getNextEventStep(int step) {
+			if(createMoleculesDelayed) {
+				return step;
 			}
+			if(!simulation.isUsingAcknowledgements() || neverReceivedAnyInfoMols) {
+				return NO_EVENT;
+			}
+			// nothing happens while the countdown is above one
+			int next = Math.max(step, countdownStep + Math.max(countdown, 0) / 2);
+			if(countdownAt(next) == 1) {
+				if((retransmissionsLeft < 0) && !simulation.isFailure()) {
+					return next;
+				}
+				next++;
+			}
+			// once out of retransmissions, running out of time again only repeats the failure
+			if((retransmissionsLeft > 0) || !simulation.isFailure()) {
+				return next;
+			}
+			return NO_EVENT;
+		}
+
+		void writeState(CheckpointWriter out) {
+			out.putInt(currMsgId);
+			out.putInt(numRecievedPackets);
+			out.putInt(retransmissionsLeft);
+			out.putInt(countdown);
+			out.putInt(countdownStep);
+			out.putBoolean(createMoleculesDelayed);
+			out.putBoolean(neverReceivedAnyInfoMols);
+			out.putIntegers(msgsRetransmitted);
+			out.putInt(lastCommunicationStatus);
+		}
+
+		void readState(CheckpointReader in) {
+			currMsgId = in.getInt();
+			numRecievedPackets = in.getInt();
+			retransmissionsLeft = in.getInt();
+			countdown = in.getInt();
+			countdownStep = in.getInt();
+			createMoleculesDelayed = in.getBoolean();
+			neverReceivedAnyInfoMols = in.getBoolean();
+			in.getIntegers(msgsRetransmitted);
+			lastCommunicationStatus = in.getInt();
 		}
 
 		/**
@@ -377,6 +532,10 @@ public class NanoMachine {
 		public void receiveMolecule(Molecule m) {
 			m.setEndTime(simulation.getSimStep());
 			simulation.addInfoTime(m.getSendTime());
+			if(neverReceivedAnyInfoMols) {
+				// the countdown starts running in the next step
+				countdownStep = simulation.getSimStep() + 1;
+			}
 			neverReceivedAnyInfoMols = false; // we have received at least one information molecule
 			if (m instanceof InformationMolecule && simulation.assembling()) {
 				FEC.add(m);
@@ -409,7 +568,7 @@ public class NanoMachine {
 				createMoleculesDelayed = true;
 			}
 			// Need to remove received molecules from the simulation.
-			simulation.moveObject(m, m.getPosition(), simulation.getMedium().garbageSpot());
+			simulation.removeMolecule(m);
 				
 //			if(simulation.isUsingAcknowledgements()) {
 //					createMoleculesDelayed = true;
@@ -438,7 +597,7 @@ public class NanoMachine {
 				msgsRetransmitted.add(currMsgId);
 				createMoleculesDelayed = true;  
 				// Need to remove received molecules from the simulation.
-				simulation.moveObject(m, m.getPosition(), simulation.getMedium().garbageSpot());			
+				simulation.removeMolecule(m);			
 			}
 		}
 		
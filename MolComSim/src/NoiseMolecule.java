@@ -15,8 +15,12 @@ public class NoiseMolecule extends Molecule{
 		msgId = null;
 	}
 
-	public void move() {
-		setPosition(getMovementController().getNextPosition(this, getSimulation()));
+	public void commitMove() {
+		setPosition(commitProposedPosition());
 	}
 
-} 
+	public MoleculeType getMoleculeType() {
+		return MoleculeType.NOISE;
+	}
+
+}
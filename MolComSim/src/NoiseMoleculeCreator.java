@@ -16,19 +16,20 @@ public class NoiseMoleculeCreator extends MoleculeCreator{
 	 */
 	public void createMolecules() {
 		ArrayList<Molecule> noiseMolecules = new ArrayList<Molecule>();
+		RandomStream random = simulation.getRandom().getStream(SimulationRandom.Purpose.NOISE_PLACEMENT);
 		//TODO: check these values to make sure they're not occupied
+		int mh = simulation.getSimParams().getMediumHeight();
+		int ml = simulation.getSimParams().getMediumLength();
+		int mw = simulation.getSimParams().getMediumWidth();
 		for (MoleculeParams nmp : molParams){
 			double volume = Math.pow(nmp.getSize(), 3);
 			for (int i = 0; i < nmp.getNumMolecules(); i++){
-				int mh = simulation.getSimParams().getMediumHeight();
-				int ml = simulation.getSimParams().getMediumLength();
-				int mw = simulation.getSimParams().getMediumWidth();
-				int x = (int)((Math.random()*ml) - (ml / 2));
-				int y = (int)((Math.random()*mh) - (mh / 2));
-				int z = (int)((Math.random()*mw) - (mw / 2));
+				int x = (int)((random.nextDouble()*ml) - (ml / 2));
+				int y = (int)((random.nextDouble()*mh) - (mh / 2));
+				int z = (int)((random.nextDouble()*mw) - (mw / 2));
 				Position randomPos = new Position(x, y, z);
 				NoiseMolecule tempmol = new NoiseMolecule(randomPos, simulation, nmp.getMoleculeMovementType(), volume);
-				new NullMovementController(new SimpleCollisionHandler(), simulation, tempmol);
+				tempmol.setMovement(MovementState.STATIONARY, simulation.getPlan().getStillHandler());
 				noiseMolecules.add(tempmol);
 			}
 		//create molecules using noise molecule params with positions randomly distributed throughout the medium (simulation.getMedium().getlength()…)
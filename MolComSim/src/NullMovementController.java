@@ -4,15 +4,17 @@
  */
 
 public class NullMovementController extends MovementController{
-	
-	public NullMovementController(CollisionHandler collHandle, MolComSim sim, Molecule mol) {
-		super(collHandle, sim, mol);
-	}
-		
-	protected Position decideNextPosition() {
-		return getMolecule().getPosition();
-	}
 
+	public static final NullMovementController INSTANCE = new NullMovementController();
+
+	private NullMovementController() {
+	}
 
+	protected Position decideNextPosition(Molecule molecule) {
+		return molecule.getPosition();
+	}
 
-} 
+	public MovementState getMovementState() {
+		return MovementState.STATIONARY;
+	}
+}
@@ -6,11 +6,9 @@
 
 public class OnMicrotubuleMovementController extends MovementController{
 
-	private Microtubule microtubule;
+	public static final OnMicrotubuleMovementController INSTANCE = new OnMicrotubuleMovementController();
 
-	public OnMicrotubuleMovementController(CollisionHandler collHandle, MolComSim sim, Molecule mol, Microtubule tubule) {
-		super(collHandle, sim, mol);
-		microtubule = tubule;
+	private OnMicrotubuleMovementController() {
 	}
 
 	/**
@@ -18,12 +16,16 @@ public class OnMicrotubuleMovementController extends MovementController{
 	 * @param molecule The molecule whose position is being decided
 	 * @return the Position it should go to
 	 */
-	protected Position decideNextPosition() {
-		Position currentPosition = getMolecule().getPosition();
+	protected Position decideNextPosition(Molecule molecule) {
+		MolComSim simulation = molecule.getSimulation();
+		Microtubule microtubule = molecule.getMicrotubule();
+		Position currentPosition = molecule.getPosition();
 //		Position direction = microtubule.getDirectionVector().toInt();
 		DoublePosition doubleDirection = microtubule.getDirectionVector();
 		
-		Position direction = doubleDirection.toInt();
+		int directionX = (int) doubleDirection.getX();
+		int directionY = (int) doubleDirection.getY();
+		int directionZ = (int) doubleDirection.getZ();
 		if (doubleDirection.getX() < 1 || doubleDirection.getY() < 1 || doubleDirection.getZ() < 1) {
 			int steps = simulation.getSimStep();
 				double x = 0, y = 0, z = 0;
@@ -36,24 +38,22 @@ public class OnMicrotubuleMovementController extends MovementController{
 			if (steps % (int)(1.0 / doubleDirection.getZ()) == 0) {
 				z = 1.0;
 			}
-			direction = new DoublePosition(x, y, z).toInt();
+			directionX = (int) x;
+			directionY = (int) y;
+			directionZ = (int) z;
 		}
 		
-		Position nextPosition = new Position(currentPosition.getX() + direction.getX(), currentPosition.getY() + direction.getY(), currentPosition.getZ() + direction.getZ());
+		Position nextPosition = simulation.getMedium().getClosestPosition(currentPosition.getX() + directionX, 
+				currentPosition.getY() + directionY, currentPosition.getZ() + directionZ);
 		//If the molecule gets derailed, it moves to the same spot, but switches to passive movement off the microtubule
-		if (Math.random() < this.simulation.getSimParams().getProbDRail()){
-			CollisionHandler collh;
-			if (simulation.isUsingCollisions()){
-				if (simulation.decomposing())
-					collh = new DecomposingCollisionHandler(new SimpleCollisionHandler(), simulation.getDecomposingMode());
-				else
-					collh = new StandardCollisionHandler(new SimpleCollisionHandler());
-			}
-			else
-				collh = new SimpleCollisionHandler();
-			new DiffusiveRandomMovementController(collh, getSimulation(), getMolecule());
+		SimulationPlan plan = simulation.getPlan();
+		if (molecule.getRandom().nextDouble() < plan.getProbDRail()){
+			molecule.setMovement(MovementState.RANDOM_WALK, plan.getWalkHandler());
 		}
 		return nextPosition;
 	}
 
+	public MovementState getMovementState() {
+		return MovementState.ON_MICROTUBULE;
+	}
 }
@@ -20,7 +20,7 @@ public class OnTubuleCollisionHandler extends CollisionDecorator{
 	public Position handlePotentialCollisions(Molecule mol, Position nextPos, MolComSim simulation) {
 		Position nextPosition = collH.handlePotentialCollisions(mol, nextPos, simulation);
 		if (simulation.getMedium().hasMolecule(nextPos) & isCollision(mol, nextPos, simulation)){
-			new DiffusiveRandomMovementController(new StandardCollisionHandler(new SimpleCollisionHandler()), simulation, mol);
+			mol.setMovement(MovementState.RANDOM_WALK, simulation.getPlan().getKnockedOffHandler());
 			return mol.getPosition();	
 		}
 		else {
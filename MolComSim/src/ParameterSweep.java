@@ -0,0 +1,140 @@
+/**
+ * A sweep over the values of some simulation parameters, defined in
+ * the params file.  Each line
+ *
+ *   sweep <name> <value> <value> ...   or   sweep <name> <from>:<to>:<step>
+ *
+ * defines a variable taking the given values, or the values from
+ * <from> to <to> (included) by steps of <step>.  Any other line of the
+ * params file can use a variable by writing ${name} where its value goes,
+ * for instance "numThreads ${threads}" or "transmitter ${x} 0 0 ...".
+ *
+ * The points of the sweep are all the combinations of the values of the
+ * variables, each run "sweepReplicates" times (1 by default), see SweepRunner.
+ */
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class ParameterSweep {
+
+	public static final String VARIABLE_START = "${";
+	public static final String VARIABLE_END = "}";
+
+	// values of each variable, in the order they were defined in
+	private final LinkedHashMap<String, ArrayList<String>> variables = new LinkedHashMap<String, ArrayList<String>>();
+	private int replicates = 1;
+
+	/**
+	 * Adds a variable
+	 * 
+	 * @param definition The name of the variable followed by its values,
+	 *  or by a range from:to:step
+	 */
+	public void addVariable(String definition) {
+		String[] words = definition.trim().split("\\s+");
+		if(words.length < 2) {
+			throw new IllegalArgumentException("Sweep variable without values: " + definition);
+		}
+		String name = words[0];
+		if(variables.containsKey(name)) {
+			throw new IllegalArgumentException("Sweep variable defined twice: " + name);
+		}
+		ArrayList<String> values = new ArrayList<String>();
+		for(int i = 1; i < words.length; i++) {
+			if(words[i].contains(":")) {
+				addRange(words[i], values);
+			} else {
+				values.add(words[i]);
+			}
+		}
+		variables.put(name, values);
+	}
+
+	// Adds the values of from:to:step, written without rounding errors
+	private static void addRange(String range, ArrayList<String> values) {
+		String[] bounds = range.split(":");
+		if(bounds.length != 3) {
+			throw new IllegalArgumentException("Invalid sweep range: " + range);
+		}
+		BigDecimal from = new BigDecimal(bounds[0]);
+		BigDecimal to = new BigDecimal(bounds[1]);
+		BigDecimal step = new BigDecimal(bounds[2]);
+		if(step.signum() == 0 || (to.compareTo(from) != 0 && to.subtract(from).signum() != step.signum())) {
+			throw new IllegalArgumentException("Invalid sweep range: " + range);
+		}
+		for(BigDecimal value = from; (step.signum() > 0) ? value.compareTo(to) <= 0 : value.compareTo(to) >= 0; 
+				value = value.add(step)) {
+			values.add(value.toPlainString());
+		}
+	}
+
+	public void setReplicates(int replicates) {
+		if(replicates < 1) {
+			throw new IllegalArgumentException("sweepReplicates must be at least 1");
+		}
+		this.replicates = replicates;
+	}
+
+	public int getReplicates() {
+		return replicates;
+	}
+
+	public ArrayList<String> getVariableNames() {
+		return new ArrayList<String>(variables.keySet());
+	}
+
+	// Number of combinations of the values of the variables
+	public int getNumPoints() {
+		int numPoints = 1;
+		for(ArrayList<String> values : variables.values()) {
+			numPoints = Math.multiplyExact(numPoints, values.size());
+		}
+		return numPoints;
+	}
+
+	/**
+	 * @param index Between 0 and getNumPoints() - 1, the last variable changing fastest
+	 * @return the value of each variable at that point, by name
+	 */
+	public LinkedHashMap<String, String> getPoint(int index) {
+		ArrayList<String> names = getVariableNames();
+		String[] point = new String[names.size()];
+		for(int i = names.size() - 1; i >= 0; i--) {
+			ArrayList<String> values = variables.get(names.get(i));
+			point[i] = values.get(index % values.size());
+			index /= values.size();
+		}
+		LinkedHashMap<String, String> values = new LinkedHashMap<String, String>();
+		for(int i = 0; i < point.length; i++) {
+			values.put(names.get(i), point[i]);
+		}
+		return values;
+	}
+
+	public static boolean usesVariables(String line) {
+		return line.contains(VARIABLE_START);
+	}
+
+	// line with every variable replaced by its value at point
+	public static String substitute(String line, Map<String, String> point) {
+		StringBuilder result = new StringBuilder();
+		int pos = 0;
+		int start;
+		while((start = line.indexOf(VARIABLE_START, pos)) != -1) {
+			int end = line.indexOf(VARIABLE_END, start);
+			if(end == -1) {
+				throw new IllegalArgumentException("Unterminated sweep variable in: " + line);
+			}
+			String name = line.substring(start + VARIABLE_START.length(), end);
+			if(!point.containsKey(name)) {
+				throw new IllegalArgumentException("Undefined sweep variable " + name + " in: " + line);
+			}
+			result.append(line, pos, start).append(point.get(name));
+			pos = end + VARIABLE_END.length();
+		}
+		return result.append(line.substring(pos)).toString();
+	}
+}
@@ -51,6 +51,24 @@ public class ParityCheck extends ForwardErrorCorrection{
 		}
 	}
 
+	@Override
+	void writeState(CheckpointWriter out) {
+		super.writeState(out);
+		out.putInt(isReceived.length);
+		for(boolean packet : isReceived) {
+			out.putBoolean(packet);
+		}
+	}
+
+	@Override
+	void readState(CheckpointReader in) {
+		super.readState(in);
+		isReceived = new boolean[in.getInt()];
+		for(int index = 0; index < isReceived.length; index++) {
+			isReceived[index] = in.getBoolean();
+		}
+	}
+
 	@Override
 	public MoleculeParams encode(MoleculeParams molParams) {
 		return molParams;
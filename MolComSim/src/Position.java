@@ -2,9 +2,9 @@ import java.util.Scanner;
 
 public class Position {
 
-	private int x;
-	private int y;
-	private int z;
+	private final int x;
+	private final int y;
+	private final int z;
 	public Position(int x0, int y0, int z0) {
 		this.x = x0;
 		this.y = y0;
@@ -0,0 +1,359 @@
+/**
+ * Adaptive large steps for random walking molecules far from anything
+ * they could interact with, in the spirit of the protective domains of
+ * Green's function reaction dynamics.
+ *
+ * A 3D distance transform of the static geometry gives the chessboard
+ * distance of every cell of the medium to the nearest cell covered by a
+ * nanomachine or microtubule, or outside of the medium, kept as the least
+ * distance of every block of cells.  A molecule whose k next steps cannot
+ * reach any such cell (k times its largest step is less than the distance
+ * of its block) moves by the sum of k steps at once,
+ * drawn from the exact distribution of k steps of its walk, and then sits
+ * out the next k - 1 steps.  Nothing it could meet on the way is skipped,
+ * so results follow the same distribution as stepping it every step, but
+ * are not identical for the same seed.  Jumps take 2, 4, 8... steps, up
+ * to adaptiveStepMax, and single steps are taken near obstacles.
+ *
+ * With collisions, molecules interact with each other as well, so a
+ * coarse occupancy of the molecules in the medium, rebuilt every step,
+ * makes sure no other molecule is close enough to reach the domain of
+ * a jumping molecule (or be reached from it) before the jump is over.
+ */
+
+import java.util.Arrays;
+
+public class ProtectiveDomains {
+
+	// medium cells per side of the blocks distances are kept for, and of those the occupancy counts molecules in
+	private static final int BLOCK_SIZE = 4;
+	private static final int OCCUPANCY_BLOCK_SIZE = 8;
+	// distances are kept in a byte, farther cells are at least this far
+	private static final int MAX_DISTANCE = 255;
+
+	private final MolComSim simulation;
+	private final int maxJump;
+	private final boolean usingCollisions;
+	// lowest coordinate of the medium, and number of medium cells along each axis
+	private final int[] min = new int[3];
+	private final int[] dim = new int[3];
+	// number of blocks along each axis
+	private final int[] blockDim = new int[3];
+	// smallest chessboard distance of the cells of every block to the nearest obstacle, capped
+	// to MAX_DISTANCE, small enough to stay in cache when read for every molecule
+	private final byte[] distance;
+	private final Jumps randomWalk;
+	private final Jumps packetWalk;
+
+	// number of occupancy blocks along each axis, and of molecules in every occupancy block,
+	// molecules that never move first
+	private final int[] occupancyDim = new int[3];
+	private int[] stillCount;
+	private int[] occupancy;
+
+	public ProtectiveDomains(MolComSim sim) {
+		simulation = sim;
+		SimulationParams simParams = sim.getSimParams();
+		maxJump = Integer.highestOneBit(simParams.getAdaptiveStepMax());
+		usingCollisions = sim.getPlan().isUsingCollisions();
+		Medium medium = sim.getMedium();
+		min[0] = medium.getLength() / -2;
+		min[1] = medium.getWidth() / -2;
+		min[2] = medium.getHeight() / -2;
+		dim[0] = (medium.getLength() / 2) - min[0] + 1;
+		dim[1] = (medium.getWidth() / 2) - min[1] + 1;
+		dim[2] = (medium.getHeight() / 2) - min[2] + 1;
+		for(int axis = 0; axis < 3; axis++) {
+			blockDim[axis] = (dim[axis] + BLOCK_SIZE - 1) / BLOCK_SIZE;
+		}
+		distance = distanceTransform(medium.getStaticGeometry());
+
+		SimulationPlan plan = sim.getPlan();
+		randomWalk = new Jumps(new double[] {plan.getRandomWalkDeltaX(),
+				plan.getRandomWalkDeltaY(), plan.getRandomWalkDeltaZ()});
+		packetWalk = new Jumps(new double[] {plan.getPacketWalkDeltaX(),
+				plan.getPacketWalkDeltaY(), plan.getPacketWalkDeltaZ()});
+
+		if(usingCollisions) {
+			for(int axis = 0; axis < 3; axis++) {
+				occupancyDim[axis] = (dim[axis] + OCCUPANCY_BLOCK_SIZE - 1) / OCCUPANCY_BLOCK_SIZE;
+			}
+			occupancy = new int[occupancyDim[0] * occupancyDim[1] * occupancyDim[2]];
+		}
+	}
+
+	/**
+	 * @return whether molecules of the simulation described by simParams take large steps
+	 */
+	public static boolean canUse(SimulationParams simParams) {
+		return simParams.getAdaptiveStepMax() >= 2;
+	}
+
+	private int index(int x, int y, int z) {
+		return (x * dim[1] + y) * dim[2] + z;
+	}
+
+	/**
+	 * Two pass chamfer transform with the 26 neighbours of every cell at
+	 * distance 1, exact for the chessboard distance.  Cells outside of the
+	 * medium are obstacles, so no jump is ever clamped to the medium.
+	 */
+	private byte[] distanceTransform(StaticGeometry geometry) {
+		int[] d = new int[dim[0] * dim[1] * dim[2]];
+		for(int x = 0; x < dim[0]; x++) {
+			for(int y = 0; y < dim[1]; y++) {
+				for(int z = 0; z < dim[2]; z++) {
+					int cell = geometry.cellIndex(x + min[0], y + min[1], z + min[2]);
+					boolean obstacle = (cell == -1) || (geometry.getTag(cell) != StaticGeometry.EMPTY);
+					d[index(x, y, z)] = obstacle ? 0 : MAX_DISTANCE;
+				}
+			}
+		}
+		// neighbours before a cell in the order of the forward pass, the backward pass uses their opposites
+		int[][] before = new int[13][];
+		int n = 0;
+		for(int dx = -1; dx <= 1; dx++) {
+			for(int dy = -1; dy <= 1; dy++) {
+				for(int dz = -1; dz <= 1; dz++) {
+					if((dx < 0) || ((dx == 0) && (dy < 0)) || ((dx == 0) && (dy == 0) && (dz < 0))) {
+						before[n++] = new int[] {dx, dy, dz};
+					}
+				}
+			}
+		}
+		for(int x = 0; x < dim[0]; x++) {
+			for(int y = 0; y < dim[1]; y++) {
+				for(int z = 0; z < dim[2]; z++) {
+					relax(d, x, y, z, before, 1);
+				}
+			}
+		}
+		for(int x = dim[0] - 1; x >= 0; x--) {
+			for(int y = dim[1] - 1; y >= 0; y--) {
+				for(int z = dim[2] - 1; z >= 0; z--) {
+					relax(d, x, y, z, before, -1);
+				}
+			}
+		}
+		int[] blockDistance = new int[blockDim[0] * blockDim[1] * blockDim[2]];
+		Arrays.fill(blockDistance, MAX_DISTANCE);
+		for(int x = 0; x < dim[0]; x++) {
+			for(int y = 0; y < dim[1]; y++) {
+				for(int z = 0; z < dim[2]; z++) {
+					int b = block(x + min[0], y + min[1], z + min[2]);
+					blockDistance[b] = Math.min(blockDistance[b], d[index(x, y, z)]);
+				}
+			}
+		}
+		byte[] distance = new byte[blockDistance.length];
+		for(int i = 0; i < distance.length; i++) {
+			distance[i] = (byte) blockDistance[i];
+		}
+		return distance;
+	}
+
+	// Lowers the distance of cell (x, y, z) to one more than that of its neighbours in direction sign
+	private void relax(int[] d, int x, int y, int z, int[][] neighbours, int sign) {
+		int cell = index(x, y, z);
+		if(d[cell] == 0) {
+			return;
+		}
+		int best = d[cell];
+		for(int[] offset : neighbours) {
+			int nx = x + sign * offset[0];
+			int ny = y + sign * offset[1];
+			int nz = z + sign * offset[2];
+			if((nx < 0) || (ny < 0) || (nz < 0) || (nx >= dim[0]) || (ny >= dim[1]) || (nz >= dim[2])) {
+				best = 1;
+				break;
+			}
+			best = Math.min(best, d[index(nx, ny, nz)] + 1);
+		}
+		d[cell] = best;
+	}
+
+	/**
+	 * Counts the molecules in the medium by occupancy block, before molecules
+	 * propose their moves.  Only needed with collisions.
+	 */
+	public void beginStep(MoleculeStore molecules) {
+		if(!usingCollisions) {
+			return;
+		}
+		if(stillCount == null) {
+			// molecules that never move are all in the medium before the first step
+			stillCount = new int[occupancy.length];
+			Medium medium = simulation.getMedium();
+			for(Position pos : medium.getMoleculePositions()) {
+				for(Object obj : medium.getObjectsAtPos(pos)) {
+					if((obj instanceof Molecule) && (((Molecule) obj).getMovementState() == MovementState.STATIONARY)) {
+						stillCount[occupancyBlock(pos.getX(), pos.getY(), pos.getZ())]++;
+					}
+				}
+			}
+		}
+		System.arraycopy(stillCount, 0, occupancy, 0, occupancy.length);
+		for(int i = 0; i < molecules.size(); i++) {
+			Position pos = molecules.get(i).getPosition();
+			occupancy[occupancyBlock(pos.getX(), pos.getY(), pos.getZ())]++;
+		}
+	}
+
+	private int block(int x, int y, int z) {
+		int bx = Math.max(0, Math.min(dim[0] - 1, x - min[0])) / BLOCK_SIZE;
+		int by = Math.max(0, Math.min(dim[1] - 1, y - min[1])) / BLOCK_SIZE;
+		int bz = Math.max(0, Math.min(dim[2] - 1, z - min[2])) / BLOCK_SIZE;
+		return (bx * blockDim[1] + by) * blockDim[2] + bz;
+	}
+
+	private int occupancyBlock(int x, int y, int z) {
+		int bx = Math.max(0, Math.min(dim[0] - 1, x - min[0])) / OCCUPANCY_BLOCK_SIZE;
+		int by = Math.max(0, Math.min(dim[1] - 1, y - min[1])) / OCCUPANCY_BLOCK_SIZE;
+		int bz = Math.max(0, Math.min(dim[2] - 1, z - min[2])) / OCCUPANCY_BLOCK_SIZE;
+		return (bx * occupancyDim[1] + by) * occupancyDim[2] + bz;
+	}
+
+	// Whether there is any other molecule than the one at (x, y, z) in the occupancy
+	// blocks overlapping the cube of the given radius around it
+	private boolean isCrowded(int x, int y, int z, int radius) {
+		int fromX = Math.max(0, x - min[0] - radius) / OCCUPANCY_BLOCK_SIZE;
+		int fromY = Math.max(0, y - min[1] - radius) / OCCUPANCY_BLOCK_SIZE;
+		int fromZ = Math.max(0, z - min[2] - radius) / OCCUPANCY_BLOCK_SIZE;
+		int toX = Math.min(dim[0] - 1, x - min[0] + radius) / OCCUPANCY_BLOCK_SIZE;
+		int toY = Math.min(dim[1] - 1, y - min[1] + radius) / OCCUPANCY_BLOCK_SIZE;
+		int toZ = Math.min(dim[2] - 1, z - min[2] + radius) / OCCUPANCY_BLOCK_SIZE;
+		int count = 0;
+		for(int bx = fromX; bx <= toX; bx++) {
+			for(int by = fromY; by <= toY; by++) {
+				int b = (bx * occupancyDim[1] + by) * occupancyDim[2];
+				for(int bz = fromZ; bz <= toZ; bz++) {
+					count += occupancy[b + bz];
+				}
+			}
+			if(count > 1) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Number of steps mol moves by in its next move: a power of two if
+	 * nothing is within reach of it during that many steps, 1 otherwise.
+	 * Only reads the distance transform, the occupancy and mol, so moves
+	 * of different molecules may be decided concurrently.
+	 */
+	public int getJumpSteps(Molecule mol) {
+		MovementState state = mol.getMovementState();
+		if((state != MovementState.RANDOM_WALK) && (state != MovementState.PACKET_WALK)) {
+			return 1;
+		}
+		int reach = ((state == MovementState.RANDOM_WALK) ? randomWalk : packetWalk).reach;
+		if(reach == 0) {
+			return 1;
+		}
+		Position pos = mol.getPosition();
+		int free = distance[block(pos.getX(), pos.getY(), pos.getZ())] & 0xff;
+		int steps = maxJump;
+		// the jump must not reach an obstacle, and with collisions must stay clear of
+		// any other molecule or domain, which may be up to 2 * maxJump steps away by then
+		while((steps > 1) && (getRadius(steps, reach) >= free)) {
+			steps /= 2;
+		}
+		if((steps > 1) && usingCollisions && isCrowded(pos.getX(), pos.getY(), pos.getZ(), getRadius(steps, reach))) {
+			return 1;
+		}
+		return steps;
+	}
+
+	// How far from a molecule nothing may be for it to jump by steps steps
+	private int getRadius(int steps, int reach) {
+		return usingCollisions ? (steps + 2 * maxJump) * reach + 1 : steps * reach;
+	}
+
+	/**
+	 * @param steps Number of steps of the jump, a power of two of at least 2, see getJumpSteps
+	 * @return where mol is after steps steps of its random walk
+	 */
+	public Position jump(Molecule mol, int steps) {
+		Jumps jumps = (mol.getMovementState() == MovementState.RANDOM_WALK) ? randomWalk : packetWalk;
+		int level = Integer.numberOfTrailingZeros(steps) - 1;
+		RandomStream random = mol.getRandom();
+		Position pos = mol.getPosition();
+		return simulation.getMedium().getClosestPosition(pos.getX() + jumps.draw(level, 0, random),
+				pos.getY() + jumps.draw(level, 1, random), pos.getZ() + jumps.draw(level, 2, random));
+	}
+
+	/**
+	 * Distributions of the displacement along each axis after 2, 4, 8...
+	 * steps of a kind of random walk, self convolutions of the distribution
+	 * of a single step (see FirstPassageTable.stepWeights).
+	 */
+	private class Jumps {
+		// cumulative[level][axis][i] is the probability of moving by at most lowest[level][axis] + i
+		// in 2^(level + 1) steps, and guide[level][axis][j] the first i where it exceeds j / its length,
+		// so drawing a displacement scans one or two entries instead of searching them all
+		private final double[][][] cumulative;
+		private final int[][][] guide;
+		private final int[][] lowest;
+		// largest move along any axis in one step
+		private final int reach;
+
+		Jumps(double[] delta) {
+			int levels = Math.max(0, Integer.numberOfTrailingZeros(maxJump));
+			cumulative = new double[levels][3][];
+			guide = new int[levels][3][];
+			lowest = new int[levels][3];
+			double[][] weights = new double[3][];
+			int maxReach = 0;
+			for(int axis = 0; axis < 3; axis++) {
+				int low = FirstPassageTable.stepWeights(delta[axis], weights, axis);
+				maxReach = Math.max(maxReach, Math.max(-low, low + weights[axis].length - 1));
+				double[] w = weights[axis];
+				for(int level = 0; level < levels; level++) {
+					w = convolve(w, w);
+					low *= 2;
+					double[] c = new double[w.length];
+					double sum = 0.0;
+					for(int i = 0; i < w.length; i++) {
+						sum += w[i];
+						c[i] = sum;
+					}
+					c[c.length - 1] = 1.0;
+					int[] g = new int[c.length];
+					for(int j = 0, i = 0; j < g.length; j++) {
+						while(c[i] <= (double) j / g.length) {
+							i++;
+						}
+						g[j] = i;
+					}
+					cumulative[level][axis] = c;
+					guide[level][axis] = g;
+					lowest[level][axis] = low;
+				}
+			}
+			reach = maxReach;
+		}
+
+		private double[] convolve(double[] a, double[] b) {
+			double[] c = new double[a.length + b.length - 1];
+			for(int i = 0; i < a.length; i++) {
+				for(int j = 0; j < b.length; j++) {
+					c[i + j] += a[i] * b[j];
+				}
+			}
+			return c;
+		}
+
+		// Displacement along axis after 2^(level + 1) steps
+		int draw(int level, int axis, RandomStream random) {
+			double[] c = cumulative[level][axis];
+			double u = random.nextDouble();
+			int i = guide[level][axis][(int) (u * c.length)];
+			while(c[i] <= u) {
+				i++;
+			}
+			return lowest[level][axis] + i;
+		}
+	}
+}
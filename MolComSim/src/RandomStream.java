@@ -0,0 +1,114 @@
+/**
+ * A fast, non-synchronized stream of pseudo random numbers
+ * using the xoshiro256** generator.
+ * 
+ * Unlike java.util.Random (and Math.random()) it is not shared, so 
+ * it must only be used by one thread at a time, and unlike 
+ * SplittableRandom its state can be read and restored, so a 
+ * simulation can be saved and resumed exactly.
+ */
+
+public class RandomStream {
+
+	private static final double DOUBLE_UNIT = 0x1.0p-53;
+	private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+	private long s0;
+	private long s1;
+	private long s2;
+	private long s3;
+
+	/**
+	 * @param seed Streams created with the same seed produce the same numbers
+	 */
+	public RandomStream(long seed) {
+		// expand the seed with SplitMix64, as recommended for xoshiro generators,
+		// which also guarantees the state is never all zero.
+		long x = seed;
+		s0 = mix(x += GOLDEN_GAMMA);
+		s1 = mix(x += GOLDEN_GAMMA);
+		s2 = mix(x += GOLDEN_GAMMA);
+		s3 = mix(x += GOLDEN_GAMMA);
+	}
+
+	/**
+	 * Restores a stream from a state returned by getState
+	 */
+	public RandomStream(long[] state) {
+		setState(state);
+	}
+
+	/**
+	 * SplitMix64 finalizer, scrambles all bits of z
+	 */
+	public static long mix(long z) {
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		return z ^ (z >>> 31);
+	}
+
+	/**
+	 * Combines two values into a seed, for deriving independent
+	 * streams from one seed (e.g. one per replicate or per purpose)
+	 */
+	public static long mix(long seed, long streamId) {
+		return mix(seed + mix(streamId + GOLDEN_GAMMA));
+	}
+
+	public long nextLong() {
+		long result = Long.rotateLeft(s1 * 5, 7) * 9;
+		long t = s1 << 17;
+		s2 ^= s0;
+		s3 ^= s1;
+		s1 ^= s2;
+		s0 ^= s3;
+		s2 ^= t;
+		s3 = Long.rotateLeft(s3, 45);
+		return result;
+	}
+
+	// uniformly distributed in [0, 1)
+	public double nextDouble() {
+		return (nextLong() >>> 11) * DOUBLE_UNIT;
+	}
+
+	// uniformly distributed in [0, bound)
+	public int nextInt(int bound) {
+		if(bound <= 0) {
+			throw new IllegalArgumentException("Invalid argument: " + bound + 
+					" to RandomStream.nextInt");
+		}
+		long r = nextLong() >>> 33;
+		long m = r * bound;
+		int low = (int) m & Integer.MAX_VALUE;
+		if(low < bound) {
+			// reject the values that would make the result biased
+			int threshold = (Integer.MAX_VALUE - bound + 1) % bound;
+			while(low < threshold) {
+				r = nextLong() >>> 33;
+				m = r * bound;
+				low = (int) m & Integer.MAX_VALUE;
+			}
+		}
+		return (int) (m >>> 31);
+	}
+
+	/**
+	 * @return a new stream, statistically independent of this one,
+	 *  this stream advances by one number
+	 */
+	public RandomStream split() {
+		return new RandomStream(mix(nextLong(), GOLDEN_GAMMA));
+	}
+
+	public long[] getState() {
+		return new long[] {s0, s1, s2, s3};
+	}
+
+	public void setState(long[] state) {
+		s0 = state[0];
+		s1 = state[1];
+		s2 = state[2];
+		s3 = state[3];
+	}
+}
@@ -0,0 +1,111 @@
+/**
+ * Checks that replicates run concurrently by the ReplicateRunner write
+ * their trajectory logs and time series to files of their own, exactly
+ * as if each had been run alone.
+ *
+ * The simulation given on the command line is run as replicates, with
+ * its trajectory recorded and its time series sampled to a temporary
+ * directory.  Then each replicate is run again on its own, with the same
+ * seed, and its log is compared record by record, and its time series
+ * line by line, with the ones written while the replicates ran
+ * together.  Results go to a temporary results file, so the batch files
+ * are left alone.  Use a params file with collisions, so the replicates
+ * take different paths.  Prints the number of records compared, or throws
+ * an IllegalStateException at the first difference.
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+public class ReplicateOutputCheck {
+
+	/** Runs the simulation given by the remaining command line arguments
+	 *
+	 *  @param args -replicates: <number of runs>, -threads: <number of concurrent runs>,
+	 *   followed by any of the MolComSim command line arguments
+	 */
+	public static void main(String[] args) throws InterruptedException, ExecutionException, IOException {
+		int numReplicates = 4;
+		int numThreads = 4;
+		ArrayList<String> simArgs = new ArrayList<String>();
+		for(int i = 0; i < args.length; i++) {
+			if(args[i].equals("-replicates:")) {
+				numReplicates = Integer.parseInt(args[++i]);
+			} else if(args[i].equals("-threads:")) {
+				numThreads = Integer.parseInt(args[++i]);
+			} else {
+				simArgs.add(args[i]);
+			}
+		}
+		SimulationParams simParams = new SimulationParams(simArgs.toArray(new String[simArgs.size()]));
+		File dir = Files.createTempDirectory("replicate_check").toFile();
+		simParams.setResultsFileName(new File(dir, "results.txt").getPath());
+		simParams.setTrajectoryFileName(new File(dir, "together").getPath());
+		simParams.setTimeSeriesFileName(new File(dir, "together.csv").getPath());
+		try {
+			new ReplicateRunner(simParams, numReplicates, numThreads).run();
+			long numRecords = 0;
+			long numSamples = 0;
+			for(int i = 0; i < numReplicates; i++) {
+				SimulationParams aloneParams = new SimulationParams(simParams);
+				aloneParams.setBatchRun(true);
+				aloneParams.setSeed(RandomStream.mix(simParams.getSeed(), i));
+				aloneParams.setTrajectoryFileName(new File(dir, "alone." + i).getPath());
+				aloneParams.setTimeSeriesFileName(new File(dir, "alone.csv." + i).getPath());
+				new MolComSim(aloneParams).run();
+				numRecords += compareTrajectories(aloneParams.getTrajectoryFileName(),
+						simParams.getTrajectoryFileName() + "." + i);
+				numSamples += compareTimeSeries(aloneParams.getTimeSeriesFileName(),
+						simParams.getTimeSeriesFileName() + "." + i);
+			}
+			System.out.println("Replicates: " + numReplicates + ", trajectory records compared: " + numRecords + 
+					", time series samples compared: " + numSamples);
+		} finally {
+			for(File file : dir.listFiles()) {
+				file.delete();
+			}
+			dir.delete();
+		}
+	}
+
+	/**
+	 * @return the number of records of the logs, which must be the same
+	 */
+	private static long compareTrajectories(String expectedFileName, String actualFileName) throws IOException {
+		TrajectoryReader expected = new TrajectoryReader(expectedFileName);
+		TrajectoryReader actual = new TrajectoryReader(actualFileName);
+		long numRecords = 0;
+		while(expected.next()) {
+			if(!actual.next() || (actual.getStep() != expected.getStep()) || (actual.getId() != expected.getId()) ||
+					(actual.getEvent() != expected.getEvent()) || (actual.getX() != expected.getX()) ||
+					(actual.getY() != expected.getY()) || (actual.getZ() != expected.getZ())) {
+				throw new IllegalStateException(actualFileName + " differs from " + expectedFileName +
+						" at record " + numRecords);
+			}
+			numRecords++;
+		}
+		if(actual.next()) {
+			throw new IllegalStateException(actualFileName + " has more records than " + expectedFileName);
+		}
+		return numRecords;
+	}
+
+	/**
+	 * @return the number of samples of the time series, which must be the same
+	 */
+	private static long compareTimeSeries(String expectedFileName, String actualFileName) throws IOException {
+		List<String> expected = Files.readAllLines(new File(expectedFileName).toPath());
+		List<String> actual = Files.readAllLines(new File(actualFileName).toPath());
+		for(int line = 0; line < Math.max(expected.size(), actual.size()); line++) {
+			if((line >= expected.size()) || (line >= actual.size()) || !actual.get(line).equals(expected.get(line))) {
+				throw new IllegalStateException(actualFileName + " differs from " + expectedFileName +
+						" at line " + (line + 1));
+			}
+		}
+		return expected.size() - 1;
+	}
+}
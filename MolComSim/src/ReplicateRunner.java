@@ -0,0 +1,141 @@
+/**
+ * Runs several independent replicates of the same simulation
+ * concurrently inside one process, instead of launching one
+ * process per batch run, and aggregates their results in memory.
+ * 
+ * Every replicate gets its own copy of the simulation parameters
+ * and its own MolComSim instance (with its own random streams), 
+ * and runs as a batch run, so the usual batch files are still 
+ * appended to, one row per replicate, or the results file if one
+ * is given, which all replicates share.  The static geometry is built
+ * by the first replicate and shared by the others, see GeometryCache.
+ */
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class ReplicateRunner {
+
+	private final SimulationParams simParams;
+	private final int numReplicates;
+	private final int numThreads;
+
+	/**
+	 * @param params Parameters shared by all replicates, never modified
+	 * @param numReplicates How many simulations to run
+	 * @param numThreads How many simulations to run at the same time
+	 */
+	public ReplicateRunner(SimulationParams params, int numReplicates, int numThreads) {
+		this.simParams = params;
+		this.numReplicates = numReplicates;
+		this.numThreads = numThreads;
+	}
+
+	/** Runs replicates of the simulation given by the remaining command line arguments
+	 * 
+	 *  @param args -replicates: <number of runs>, -threads: <number of concurrent runs>,
+	 *   followed by any of the MolComSim command line arguments
+	 */
+	public static void main(String[] args) throws InterruptedException, ExecutionException, IOException {
+		int numReplicates = 1;
+		int numThreads = Runtime.getRuntime().availableProcessors();
+		ArrayList<String> simArgs = new ArrayList<String>();
+		for(int i = 0; i < args.length; i++) {
+			if(args[i].equals("-replicates:")) {
+				numReplicates = Integer.parseInt(args[++i]);
+			} else if(args[i].equals("-threads:")) {
+				numThreads = Integer.parseInt(args[++i]);
+			} else {
+				simArgs.add(args[i]);
+			}
+		}
+		ReplicateRunner runner = new ReplicateRunner(
+				new SimulationParams(simArgs.toArray(new String[simArgs.size()])), numReplicates, numThreads);
+		System.out.print(summarize(runner.run()));
+	}
+
+	/**
+	 * Runs all replicates, numThreads at a time
+	 * 
+	 * @return the result of each replicate, in the order they were started
+	 */
+	public ArrayList<SimulationResult> run() throws InterruptedException, ExecutionException, IOException {
+		ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+		ArrayList<Future<SimulationResult>> futures = new ArrayList<Future<SimulationResult>>();
+		final ResultsSink sink = (simParams.getResultsFileName() != null) ? 
+				new ResultsSink(simParams.getResultsFileName()) : null;
+		final GeometryCache geometryCache = new GeometryCache(simParams.getGeometryCacheDir());
+		try {
+			for(int i = 0; i < numReplicates; i++) {
+				final SimulationParams replicateParams = new SimulationParams(simParams);
+				replicateParams.setBatchRun(true);
+				// every replicate gets a different seed, derived from the seed of the params
+				replicateParams.setSeed(RandomStream.mix(simParams.getSeed(), i));
+				// and its own checkpoint, trajectory and time series files
+				if(simParams.getCheckpointFileName() != null) {
+					replicateParams.setCheckpointFileName(simParams.getCheckpointFileName() + "." + i);
+				}
+				if(simParams.getRestoreFileName() != null) {
+					replicateParams.setRestoreFileName(simParams.getRestoreFileName() + "." + i);
+				}
+				if(simParams.getTrajectoryFileName() != null) {
+					replicateParams.setTrajectoryFileName(simParams.getTrajectoryFileName() + "." + i);
+				}
+				if(simParams.getTimeSeriesFileName() != null) {
+					replicateParams.setTimeSeriesFileName(simParams.getTimeSeriesFileName() + "." + i);
+				}
+				futures.add(executor.submit(new Callable<SimulationResult>() {
+					public SimulationResult call() throws IOException {
+						return new MolComSim(replicateParams, sink, Collections.<String>emptyList(), geometryCache).run();
+					}
+				}));
+			}
+			ArrayList<SimulationResult> results = new ArrayList<SimulationResult>();
+			for(Future<SimulationResult> future : futures) {
+				results.add(future.get());
+			}
+			return results;
+		} finally {
+			executor.shutdown();
+			if(sink != null) {
+				sink.close();
+			}
+		}
+	}
+
+	/**
+	 * @param results Results of the replicates
+	 * @return a short human readable summary of the results
+	 */
+	public static String summarize(ArrayList<SimulationResult> results) {
+		int completed = 0;
+		int failures = 0;
+		long stepSum = 0;
+		int minStep = Integer.MAX_VALUE;
+		int maxStep = Integer.MIN_VALUE;
+		for(SimulationResult result : results) {
+			if(result.isAllMessagesCompleted()) {
+				completed++;
+			}
+			if(result.isFailure()) {
+				failures++;
+			}
+			stepSum += result.getLastStep();
+			minStep = Math.min(minStep, result.getLastStep());
+			maxStep = Math.max(maxStep, result.getLastStep());
+		}
+		String summary = "Replicates: " + results.size() + ", all messages completed: " + completed + 
+				", failures: " + failures + "\n";
+		if(!results.isEmpty()) {
+			summary += "Last step: mean " + ((double) stepSum / results.size()) + 
+					", min " + minStep + ", max " + maxStep + "\n";
+		}
+		return summary;
+	}
+}
@@ -0,0 +1,119 @@
+/**
+ * Turns a results file written by a ResultsSink back into the
+ * batch files the simulations would have appended to otherwise,
+ * for tools that read batch files (such as BatchFileCollator).
+ */
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+
+public class ResultsConverter {
+
+	private static final boolean APPEND_TO_FILE = true;
+
+	/**
+	 * @param args The results file, and the output file name the simulations were
+	 *  run with, which batch files are named after
+	 */
+	public static void main(String[] args) throws IOException {
+		if(args.length != 2) {
+			System.out.println("Usage: java ResultsConverter <results file> <output file name>");
+			return;
+		}
+		convert(args[0], args[1]);
+	}
+
+	/**
+	 * Appends every line of the results file to the batch files, in order.
+	 * Columns other than the batch files (seed, sweep keys) are left out.
+	 * Cells are copied to the batch files as they are read, so long lines
+	 * are never held in memory as a whole.
+	 *
+	 * @param resultsFileName The results file
+	 * @param outputFileName The output file name batch files are named after
+	 * @return the number of simulations converted
+	 */
+	public static int convert(String resultsFileName, String outputFileName) throws IOException {
+		HashMap<String, BufferedWriter> writers = new HashMap<String, BufferedWriter>();
+		HashSet<String> batchFiles = new HashSet<String>(Arrays.asList(ResultsSink.BATCH_FILES));
+		int numLines = 0;
+		try(BufferedReader reader = new BufferedReader(new FileReader(resultsFileName))) {
+			String header = reader.readLine();
+			if(header == null) {
+				return 0;
+			}
+			String[] columns = header.split(String.valueOf(ResultsSink.SEPARATOR), -1);
+			int seedColumn = Arrays.asList(columns).indexOf(ResultsSink.SEED);
+			while(true) {
+				reader.mark(1);
+				int next = reader.read();
+				if(next == -1) {
+					break;
+				}
+				if((next == '\n') || (next == '\r')) {
+					continue;
+				}
+				reader.reset();
+				// results files concatenated together repeat the header, told apart by their seed cell,
+				// which comes before the batch files
+				boolean isHeader = false;
+				int end = ResultsSink.SEPARATOR;
+				for(int i = 0; i < columns.length; i++) {
+					if(end != ResultsSink.SEPARATOR) {
+						throw new IOException("Invalid line " + (numLines + 2) + " in results file " + resultsFileName);
+					}
+					if(isHeader || !batchFiles.contains(columns[i])) {
+						StringBuilder cell = new StringBuilder();
+						end = copyCell(reader, cell);
+						isHeader |= (i == seedColumn) && cell.toString().equals(ResultsSink.SEED);
+						continue;
+					}
+					reader.mark(1);
+					next = reader.read();
+					if((next == ResultsSink.SEPARATOR) || (next == '\n') || (next == '\r') || (next == -1)) {
+						end = next;
+						continue;
+					}
+					reader.reset();
+					BufferedWriter writer = writers.get(columns[i]);
+					if(writer == null) {
+						writer = new BufferedWriter(new FileWriter(columns[i] + outputFileName, APPEND_TO_FILE));
+						writers.put(columns[i], writer);
+					}
+					end = copyCell(reader, writer);
+					writer.append('\n');
+				}
+				if(end == ResultsSink.SEPARATOR) {
+					throw new IOException("Invalid line " + (numLines + 2) + " in results file " + resultsFileName);
+				}
+				if(!isHeader) {
+					numLines++;
+				}
+			}
+		} finally {
+			for(BufferedWriter writer : writers.values()) {
+				writer.close();
+			}
+		}
+		return numLines;
+	}
+
+	/**
+	 * Copies the cell the reader is at to out
+	 *
+	 * @return what ended the cell: the separator, a line separator, or -1 at the end of the file
+	 */
+	private static int copyCell(BufferedReader reader, Appendable out) throws IOException {
+		int next;
+		while(((next = reader.read()) != -1) && (next != ResultsSink.SEPARATOR) && (next != '\n') && (next != '\r')) {
+			out.append((char) next);
+		}
+		return next;
+	}
+}
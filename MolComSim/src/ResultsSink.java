@@ -0,0 +1,222 @@
+/**
+ * A single results file that batch runs append their results to,
+ * instead of appending one row to each of the batch files.
+ *
+ * The file is tab separated, with one column per batch file and one
+ * line per simulation, under a header naming the columns.  Each cell
+ * holds the row the simulation would have appended to that batch file,
+ * or nothing if it would not have appended to it.  ResultsConverter
+ * turns a results file back into batch files.
+ *
+ * Lines are buffered and written in blocks through one file channel,
+ * under a lock on the whole file, so neither simulations sharing a
+ * sink (see ReplicateRunner) nor processes appending to the same file
+ * interleave their lines.  Rows are written straight into the buffer
+ * (see BatchRows).  A line that outgrows the buffer is written out as
+ * it goes, with the file locked until the line is complete.
+ *
+ * A sink can have key columns before the seed, such as the values of the
+ * variables of a parameter sweep (see SweepRunner), that tell apart the
+ * simulations appending to it.
+ */
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+public class ResultsSink {
+
+	// columns of the results file, named after the batch file they stand for
+	public static final String SEED = "seed";
+	public static final String[] BATCH_FILES = {"batch_", "adjust_batch_", "collision_batch_",
+			"retransmission_batch_", "ptime_batch_", "message_batch_"};
+	static final char SEPARATOR = '\t';
+
+	private static final int FLUSH_SIZE = 1 << 16;
+	// held while writing, file locks do not keep out other channels of the same process
+	private static final ReentrantLock FILE_LOCK = new ReentrantLock();
+
+	private final String fileName;
+	private final List<String> keyColumns;
+	private final FileChannel channel;
+	private final StringBuilder pending = new StringBuilder();
+	// lock on the file while a line longer than the buffer is written, null otherwise
+	private FileLock lock = null;
+
+	// Appends to the buffered lines, writing them out when the buffer is full
+	private final Appendable line = new Appendable() {
+		public Appendable append(CharSequence csq) throws IOException {
+			pending.append(csq);
+			return spill();
+		}
+
+		public Appendable append(CharSequence csq, int start, int end) throws IOException {
+			pending.append(csq, start, end);
+			return spill();
+		}
+
+		public Appendable append(char c) throws IOException {
+			pending.append(c);
+			return spill();
+		}
+
+		private Appendable spill() throws IOException {
+			if(pending.length() >= FLUSH_SIZE) {
+				if(lock == null) {
+					lockFile();
+				}
+				writePending();
+			}
+			return this;
+		}
+	};
+
+	public ResultsSink(String fileName) throws IOException {
+		this(fileName, Collections.<String>emptyList());
+	}
+
+	/**
+	 * @param fileName The results file, appended to
+	 * @param keyColumns Names of the columns every line starts with, before the seed
+	 */
+	public ResultsSink(String fileName, List<String> keyColumns) throws IOException {
+		this.fileName = fileName;
+		this.keyColumns = keyColumns;
+		this.channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+	}
+
+	public String getFileName() {
+		return fileName;
+	}
+
+	public static String getHeader() {
+		return getHeader(Collections.<String>emptyList());
+	}
+
+	public static String getHeader(List<String> keyColumns) {
+		StringBuilder header = new StringBuilder();
+		for(String key : keyColumns) {
+			header.append(key).append(SEPARATOR);
+		}
+		header.append(SEED);
+		for(String batchFile : BATCH_FILES) {
+			header.append(SEPARATOR).append(batchFile);
+		}
+		return header.append('\n').toString();
+	}
+
+	/**
+	 * Adds the results of one simulation
+	 *
+	 * @param seed The seed the simulation was run with
+	 * @param rows The rows the simulation appends to the batch files
+	 */
+	public void append(long seed, BatchRows rows) throws IOException {
+		append(Collections.<String>emptyList(), seed, rows);
+	}
+
+	/**
+	 * Adds the results of one simulation
+	 *
+	 * @param keys The value of each key column of the sink
+	 * @param seed The seed the simulation was run with
+	 * @param rows The rows the simulation appends to the batch files
+	 */
+	public synchronized void append(List<String> keys, long seed, BatchRows rows) throws IOException {
+		if(keys.size() != keyColumns.size()) {
+			throw new IllegalArgumentException("Expected " + keyColumns.size() + " keys, got " + keys.size());
+		}
+		List<String> batchFiles = rows.getBatchFiles();
+		try {
+			for(String key : keys) {
+				line.append(key).append(SEPARATOR);
+			}
+			line.append(String.valueOf(seed));
+			for(String batchFile : BATCH_FILES) {
+				line.append(SEPARATOR);
+				if(batchFiles.contains(batchFile)) {
+					rows.writeRow(batchFile, line);
+				}
+			}
+			line.append('\n');
+			if(lock != null) {
+				writePending();
+			}
+		} finally {
+			if(lock != null) {
+				unlockFile();
+			}
+		}
+		if(pending.length() >= FLUSH_SIZE) {
+			flush();
+		}
+	}
+
+	// Writes all buffered lines to the file
+	public synchronized void flush() throws IOException {
+		if(pending.length() == 0) {
+			return;
+		}
+		lockFile();
+		try {
+			writePending();
+		} finally {
+			unlockFile();
+		}
+	}
+
+	public synchronized void close() throws IOException {
+		try {
+			flush();
+		} finally {
+			channel.close();
+		}
+	}
+
+	// Locks the file, and writes the header if nothing was written to it yet
+	private void lockFile() throws IOException {
+		FILE_LOCK.lock();
+		try {
+			lock = channel.lock();
+			if(channel.size() == 0) {
+				write(getHeader(keyColumns));
+			}
+		} catch(IOException e) {
+			if(lock != null) {
+				lock.release();
+				lock = null;
+			}
+			FILE_LOCK.unlock();
+			throw e;
+		}
+	}
+
+	private void unlockFile() throws IOException {
+		try {
+			lock.release();
+		} finally {
+			lock = null;
+			FILE_LOCK.unlock();
+		}
+	}
+
+	private void writePending() throws IOException {
+		write(pending);
+		pending.setLength(0);
+	}
+
+	private void write(CharSequence chars) throws IOException {
+		ByteBuffer bytes = ByteBuffer.wrap(chars.toString().getBytes(StandardCharsets.UTF_8));
+		while(bytes.hasRemaining()) {
+			channel.write(bytes);
+		}
+	}
+}
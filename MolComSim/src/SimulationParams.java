@@ -8,6 +8,7 @@ import java.io.BufferedReader;
 import java.io.FileReader;
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 
 public class SimulationParams {
@@ -44,13 +45,54 @@ public class SimulationParams {
 	private boolean isWait;
 	private boolean isAdjust;
 	private boolean isFEC = false;
+	private MediumType mediumType = MediumType.HASHMAP;
+	private int numThreads = 1;
+	private MoleculeLayout moleculeLayout = MoleculeLayout.OBJECTS;
+	private CollisionDispatch collisionDispatch = CollisionDispatch.FLAT;
+	private WalkRandom walkRandom = WalkRandom.STREAMS;
+	private boolean firstPassage = false;
+	private int firstPassageHorizon = 100000;
+	private int collisionHistogramBins = 65536;
+	// lattice cell size of the far field of the hybrid mode, 0 for no hybrid mode, and the
+	// distance from nanomachines within which molecules are moved one by one
+	private int hybridCellSize = 0;
+	private int hybridShell = 5;
+	// most steps a molecule far from obstacles moves by at once, below 2 for single steps only
+	private int adaptiveStepMax = 0;
+	// file the moves of molecules are recorded to, null not to record them, every how many 
+	// molecules one is recorded, and the types of molecules recorded
+	private String trajectoryFileName = null;
+	private int trajectorySampling = 1;
+	private MoleculeType[] trajectoryTypes = MoleculeType.values();
+	// file the state of the simulation is sampled to, null not to sample it, and every how many steps
+	private String timeSeriesFileName = null;
+	private int timeSeriesInterval = 100;
+	// directory the static geometry is saved to and loaded from, null not to save it
+	private String geometryCacheDir = null;
+	// where to save the simulation every checkpointInterval steps, and what to resume it from
+	private String checkpointFileName = null;
+	private int checkpointInterval = 0;
+	private String restoreFileName = null;
+	// single file batch runs append their results to instead of the batch files
+	private String resultsFileName = null;
+	// values of the params file and command line arguments, kept to read them again for each point of a sweep
+	private String[] commandLineArgs = new String[0];
+	private ArrayList<String> paramsLines = new ArrayList<String>();
+	private ParameterSweep sweep = null;
+	// the lines of the params file the static geometry of the medium is built from
+	private String geometryKey = "";
+	// seed for all random numbers of the simulation, a new one is picked for every run if not given.
+	private long seed = RandomStream.mix(System.nanoTime(), SEED_SOURCE.incrementAndGet());
 	
 	private static final int ARQ_CODE_LENGTH = 2;
+	// makes default seeds of params created at the same time differ
+	private static final AtomicLong SEED_SOURCE = new AtomicLong();
 	// movement defaults to be used if movement type not specified in the params file.
-	private static HashMap<MoleculeType, MoleculeMovementType> movementDefaults = 
+	private HashMap<MoleculeType, MoleculeMovementType> movementDefaults = 
 			new HashMap<MoleculeType, MoleculeMovementType>(); 
 	
 	public SimulationParams(String[] args) {
+		commandLineArgs = args.clone();
 		setInitialMovementDefaults();
 		parseArgs(args);
 		try {
@@ -61,7 +103,92 @@ public class SimulationParams {
 		}
 	}
 
-	public static MoleculeMovementType getMovementDefault(MoleculeType mt) {
+	/** Parameters of one point of the sweep defined by the params 
+	 *  file of sweepParams, see ParameterSweep.
+	 * 
+	 * @param sweepParams Parameters read from a params file defining a sweep
+	 * @param point The value of each variable of the sweep
+	 */
+	public SimulationParams(SimulationParams sweepParams, Map<String, String> point) {
+		commandLineArgs = sweepParams.commandLineArgs;
+		setInitialMovementDefaults();
+		parseArgs(commandLineArgs);
+		paramsLines = sweepParams.paramsLines;
+		readParams(point);
+	}
+
+	/** Copies all parameters of other, so that a simulation using the copy 
+	 *  can change them (adaptive change of molecule params) without
+	 *  affecting simulations using other or any other copy of it.
+	 * 
+	 * @param other The params to copy
+	 */
+	public SimulationParams(SimulationParams other) {
+		paramsFileName = other.paramsFileName;
+		mediumLength = other.mediumLength;
+		mediumWidth = other.mediumWidth;
+		mediumHeight = other.mediumHeight;
+		outputFileName = other.outputFileName;
+		transmitterParams = new ArrayList<>(other.transmitterParams);
+		receiverParams = new ArrayList<>(other.receiverParams);
+		intermediateNodeParams = new ArrayList<>(other.intermediateNodeParams);
+		microtubuleParams = new ArrayList<>(other.microtubuleParams);
+		fecParams = other.fecParams;
+		numMessages = other.numMessages;
+		maxNumSteps = other.maxNumSteps;
+		numRetransmissions = other.numRetransmissions;
+		retransmitWaitTime = other.retransmitWaitTime;
+		numRequiredPackets = other.numRequiredPackets;
+		packetDiameter = other.packetDiameter;
+		useCollisions = other.useCollisions;
+		decomposing = other.decomposing;
+		assembling = other.assembling;
+		useAcknowledgements = other.useAcknowledgements;
+		for(MoleculeParams mp : other.moleculeParams) {
+			moleculeParams.add(new MoleculeParams(mp));
+		}
+		molRandMoveX = other.molRandMoveX;
+		molRandMoveY = other.molRandMoveY;
+		molRandMoveZ = other.molRandMoveZ;
+		packetStepLengthX = other.packetStepLengthX;
+		packetStepLengthY = other.packetStepLengthY;
+		packetStepLengthZ = other.packetStepLengthZ;
+		velRail = other.velRail;
+		probDRail = other.probDRail;
+		batchRun = other.batchRun;
+		isWait = other.isWait;
+		isAdjust = other.isAdjust;
+		isFEC = other.isFEC;
+		mediumType = other.mediumType;
+		numThreads = other.numThreads;
+		moleculeLayout = other.moleculeLayout;
+		collisionDispatch = other.collisionDispatch;
+		walkRandom = other.walkRandom;
+		firstPassage = other.firstPassage;
+		firstPassageHorizon = other.firstPassageHorizon;
+		collisionHistogramBins = other.collisionHistogramBins;
+		hybridCellSize = other.hybridCellSize;
+		hybridShell = other.hybridShell;
+		adaptiveStepMax = other.adaptiveStepMax;
+		trajectoryFileName = other.trajectoryFileName;
+		trajectorySampling = other.trajectorySampling;
+		trajectoryTypes = other.trajectoryTypes;
+		timeSeriesFileName = other.timeSeriesFileName;
+		timeSeriesInterval = other.timeSeriesInterval;
+		geometryCacheDir = other.geometryCacheDir;
+		checkpointFileName = other.checkpointFileName;
+		checkpointInterval = other.checkpointInterval;
+		restoreFileName = other.restoreFileName;
+		resultsFileName = other.resultsFileName;
+		commandLineArgs = other.commandLineArgs;
+		paramsLines = other.paramsLines;
+		sweep = other.sweep;
+		geometryKey = other.geometryKey;
+		seed = other.seed;
+		movementDefaults.putAll(other.movementDefaults);
+	}
+
+	public MoleculeMovementType getMovementDefault(MoleculeType mt) {
 		return movementDefaults.get(mt);
 	}
 	
@@ -112,6 +239,17 @@ public class SimulationParams {
 				setBatchRun(true);
 			} else if(args[i].equals("-ptime")) {
 				setWait(true);
+			} else if(args[i].equals("-checkpoint:")) {
+				checkpointFileName = args[++i];
+				checkpointInterval = Integer.parseInt(args[++i]);
+				if(checkpointInterval < 1) {
+					throw new IllegalArgumentException("Invalid checkpoint interval: " + checkpointInterval + 
+							" as command line argument.");
+				}
+			} else if(args[i].equals("-restore:")) {
+				restoreFileName = args[++i];
+			} else if(args[i].equals("-results:")) {
+				resultsFileName = args[++i];
 			} else {
 				throw new IllegalArgumentException("Invalid argument: " + args[i] + 
 						" as command line argument.");
@@ -140,10 +278,44 @@ public class SimulationParams {
 		BufferedReader br = new BufferedReader(new FileReader(fName));
 		
 		while((line = br.readLine())!=null){
+			paramsLines.add(line);
+		}
+		br.close();
+		readParams(null);
+	}
+
+	/* Reads params from the lines of the params file.  Lines using sweep
+	   variables are skipped unless the value of each variable is given
+	   by point, see ParameterSweep. */
+	private void readParams(Map<String, String> point) {
+		boolean usesVariables = false;
+		StringBuilder geometry = new StringBuilder();
+		for(String line : paramsLines){
+			if(ParameterSweep.usesVariables(line)) {
+				if(point == null) {
+					usesVariables = true;
+					continue;
+				}
+				line = ParameterSweep.substitute(line, point);
+			}
 			String param = "";
 			if(!line.equals(""))
 				param = line.substring(line.indexOf(" ")+1).trim();
-			if(line.startsWith("stepLengthX")){
+			if(line.startsWith("mediumDimension") || line.startsWith("transmitter") || line.startsWith("receiver") || 
+					line.startsWith("intermediateNode") || line.startsWith("microtubuleParams")) {
+				geometry.append(line.trim()).append('\n');
+			}
+			if(line.startsWith("sweepReplicates")){
+				if(point == null) {
+					getSweep().setReplicates(Integer.parseInt(param));
+				}
+			}
+			else if(line.startsWith("sweep")){
+				if(point == null) {
+					getSweep().addVariable(param);
+				}
+			}
+			else if(line.startsWith("stepLengthX")){
 				molRandMoveX = Double.parseDouble(param);
 			}
 			else if(line.startsWith("stepLengthY")){
@@ -248,14 +420,82 @@ public class SimulationParams {
 								new Scanner(
 										line.substring(line.indexOf(" ")))));
 			}
+			else if(line.startsWith("seed")) {
+				seed = Long.parseLong(param);
+			}
+			else if(line.startsWith("numThreads")) {
+				numThreads = Integer.parseInt(param);
+			}
+			else if(line.startsWith("mediumType")) {
+				mediumType = MediumType.getMediumType(param);
+			}
+			else if(line.startsWith("moleculeLayout")) {
+				moleculeLayout = MoleculeLayout.getMoleculeLayout(param);
+			}
+			else if(line.startsWith("collisionDispatch")) {
+				collisionDispatch = CollisionDispatch.getCollisionDispatch(param);
+			}
+			else if(line.startsWith("walkRandom")) {
+				walkRandom = WalkRandom.getWalkRandom(param);
+			}
+			else if(line.startsWith("firstPassageHorizon")) {
+				firstPassageHorizon = Integer.parseInt(param);
+			}
+			else if(line.startsWith("firstPassage")) {
+				firstPassage = (Integer.parseInt(param) == 1) ? true : false;
+			}
+			else if(line.startsWith("collisionHistogramBins")) {
+				collisionHistogramBins = Integer.parseInt(param);
+			}
+			else if(line.startsWith("hybridCellSize")) {
+				hybridCellSize = Integer.parseInt(param);
+			}
+			else if(line.startsWith("hybridShell")) {
+				hybridShell = Integer.parseInt(param);
+			}
+			else if(line.startsWith("adaptiveStepMax")) {
+				adaptiveStepMax = Integer.parseInt(param);
+			}
+			else if(line.startsWith("trajectoryFile")) {
+				trajectoryFileName = param;
+			}
+			else if(line.startsWith("trajectorySampling")) {
+				trajectorySampling = Integer.parseInt(param);
+			}
+			else if(line.startsWith("trajectoryTypes")) {
+				String[] names = param.split(",");
+				trajectoryTypes = new MoleculeType[names.length];
+				for(int i = 0; i < names.length; i++) {
+					trajectoryTypes[i] = MoleculeType.getMoleculeType(names[i]);
+				}
+			}
+			else if(line.startsWith("timeSeriesFile")) {
+				timeSeriesFileName = param;
+			}
+			else if(line.startsWith("timeSeriesInterval")) {
+				timeSeriesInterval = Integer.parseInt(param);
+			}
+			else if(line.startsWith("geometryCacheDir")) {
+				geometryCacheDir = param;
+			}
 			else if(line.startsWith("outputFile") && !(param.equals("Off"))) {
 				outputFileName = param;
 			}
 		}
-		br.close();
+		if(usesVariables && (sweep == null)) {
+			throw new IllegalArgumentException("Params file " + paramsFileName + " uses sweep variables but defines no sweep.");
+		}
+		geometryKey = geometry.toString();
 		setMolDefaultsIfNeeded();
 	}
 
+	private ParameterSweep getSweep() {
+		if(sweep == null) {
+			sweep = new ParameterSweep();
+		}
+		return sweep;
+	}
+
 	private void setMolDefaultsIfNeeded() {
 		if(getInformationMoleculeParams().isEmpty()) {
 			moleculeParams.add(
@@ -285,11 +525,171 @@ public class SimulationParams {
 	public int getMediumHeight() {
 		return mediumHeight;
 	}
+	
+	public MediumType getMediumType() {
+		return mediumType;
+	}
+
+	public void setMediumType(MediumType mediumType) {
+		this.mediumType = mediumType;
+	}
+	
+	public int getNumThreads() {
+		return numThreads;
+	}
+	
+	public MoleculeLayout getMoleculeLayout() {
+		return moleculeLayout;
+	}
+
+	public void setMoleculeLayout(MoleculeLayout moleculeLayout) {
+		this.moleculeLayout = moleculeLayout;
+	}
+
+	public CollisionDispatch getCollisionDispatch() {
+		return collisionDispatch;
+	}
+
+	public void setCollisionDispatch(CollisionDispatch collisionDispatch) {
+		this.collisionDispatch = collisionDispatch;
+	}
+
+	public WalkRandom getWalkRandom() {
+		return walkRandom;
+	}
+
+	public void setWalkRandom(WalkRandom walkRandom) {
+		this.walkRandom = walkRandom;
+	}
+	
+	public boolean isFirstPassage() {
+		return firstPassage;
+	}
+	
+	public void setFirstPassage(boolean firstPassage) {
+		this.firstPassage = firstPassage;
+	}
+	
+	public int getFirstPassageHorizon() {
+		return firstPassageHorizon;
+	}
+	
+	public int getCollisionHistogramBins() {
+		return collisionHistogramBins;
+	}
+
+	public void setCollisionHistogramBins(int collisionHistogramBins) {
+		this.collisionHistogramBins = collisionHistogramBins;
+	}
+
+	public int getHybridCellSize() {
+		return hybridCellSize;
+	}
+
+	public void setHybridCellSize(int hybridCellSize) {
+		this.hybridCellSize = hybridCellSize;
+	}
+
+	public int getHybridShell() {
+		return hybridShell;
+	}
+
+	public void setHybridShell(int hybridShell) {
+		this.hybridShell = hybridShell;
+	}
+
+	public int getAdaptiveStepMax() {
+		return adaptiveStepMax;
+	}
+
+	public void setAdaptiveStepMax(int adaptiveStepMax) {
+		this.adaptiveStepMax = adaptiveStepMax;
+	}
+
+	public String getTrajectoryFileName() {
+		return trajectoryFileName;
+	}
+
+	public void setTrajectoryFileName(String trajectoryFileName) {
+		this.trajectoryFileName = trajectoryFileName;
+	}
+
+	public int getTrajectorySampling() {
+		return trajectorySampling;
+	}
+
+	public MoleculeType[] getTrajectoryTypes() {
+		return trajectoryTypes;
+	}
+
+	public String getTimeSeriesFileName() {
+		return timeSeriesFileName;
+	}
+
+	public void setTimeSeriesFileName(String timeSeriesFileName) {
+		this.timeSeriesFileName = timeSeriesFileName;
+	}
+
+	public int getTimeSeriesInterval() {
+		return timeSeriesInterval;
+	}
+
+	public String getGeometryCacheDir() {
+		return geometryCacheDir;
+	}
+
+	public String getCheckpointFileName() {
+		return checkpointFileName;
+	}
+
+	public void setCheckpointFileName(String checkpointFileName) {
+		this.checkpointFileName = checkpointFileName;
+	}
+
+	public int getCheckpointInterval() {
+		return checkpointInterval;
+	}
+
+	public String getRestoreFileName() {
+		return restoreFileName;
+	}
+
+	public void setRestoreFileName(String restoreFileName) {
+		this.restoreFileName = restoreFileName;
+	}
+
+	public String getResultsFileName() {
+		return resultsFileName;
+	}
+
+	public void setResultsFileName(String resultsFileName) {
+		this.resultsFileName = resultsFileName;
+	}
+
+	// The sweep defined by the params file, or null if it defines none
+	public ParameterSweep getParameterSweep() {
+		return sweep;
+	}
+
+	// Simulations with the same key have the same static geometry, see GeometryCache
+	public String getGeometryKey() {
+		return geometryKey;
+	}
+	
+	public long getSeed() {
+		return seed;
+	}
+	
+	public void setSeed(long seed) {
+		this.seed = seed;
+	}
 
 	public ArrayList<MoleculeParams> getAllMoleculeParams() {
 		return moleculeParams;
 	}
 
+	// The filtered getters build a new list on every call, running simulations
+	// use the ones of their SimulationPlan instead
 	public ArrayList<MoleculeParams> getNoiseMoleculeParams() {
 		ArrayList<MoleculeParams> noiseMParams = new ArrayList<MoleculeParams>();
 		for (MoleculeParams mp : moleculeParams){
@@ -412,6 +812,10 @@ public class SimulationParams {
 	public int getMaxNumSteps() {
 		return maxNumSteps;
 	}
+	
+	public void setMaxNumSteps(int maxNumSteps) {
+		this.maxNumSteps = maxNumSteps;
+	}
 
 	public int getNumMessages() {
 		return numMessages;
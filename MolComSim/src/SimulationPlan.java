@@ -0,0 +1,207 @@
+/**
+ * The parameters a simulation reads while it runs, resolved once from
+ * its SimulationParams when it starts, so moving molecules never goes
+ * back to the params: step lengths, flags, the molecule params of each
+ * type, and the collision handlers molecules are given.
+ *
+ * Every field is final and collision handlers hold no state of their
+ * own, so one plan (and one handler of each kind) serves every molecule
+ * of the simulation.  Molecule params are the ones of the simulation
+ * params, so adaptive changes to their number of molecules still apply.
+ */
+
+import java.util.ArrayList;
+
+public class SimulationPlan {
+
+	// maximum x, y, z step of molecules on a random walk, and of packets (FEC)
+	private final double randomWalkDeltaX;
+	private final double randomWalkDeltaY;
+	private final double randomWalkDeltaZ;
+	private final double packetWalkDeltaX;
+	private final double packetWalkDeltaY;
+	private final double packetWalkDeltaZ;
+	private final double probDRail;
+	private final double packetVolume;
+
+	private final boolean usingCollisions;
+	private final boolean decomposing;
+	private final int decomposingMode;
+	private final boolean fec;
+	private final int fecPacketNum;
+	private final boolean hasMicrotubules;
+	private final CollisionDispatch collisionDispatch;
+	// molecules on a random walk draw their steps from CounterRandom
+	private final boolean counterRandom;
+
+	// filtered once, never to be modified
+	private final ArrayList<MoleculeParams> noiseMoleculeParams;
+	private final ArrayList<MoleculeParams> informationMoleculeParams;
+	private final ArrayList<MoleculeParams> acknowledgmentMoleculeParams;
+
+	// molecules on a random walk, or released from a microtubule by derailing
+	private final CollisionHandler walkHandler;
+	// molecules released onto a microtubule
+	private final CollisionHandler onTubuleHandler;
+	// molecules on a random walk reaching a microtubule
+	private final CollisionHandler reattachHandler;
+	// molecules knocked off a microtubule by a collision
+	private final CollisionHandler knockedOffHandler;
+	// molecules that do not move
+	private final CollisionHandler stillHandler;
+
+	public SimulationPlan(SimulationParams params) {
+		// crossed on purpose, as the movement controllers always were: random walks step by packetStepLength, packets by molRandMove
+		randomWalkDeltaX = params.getPacketStepLengthX();
+		randomWalkDeltaY = params.getPacketStepLengthY();
+		randomWalkDeltaZ = params.getPacketStepLengthZ();
+		packetWalkDeltaX = params.getMolRandMoveX();
+		packetWalkDeltaY = params.getMolRandMoveY();
+		packetWalkDeltaZ = params.getMolRandMoveZ();
+		probDRail = params.getProbDRail();
+		packetVolume = Math.pow(params.getPacketDiameter(), 3);
+
+		usingCollisions = params.isUsingCollisions();
+		decomposing = params.isDecomposing();
+		decomposingMode = params.getDecomposing();
+		fec = params.isFEC();
+		fecPacketNum = fec ? params.getFECParams().getPacketNum() : 0;
+		hasMicrotubules = !params.getMicrotubuleParams().isEmpty();
+		collisionDispatch = params.getCollisionDispatch();
+		counterRandom = (params.getWalkRandom() == WalkRandom.COUNTER);
+
+		noiseMoleculeParams = params.getNoiseMoleculeParams();
+		informationMoleculeParams = params.getInformationMoleculeParams();
+		acknowledgmentMoleculeParams = params.getAcknowledgmentMoleculeParams();
+
+		stillHandler = dispatch(new SimpleCollisionHandler());
+		knockedOffHandler = dispatch(new StandardCollisionHandler(new SimpleCollisionHandler()));
+		if(!usingCollisions) {
+			walkHandler = stillHandler;
+			onTubuleHandler = stillHandler;
+			reattachHandler = dispatch(new NullCollisionHandler(new SimpleCollisionHandler()));
+		} else if(decomposing) {
+			walkHandler = dispatch(new DecomposingCollisionHandler(new SimpleCollisionHandler(), decomposingMode));
+			onTubuleHandler = dispatch(new OnTubuleCollisionHandler(
+					new DecomposingCollisionHandler(new SimpleCollisionHandler(), decomposingMode)));
+			reattachHandler = onTubuleHandler;
+		} else {
+			walkHandler = knockedOffHandler;
+			onTubuleHandler = dispatch(new OnTubuleCollisionHandler(new SimpleCollisionHandler()));
+			reattachHandler = onTubuleHandler;
+		}
+	}
+
+	/**
+	 * @param chain A chain of collision decorators
+	 * @return the handler molecules are given for chain: chain itself with 
+	 *  collisionDispatch DECORATORS, or the FlatCollisionHandler doing the same
+	 */
+	public CollisionHandler dispatch(CollisionHandler chain) {
+		if(collisionDispatch == CollisionDispatch.FLAT) {
+			FlatCollisionHandler flat = FlatCollisionHandler.flatten(chain);
+			if(flat != null) {
+				return flat;
+			}
+		}
+		return chain;
+	}
+
+	public double getRandomWalkDeltaX() {
+		return randomWalkDeltaX;
+	}
+
+	public double getRandomWalkDeltaY() {
+		return randomWalkDeltaY;
+	}
+
+	public double getRandomWalkDeltaZ() {
+		return randomWalkDeltaZ;
+	}
+
+	public double getPacketWalkDeltaX() {
+		return packetWalkDeltaX;
+	}
+
+	public double getPacketWalkDeltaY() {
+		return packetWalkDeltaY;
+	}
+
+	public double getPacketWalkDeltaZ() {
+		return packetWalkDeltaZ;
+	}
+
+	public double getProbDRail() {
+		return probDRail;
+	}
+
+	// Volume of an information molecule carrying a packet (FEC)
+	public double getPacketVolume() {
+		return packetVolume;
+	}
+
+	public boolean isUsingCollisions() {
+		return usingCollisions;
+	}
+
+	public boolean isDecomposing() {
+		return decomposing;
+	}
+
+	public int getDecomposingMode() {
+		return decomposingMode;
+	}
+
+	public boolean isFEC() {
+		return fec;
+	}
+
+	// Number of packets each message is sent in (FEC), 0 without FEC
+	public int getFECPacketNum() {
+		return fecPacketNum;
+	}
+
+	public boolean hasMicrotubules() {
+		return hasMicrotubules;
+	}
+
+	public ArrayList<MoleculeParams> getNoiseMoleculeParams() {
+		return noiseMoleculeParams;
+	}
+
+	public ArrayList<MoleculeParams> getInformationMoleculeParams() {
+		return informationMoleculeParams;
+	}
+
+	public ArrayList<MoleculeParams> getAcknowledgmentMoleculeParams() {
+		return acknowledgmentMoleculeParams;
+	}
+
+	public CollisionDispatch getCollisionDispatch() {
+		return collisionDispatch;
+	}
+
+	public boolean isCounterRandom() {
+		return counterRandom;
+	}
+
+	public CollisionHandler getWalkHandler() {
+		return walkHandler;
+	}
+
+	public CollisionHandler getOnTubuleHandler() {
+		return onTubuleHandler;
+	}
+
+	public CollisionHandler getReattachHandler() {
+		return reattachHandler;
+	}
+
+	public CollisionHandler getKnockedOffHandler() {
+		return knockedOffHandler;
+	}
+
+	public CollisionHandler getStillHandler() {
+		return stillHandler;
+	}
+}
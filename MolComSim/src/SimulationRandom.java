@@ -0,0 +1,55 @@
+/**
+ * All of the random numbers used by one simulation come from here.
+ * 
+ * Everything is derived from a single seed, in independent streams: one 
+ * per purpose (collisions, noise placement...), and one per molecule (so a 
+ * molecule's movement does not depend on how many other molecules moved 
+ * before it, or on which thread).  The same seed always gives the same
+ * simulation, whatever the number of threads.
+ */
+
+public class SimulationRandom {
+
+	public enum Purpose {
+		// splits off the stream of each new molecule, in order of creation
+		MOLECULES,
+		// collision probabilities, drawn while committing moves
+		COLLISIONS,
+		// positions of noise molecules
+		NOISE_PLACEMENT,
+		// molecules put back into the medium by the hybrid mode
+		HYBRID
+	}
+
+	private final long seed;
+	private final RandomStream[] streams;
+
+	public SimulationRandom(long seed) {
+		this.seed = seed;
+		Purpose[] purposes = Purpose.values();
+		streams = new RandomStream[purposes.length];
+		for(Purpose purpose : purposes) {
+			streams[purpose.ordinal()] = new RandomStream(RandomStream.mix(seed, purpose.ordinal()));
+		}
+	}
+
+	public long getSeed() {
+		return seed;
+	}
+
+	/**
+	 * @return the stream shared by everything using random numbers for purpose,
+	 *  only to be used by one thread at a time.
+	 */
+	public RandomStream getStream(Purpose purpose) {
+		return streams[purpose.ordinal()];
+	}
+
+	/**
+	 * @return a new stream for a single molecule. Molecules must be 
+	 *  given streams in a deterministic order (e.g. order of creation).
+	 */
+	public RandomStream newMoleculeStream() {
+		return streams[Purpose.MOLECULES.ordinal()].split();
+	}
+}
@@ -0,0 +1,86 @@
+/**
+ * The outcome of a single simulation run,
+ * kept in memory so results of many runs
+ * can be aggregated without going through files
+ */
+
+public class SimulationResult {
+
+	private final long seed;
+	private final int lastStep;
+	private final int finishStep;
+	private final int messagesCompleted;
+	private final int numMessages;
+	private final boolean failure;
+	private final int txRetransmissions;
+	private final int rxRetransmissions;
+	private final long collisions;
+	private final int decompositions;
+
+	public SimulationResult(long seed, int lastStep, int finishStep, int messagesCompleted, int numMessages,
+			boolean failure, int txRetransmissions, int rxRetransmissions, long collisions, int decompositions) {
+		this.seed = seed;
+		this.lastStep = lastStep;
+		this.finishStep = finishStep;
+		this.messagesCompleted = messagesCompleted;
+		this.numMessages = numMessages;
+		this.failure = failure;
+		this.txRetransmissions = txRetransmissions;
+		this.rxRetransmissions = rxRetransmissions;
+		this.collisions = collisions;
+		this.decompositions = decompositions;
+	}
+
+	// Seed the simulation was run with, running again with it gives the same result
+	public long getSeed() {
+		return seed;
+	}
+
+	// Last step processed, the value written to the batch file
+	public int getLastStep() {
+		return lastStep;
+	}
+
+	// Step at which the last message completed or the simulation ran out of time
+	public int getFinishStep() {
+		return finishStep;
+	}
+
+	public int getMessagesCompleted() {
+		return messagesCompleted;
+	}
+
+	public int getNumMessages() {
+		return numMessages;
+	}
+
+	public boolean isAllMessagesCompleted() {
+		return messagesCompleted >= numMessages;
+	}
+
+	// true if a nanomachine ran out of retransmissions
+	public boolean isFailure() {
+		return failure;
+	}
+
+	public int getTxRetransmissions() {
+		return txRetransmissions;
+	}
+
+	public int getRxRetransmissions() {
+		return rxRetransmissions;
+	}
+
+	public long getCollisions() {
+		return collisions;
+	}
+
+	public int getDecompositions() {
+		return decompositions;
+	}
+
+	public String toString() {
+		return "Last step: " + lastStep + ", messages completed: " + messagesCompleted + 
+				" out of " + numMessages + ", retransmissions: " + (txRetransmissions + rxRetransmissions);
+	}
+}
@@ -0,0 +1,352 @@
+/**
+ * Where the objects that never move (nanomachines and microtubules)
+ * are in a medium, built once as they are added at startup.
+ *
+ * Every cell of the medium has a byte tag telling whether a receiver,
+ * a transmitter and/or a microtubule runs through it, and the index of
+ * a node telling which ones.  Cells covered by the same objects share
+ * the same node, so the node table stays as small as the number of
+ * distinct overlaps, and finding the receiver at a cell is a single
+ * array read instead of a search through the objects at that position.
+ *
+ * When several objects of a kind cover a cell, the one added first is
+ * the one found, as when searching the objects at the position in order.
+ *
+ * Nodes refer to objects by the order they were first added in, so the
+ * cells and nodes (the Layout) can be shared by simulations with the
+ * same nanomachines and microtubules, see GeometryCache.  A simulation
+ * using a shared layout adds its objects in the same order as the one
+ * that built it, which only records the order of the objects.  Layouts
+ * can also be saved to a file, see GeometryCache, for later runs to load.
+ */
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+
+public class StaticGeometry {
+
+	public static final byte EMPTY = 0;
+	public static final byte RECEIVER = 1;
+	public static final byte TRANSMITTER = 2;
+	public static final byte MICROTUBULE = 4;
+
+	private static final int NONE = -1;
+
+	// cells and nodes, possibly shared with other simulations
+	private Layout layout;
+	// the arrays of layout, read on every lookup
+	private byte[] tags;
+	private int[] nodes;
+	private int[] nodeReceiver;
+	private int[] nodeTransmitter;
+	private int[] nodeMicrotubule;
+
+	// objects of this simulation, by the order they were first added in
+	private final ArrayList<NanoMachine> nanoMachines = new ArrayList<NanoMachine>();
+	private final ArrayList<Microtubule> microtubules = new ArrayList<Microtubule>();
+	private final IdentityHashMap<Object, Integer> ids = new IdentityHashMap<Object, Integer>();
+	// whether the cells and nodes were built by another simulation
+	private final boolean prebuilt;
+
+	/**
+	 * Geometry of an empty medium of the given dimensions, covering
+	 * all the positions getClosestPosition keeps molecules within.
+	 */
+	public StaticGeometry(int length, int height, int width) {
+		setLayout(new Layout(length, height, width));
+		prebuilt = false;
+	}
+
+	private void setLayout(Layout layout) {
+		this.layout = layout;
+		tags = layout.tags;
+		nodes = layout.nodes;
+		nodeReceiver = layout.nodeReceiver;
+		nodeTransmitter = layout.nodeTransmitter;
+		nodeMicrotubule = layout.nodeMicrotubule;
+	}
+
+	/**
+	 * Geometry using the cells and nodes built by another simulation with
+	 * the same medium dimensions, nanomachines and microtubules.
+	 */
+	public StaticGeometry(Layout shared) {
+		setLayout(shared);
+		prebuilt = true;
+	}
+
+	/**
+	 * Whether the cells and nodes were built by another simulation, in
+	 * which case adding a position inside the medium only records the
+	 * order of the object, and register does as much.
+	 */
+	public boolean isPrebuilt() {
+		return prebuilt;
+	}
+
+	/**
+	 * The cells and nodes of this geometry, which can no longer be
+	 * changed once shared.  To be called once all objects are added.
+	 */
+	public Layout share() {
+		if(!layout.isShared()) {
+			layout.freeze(nanoMachines.size(), microtubules.size());
+		} else if((nanoMachines.size() != layout.numNanoMachines) || (microtubules.size() != layout.numMicrotubules)) {
+			throw new IllegalStateException("Objects added do not match the shared geometry");
+		}
+		return layout;
+	}
+
+	// Linearized index of the cell at (x, y, z), or -1 if outside of the medium.
+	public int cellIndex(int x, int y, int z) {
+		return layout.cellIndex(x, y, z);
+	}
+
+	public boolean isInside(int x, int y, int z) {
+		return cellIndex(x, y, z) != -1;
+	}
+
+	/**
+	 * Records the order of obj among the objects added, as adding its first
+	 * position does.  Enough for a nanomachine or microtubule entirely inside
+	 * the medium if the geometry is prebuilt.
+	 */
+	public void register(Object obj) {
+		if((obj instanceof NanoMachine) || (obj instanceof Microtubule)) {
+			idOf(obj);
+		}
+	}
+
+	// The order obj was first added in, among objects of its kind
+	private int idOf(Object obj) {
+		Integer id = ids.get(obj);
+		if(id == null) {
+			if(obj instanceof NanoMachine) {
+				id = nanoMachines.size();
+				nanoMachines.add((NanoMachine) obj);
+			} else {
+				id = microtubules.size();
+				microtubules.add((Microtubule) obj);
+			}
+			ids.put(obj, id);
+		}
+		return id;
+	}
+
+	/**
+	 * Records that obj covers pos, if obj is a nanomachine or a microtubule
+	 * and pos is inside the medium.  Not thread safe, meant to be called
+	 * only while setting the simulation up.
+	 */
+	public void add(Object obj, Position pos) {
+		if(!(obj instanceof NanoMachine) && !(obj instanceof Microtubule)) {
+			return;
+		}
+		int id = idOf(obj);
+		if(layout.isShared()) {
+			return;
+		}
+		int cell = cellIndex(pos.getX(), pos.getY(), pos.getZ());
+		if(cell == -1) {
+			return;
+		}
+		int node = nodes[cell];
+		int rx = nodeReceiver[node];
+		int tx = nodeTransmitter[node];
+		int mt = nodeMicrotubule[node];
+		if(obj instanceof NanoMachine) {
+			NanoMachine nm = (NanoMachine) obj;
+			if(rx == NONE && nm.hasReceiver()) {
+				rx = id;
+			}
+			if(tx == NONE && nm.hasTransmitter()) {
+				tx = id;
+			}
+		} else if(mt == NONE) {
+			mt = id;
+		}
+		nodes[cell] = layout.findNode(rx, tx, mt);
+		if(nodeReceiver != layout.nodeReceiver) {
+			// the node table grew
+			setLayout(layout);
+		}
+		byte tag = EMPTY;
+		if(rx != NONE) {
+			tag |= RECEIVER;
+		}
+		if(tx != NONE) {
+			tag |= TRANSMITTER;
+		}
+		if(mt != NONE) {
+			tag |= MICROTUBULE;
+		}
+		tags[cell] = tag;
+	}
+
+	// Tag of the cell at index cell, see cellIndex
+	public byte getTag(int cell) {
+		return tags[cell];
+	}
+
+	// First nanomachine with a receiver at the cell at index cell, or null
+	public NanoMachine getReceiver(int cell) {
+		return ((tags[cell] & RECEIVER) == 0) ? null : nanoMachines.get(nodeReceiver[nodes[cell]]);
+	}
+
+	// First nanomachine with a transmitter at the cell at index cell, or null
+	public NanoMachine getTransmitter(int cell) {
+		return ((tags[cell] & TRANSMITTER) == 0) ? null : nanoMachines.get(nodeTransmitter[nodes[cell]]);
+	}
+
+	// First microtubule running through the cell at index cell, or null
+	public Microtubule getMicrotubule(int cell) {
+		return ((tags[cell] & MICROTUBULE) == 0) ? null : microtubules.get(nodeMicrotubule[nodes[cell]]);
+	}
+
+	/**
+	 * The tag and node of every cell, and the objects (by the order they
+	 * were first added in) of every node.  Never modified once shared.
+	 */
+	public static class Layout {
+		// lowest coordinate and number of cells in each dimension
+		private final int minX;
+		private final int minY;
+		private final int minZ;
+		private final int dimX;
+		private final int dimY;
+		private final int dimZ;
+
+		// per-cell tag and node, indexed by cellIndex(x, y, z)
+		private final byte[] tags;
+		private final int[] nodes;
+
+		// node table, node 0 is the node of empty cells
+		private int[] nodeReceiver = new int[16];
+		private int[] nodeTransmitter = new int[16];
+		private int[] nodeMicrotubule = new int[16];
+		private int numNodes = 0;
+		// finds the node of a combination of objects while adding objects, null once shared
+		private HashMap<Long, Integer> nodeIndex = new HashMap<Long, Integer>();
+
+		// objects of each kind the layout was built with
+		private int numNanoMachines;
+		private int numMicrotubules;
+
+		Layout(int length, int height, int width) {
+			minX = length / -2;
+			minY = width / -2;
+			minZ = height / -2;
+			dimX = (length / 2) - minX + 1;
+			dimY = (width / 2) - minY + 1;
+			dimZ = (height / 2) - minZ + 1;
+			tags = new byte[dimX * dimY * dimZ];
+			nodes = new int[dimX * dimY * dimZ];
+			findNode(NONE, NONE, NONE);
+		}
+
+		int cellIndex(int x, int y, int z) {
+			int cx = x - minX;
+			int cy = y - minY;
+			int cz = z - minZ;
+			if(cx < 0 || cx >= dimX || cy < 0 || cy >= dimY || cz < 0 || cz >= dimZ) {
+				return -1;
+			}
+			return (cx * dimY + cy) * dimZ + cz;
+		}
+
+		// Index of the node of a combination of objects, added if need be
+		int findNode(int rx, int tx, int mt) {
+			// ids are far below 2^21
+			long key = (((rx + 1L) << 42) | ((tx + 1L) << 21)) | (mt + 1L);
+			Integer index = nodeIndex.get(key);
+			if(index != null) {
+				return index;
+			}
+			if(numNodes == nodeReceiver.length) {
+				nodeReceiver = Arrays.copyOf(nodeReceiver, numNodes * 2);
+				nodeTransmitter = Arrays.copyOf(nodeTransmitter, numNodes * 2);
+				nodeMicrotubule = Arrays.copyOf(nodeMicrotubule, numNodes * 2);
+			}
+			nodeReceiver[numNodes] = rx;
+			nodeTransmitter[numNodes] = tx;
+			nodeMicrotubule[numNodes] = mt;
+			nodeIndex.put(key, numNodes);
+			return numNodes++;
+		}
+
+		boolean isShared() {
+			return nodeIndex == null;
+		}
+
+		// Whether the layout covers a medium of the given dimensions
+		public boolean hasDimensions(int length, int height, int width) {
+			return (minX == length / -2) && (minY == width / -2) && (minZ == height / -2) && 
+					(dimX == (length / 2) - minX + 1) && (dimY == (width / 2) - minY + 1) && 
+					(dimZ == (height / 2) - minZ + 1);
+		}
+
+		void freeze(int numNanoMachines, int numMicrotubules) {
+			this.numNanoMachines = numNanoMachines;
+			this.numMicrotubules = numMicrotubules;
+			nodeIndex = null;
+		}
+
+		// Reads a shared layout written by write
+		Layout(ByteBuffer in) {
+			minX = in.getInt();
+			minY = in.getInt();
+			minZ = in.getInt();
+			dimX = in.getInt();
+			dimY = in.getInt();
+			dimZ = in.getInt();
+			numNanoMachines = in.getInt();
+			numMicrotubules = in.getInt();
+			numNodes = in.getInt();
+			nodeReceiver = new int[numNodes];
+			nodeTransmitter = new int[numNodes];
+			nodeMicrotubule = new int[numNodes];
+			in.asIntBuffer().get(nodeReceiver);
+			in.position(in.position() + numNodes * 4);
+			in.asIntBuffer().get(nodeTransmitter);
+			in.position(in.position() + numNodes * 4);
+			in.asIntBuffer().get(nodeMicrotubule);
+			in.position(in.position() + numNodes * 4);
+			tags = new byte[dimX * dimY * dimZ];
+			nodes = new int[tags.length];
+			in.asIntBuffer().get(nodes);
+			in.position(in.position() + nodes.length * 4);
+			in.get(tags);
+			nodeIndex = null;
+		}
+
+		// Number of bytes write takes
+		int getByteSize() {
+			return 9 * 4 + numNodes * 3 * 4 + nodes.length * 4 + tags.length;
+		}
+
+		// Writes a shared layout, see Layout(ByteBuffer)
+		void write(ByteBuffer out) {
+			out.putInt(minX);
+			out.putInt(minY);
+			out.putInt(minZ);
+			out.putInt(dimX);
+			out.putInt(dimY);
+			out.putInt(dimZ);
+			out.putInt(numNanoMachines);
+			out.putInt(numMicrotubules);
+			out.putInt(numNodes);
+			out.asIntBuffer().put(nodeReceiver, 0, numNodes);
+			out.position(out.position() + numNodes * 4);
+			out.asIntBuffer().put(nodeTransmitter, 0, numNodes);
+			out.position(out.position() + numNodes * 4);
+			out.asIntBuffer().put(nodeMicrotubule, 0, numNodes);
+			out.position(out.position() + numNodes * 4);
+			out.asIntBuffer().put(nodes);
+			out.position(out.position() + nodes.length * 4);
+			out.put(tags);
+		}
+	}
+}
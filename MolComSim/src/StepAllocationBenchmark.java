@@ -0,0 +1,75 @@
+/**
+ * Measures how many bytes the simulation allocates per molecule step,
+ * to check that moving molecules around does not create garbage.
+ * 
+ * The same simulation (same seed) is run twice on the current thread,
+ * once for a number of steps and once for twice as many.  Both runs are
+ * identical up to the end of the shorter one, so the difference between
+ * the bytes they allocate, divided by the difference between the number
+ * of molecule steps they take, is the allocation rate of the steps 
+ * themselves, without what is allocated to set the simulation up.
+ * Molecules created during the extra steps are counted as well.
+ * 
+ * Only meaningful with numThreads 1, as bytes allocated by other threads
+ * are not counted.
+ */
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+
+public class StepAllocationBenchmark {
+
+	/** Runs the simulation given by the remaining command line arguments
+	 * 
+	 *  @param args -steps: <number of steps of the shorter run>, -warmups: <number of 
+	 *   runs before measuring>, followed by any of the MolComSim command line arguments
+	 */
+	public static void main(String[] args) throws IOException {
+		int numSteps = 1000;
+		int numWarmups = 3;
+		ArrayList<String> simArgs = new ArrayList<String>();
+		for(int i = 0; i < args.length; i++) {
+			if(args[i].equals("-steps:")) {
+				numSteps = Integer.parseInt(args[++i]);
+			} else if(args[i].equals("-warmups:")) {
+				numWarmups = Integer.parseInt(args[++i]);
+			} else {
+				simArgs.add(args[i]);
+			}
+		}
+		SimulationParams simParams = new SimulationParams(simArgs.toArray(new String[simArgs.size()]));
+		simParams.setBatchRun(true);
+		for(int i = 0; i < numWarmups; i++) {
+			measure(simParams, numSteps);
+		}
+		long[] shortRun = measure(simParams, numSteps);
+		long[] longRun = measure(simParams, numSteps * 2);
+		long moleculeSteps = longRun[1] - shortRun[1];
+		System.out.println("Molecule steps: " + shortRun[1] + " in " + numSteps + " steps, " + 
+				longRun[1] + " in " + (numSteps * 2) + " steps");
+		if(moleculeSteps > 0) {
+			System.out.println("Bytes allocated per molecule step: " + 
+				((double) (longRun[0] - shortRun[0]) / moleculeSteps));
+		} else {
+			System.out.println("The simulation ended before " + numSteps + " steps, nothing to measure");
+		}
+	}
+
+	/**
+	 * @return the bytes allocated by the current thread while running the simulation
+	 *  for at most numSteps steps, and the number of molecule steps taken
+	 */
+	private static long[] measure(SimulationParams params, int numSteps) throws IOException {
+		SimulationParams runParams = new SimulationParams(params);
+		runParams.setMaxNumSteps(numSteps);
+		com.sun.management.ThreadMXBean threads = 
+				(com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long threadId = Thread.currentThread().getId();
+		MolComSim sim = new MolComSim(runParams);
+		long before = threads.getThreadAllocatedBytes(threadId);
+		sim.run();
+		long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+		return new long[] {allocated, sim.getStepEngine().getMoleculeSteps()};
+	}
+}
@@ -0,0 +1,133 @@
+/**
+ * Moves all moving molecules forward by one simulation step in two phases.
+ * 
+ * In the propose phase every molecule decides where it would like to go.
+ * A proposal only reads the (static during this phase) medium and only 
+ * modifies its own molecule, drawing from the molecule's own random stream,
+ * so proposals are made concurrently on a ForkJoin pool when more than one
+ * thread is configured.
+ * 
+ * In the commit phase the proposals are applied one molecule at a time in
+ * the order of the molecule store: collision handlers run, the medium is 
+ * updated and molecules are absorbed by receivers.  Two molecules competing 
+ * for the same position are therefore always resolved in favor of the one 
+ * with the lower index, and the outcome of a step does not depend on the 
+ * number of threads used.  Molecules that die during the commit phase
+ * (absorbed or decomposed) are not committed.
+ */
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+public class StepEngine {
+
+	// Below this many molecules per task, proposals are made serially
+	private static final int PROPOSALS_PER_TASK = 512;
+
+	private final ForkJoinPool pool;
+	private final MolComSim simulation;
+	// maximum x, y, z step of random walking molecules, see MoleculeStore.proposeMoves
+	private final double[] randomWalkDelta;
+	private final double[] packetWalkDelta;
+	private final boolean hasMicrotubules;
+	private final boolean counterRandom;
+	// number of molecule moves proposed so far
+	private long moleculeSteps = 0;
+
+	public StepEngine(int numThreads, MolComSim sim) {
+		pool = (numThreads > 1) ? new ForkJoinPool(numThreads) : null;
+		simulation = sim;
+		SimulationPlan plan = sim.getPlan();
+		randomWalkDelta = new double[] {plan.getRandomWalkDeltaX(), 
+				plan.getRandomWalkDeltaY(), plan.getRandomWalkDeltaZ()};
+		packetWalkDelta = new double[] {plan.getPacketWalkDeltaX(), 
+				plan.getPacketWalkDeltaY(), plan.getPacketWalkDeltaZ()};
+		hasMicrotubules = plan.hasMicrotubules();
+		counterRandom = plan.isCounterRandom();
+	}
+
+	/**
+	 * Proposes and then commits the next move of every molecule 
+	 * 
+	 * @param molecules The molecules to move, in commit order
+	 */
+	public void step(MoleculeStore molecules) {
+		int numMolecules = molecules.size();
+		ProtectiveDomains domains = simulation.getProtectiveDomains();
+		if(domains != null) {
+			domains.beginStep(molecules);
+		}
+		moleculeSteps += numMolecules;
+		if((pool == null) || (numMolecules <= PROPOSALS_PER_TASK)) {
+			propose(molecules, 0, numMolecules);
+		} else {
+			pool.invoke(new ProposeTask(molecules, 0, numMolecules));
+		}
+		int step = simulation.getSimStep();
+		for(int i = 0; i < numMolecules; i++) {
+			if((domains != null) && molecules.isResting(i, step)) {
+				moleculeSteps--;
+				continue;
+			}
+			Molecule mol = molecules.get(i);
+			if(!mol.isDead()) {
+				mol.commitMove();
+			}
+		}
+	}
+
+	private void propose(MoleculeStore molecules, int from, int to) {
+		if(simulation.getProtectiveDomains() != null) {
+			// jumps are decided by the molecules themselves, molecules sitting 
+			// out steps after a jump are skipped without touching them
+			int step = simulation.getSimStep();
+			for(int i = from; i < to; i++) {
+				if(!molecules.isResting(i, step)) {
+					molecules.get(i).proposeMove();
+				}
+			}
+			return;
+		}
+		molecules.proposeMoves(from, to, simulation.getSimStep(), counterRandom, randomWalkDelta, packetWalkDelta,
+				simulation.getMedium(), hasMicrotubules);
+	}
+
+	public long getMoleculeSteps() {
+		return moleculeSteps;
+	}
+
+	void setMoleculeSteps(long moleculeSteps) {
+		this.moleculeSteps = moleculeSteps;
+	}
+
+	public void shutdown() {
+		if(pool != null) {
+			pool.shutdown();
+		}
+	}
+
+	// Splits the range of molecules in half until small enough to propose serially
+	private class ProposeTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+		private final MoleculeStore molecules;
+		private final int from;
+		private final int to;
+
+		ProposeTask(MoleculeStore molecules, int from, int to) {
+			this.molecules = molecules;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if(to - from <= PROPOSALS_PER_TASK) {
+				propose(molecules, from, to);
+			} else {
+				int middle = (from + to) >>> 1;
+				invokeAll(new ProposeTask(molecules, from, middle), new ProposeTask(molecules, middle, to));
+			}
+		}
+	}
+}
@@ -0,0 +1,168 @@
+/**
+ * Runs every point of the parameter sweep defined in a params file
+ * (see ParameterSweep), each point as many times as sweepReplicates, 
+ * inside one process.
+ * 
+ * Simulations run on a work stealing pool, so a few long simulations
+ * do not leave the other threads idle.  Simulations with the same 
+ * static geometry (medium dimensions, nanomachines and microtubules)
+ * share it instead of each building its own, see GeometryCache, and
+ * are submitted together, so a geometry is kept only while needed.
+ * 
+ * All simulations append their results to one results file (see 
+ * ResultsSink), the one given by -results: or sweep_results.txt, 
+ * whose lines start with the value of each variable and the replicate.
+ */
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class SweepRunner {
+
+	public static final String DEFAULT_RESULTS_FILE = "sweep_results.txt";
+	public static final String REPLICATE = "replicate";
+
+	private final SimulationParams simParams;
+	private final ParameterSweep sweep;
+	private final int numThreads;
+	private final GeometryCache geometryCache;
+
+	/**
+	 * @param params Parameters read from a params file defining a sweep, never modified
+	 * @param numThreads How many simulations to run at the same time
+	 */
+	public SweepRunner(SimulationParams params, int numThreads) {
+		if(params.getParameterSweep() == null) {
+			throw new IllegalArgumentException("The params file defines no sweep");
+		}
+		this.simParams = params;
+		this.sweep = params.getParameterSweep();
+		this.numThreads = numThreads;
+		this.geometryCache = new GeometryCache(params.getGeometryCacheDir());
+	}
+
+	/** Runs the sweep defined by the params file given by the remaining command line arguments
+	 * 
+	 *  @param args -threads: <number of concurrent runs>, followed by any of 
+	 *   the MolComSim command line arguments
+	 */
+	public static void main(String[] args) throws InterruptedException, ExecutionException, IOException {
+		int numThreads = Runtime.getRuntime().availableProcessors();
+		ArrayList<String> simArgs = new ArrayList<String>();
+		for(int i = 0; i < args.length; i++) {
+			if(args[i].equals("-threads:")) {
+				numThreads = Integer.parseInt(args[++i]);
+			} else {
+				simArgs.add(args[i]);
+			}
+		}
+		SweepRunner runner = new SweepRunner(new SimulationParams(simArgs.toArray(new String[simArgs.size()])), numThreads);
+		ArrayList<SimulationResult> results = runner.run();
+		int numReplicates = runner.sweep.getReplicates();
+		for(int point = 0; point < runner.sweep.getNumPoints(); point++) {
+			System.out.println(runner.sweep.getPoint(point));
+			System.out.print(ReplicateRunner.summarize(
+					new ArrayList<SimulationResult>(results.subList(point * numReplicates, (point + 1) * numReplicates))));
+		}
+	}
+
+	/**
+	 * Runs all simulations of the sweep, numThreads at a time
+	 * 
+	 * @return the result of each simulation, by point then by replicate
+	 */
+	public ArrayList<SimulationResult> run() throws InterruptedException, ExecutionException, IOException {
+		String resultsFileName = (simParams.getResultsFileName() != null) ? 
+				simParams.getResultsFileName() : DEFAULT_RESULTS_FILE;
+		ArrayList<String> keyColumns = sweep.getVariableNames();
+		keyColumns.add(REPLICATE);
+		final ResultsSink sink = new ResultsSink(resultsFileName, keyColumns);
+		ArrayList<Callable<SimulationResult>> simulations = new ArrayList<Callable<SimulationResult>>();
+		// indexes of the simulations of each geometry
+		LinkedHashMap<String, ArrayList<Integer>> byGeometry = new LinkedHashMap<String, ArrayList<Integer>>();
+		for(int point = 0; point < sweep.getNumPoints(); point++) {
+			LinkedHashMap<String, String> values = sweep.getPoint(point);
+			SimulationParams pointParams = new SimulationParams(simParams, values);
+			for(int replicate = 0; replicate < sweep.getReplicates(); replicate++) {
+				String key = pointParams.getGeometryKey();
+				if(!byGeometry.containsKey(key)) {
+					byGeometry.put(key, new ArrayList<Integer>());
+				}
+				byGeometry.get(key).add(simulations.size());
+				simulations.add(createSimulation(pointParams, values, point, replicate, sink));
+			}
+		}
+		ExecutorService executor = Executors.newWorkStealingPool(numThreads);
+		try {
+			ArrayList<Future<SimulationResult>> futures = new ArrayList<Future<SimulationResult>>(
+					Collections.<Future<SimulationResult>>nCopies(simulations.size(), null));
+			for(Map.Entry<String, ArrayList<Integer>> geometry : byGeometry.entrySet()) {
+				final String key = geometry.getKey();
+				final AtomicInteger remaining = new AtomicInteger(geometry.getValue().size());
+				for(int index : geometry.getValue()) {
+					final Callable<SimulationResult> simulation = simulations.get(index);
+					futures.set(index, executor.submit(new Callable<SimulationResult>() {
+						public SimulationResult call() throws Exception {
+							try {
+								return simulation.call();
+							} finally {
+								// the last simulation of a geometry frees it
+								if(remaining.decrementAndGet() == 0) {
+									geometryCache.remove(key);
+								}
+							}
+						}
+					}));
+				}
+			}
+			ArrayList<SimulationResult> results = new ArrayList<SimulationResult>();
+			for(Future<SimulationResult> future : futures) {
+				results.add(future.get());
+			}
+			return results;
+		} finally {
+			executor.shutdown();
+			sink.close();
+		}
+	}
+
+	// One replicate of the point of the sweep with the given params
+	private Callable<SimulationResult> createSimulation(SimulationParams pointParams, Map<String, String> values,
+			int point, int replicate, final ResultsSink sink) {
+		final SimulationParams params = new SimulationParams(pointParams);
+		params.setBatchRun(true);
+		// every simulation gets a different seed, derived from the seed of the params
+		params.setSeed(RandomStream.mix(RandomStream.mix(simParams.getSeed(), point), replicate));
+		// and its own checkpoint, trajectory and time series files
+		String suffix = "." + point + "." + replicate;
+		if(simParams.getCheckpointFileName() != null) {
+			params.setCheckpointFileName(simParams.getCheckpointFileName() + suffix);
+		}
+		if(simParams.getRestoreFileName() != null) {
+			params.setRestoreFileName(simParams.getRestoreFileName() + suffix);
+		}
+		if(simParams.getTrajectoryFileName() != null) {
+			params.setTrajectoryFileName(simParams.getTrajectoryFileName() + suffix);
+		}
+		if(simParams.getTimeSeriesFileName() != null) {
+			params.setTimeSeriesFileName(simParams.getTimeSeriesFileName() + suffix);
+		}
+		final List<String> keys = new ArrayList<String>(values.values());
+		keys.add(String.valueOf(replicate));
+		return new Callable<SimulationResult>() {
+			public SimulationResult call() throws IOException {
+				return new MolComSim(params, sink, keys, geometryCache).run();
+			}
+		};
+	}
+}
@@ -0,0 +1,226 @@
+/**
+ * Samples the state of a simulation every few steps into a CSV file, one
+ * line per sample: the step, the number of live molecules of each type,
+ * of moving molecules, of molecules on microtubules, of cells holding
+ * molecules, the collisions since the previous sample, and the number of
+ * live molecules carrying each message.  Molecules are live from their
+ * release until they are absorbed or destroyed, in the medium or not
+ * (waiting to be absorbed in fast mode, or parked in hybrid mode).
+ *
+ * Molecules are counted as they are released and as they are absorbed or
+ * destroyed (see entered and left), and collisions and occupied cells are counted by the
+ * collision statistics and the medium anyway, so sampling only reads
+ * counters.  Molecules on microtubules are counted at sampling time
+ * instead, since molecules attach to microtubules while proposing their
+ * moves, possibly on several threads.
+ *
+ * Samples are kept in a preallocated ring of RING_ROWS rows of longs, in
+ * two halves: once a half is full it is written to the file by a
+ * background thread while the other half fills up.  If that write is not
+ * over when the other half is full as well, the simulation waits for it.
+ */
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+public class TimeSeriesSampler {
+
+	private static final int RING_ROWS = 1024;
+	private static final String[] FIXED_COLUMNS = {"step", "INFO", "ACK", "NOISE", "moving",
+			"onMicrotubule", "occupiedCells", "collisions"};
+
+	private final String fileName;
+	private final int interval;
+	private final int numColumns;
+	private int nextSampleStep = 0;
+	private long lastCollisions = 0;
+
+	// live molecules by type, and by message id (1 to numMessages)
+	private final int[] typeCounts = new int[MoleculeType.values().length];
+	private final int[] messageCounts;
+
+	// RING_ROWS rows of numColumns values, the half being filled and its number of rows
+	private final long[] ring;
+	private int half = 0;
+	private int numRows = 0;
+
+	private final BufferedWriter out;
+	private final ExecutorService writer;
+	private Future<?> pendingWrite = null;
+
+	/**
+	 * Starts a new file of samples
+	 *
+	 * @param fileName The file to write the samples to
+	 * @param interval Number of steps between two samples
+	 * @param numMessages The number of messages the simulation sends
+	 */
+	public TimeSeriesSampler(String fileName, int interval, int numMessages) throws IOException {
+		this.fileName = fileName;
+		this.interval = Math.max(1, interval);
+		this.messageCounts = new int[numMessages + 1];
+		this.numColumns = FIXED_COLUMNS.length + numMessages;
+		this.ring = new long[RING_ROWS * numColumns];
+		this.out = new BufferedWriter(new FileWriter(fileName));
+		StringBuilder header = new StringBuilder();
+		for(String column : FIXED_COLUMNS) {
+			header.append(column).append(',');
+		}
+		for(int msgId = 1; msgId <= numMessages; msgId++) {
+			header.append("msg_").append(msgId).append(',');
+		}
+		header.setLength(header.length() - 1);
+		out.write(header.append('\n').toString());
+		this.writer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "time series writer");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	// Counts mol, which has just been released
+	public void entered(Molecule mol) {
+		typeCounts[mol.getMoleculeType().ordinal()]++;
+		Integer msgId = mol.getMsgId();
+		if((msgId != null) && (msgId > 0) && (msgId < messageCounts.length)) {
+			messageCounts[msgId]++;
+		}
+	}
+
+	// Stops counting mol, which has just been absorbed or destroyed
+	public void left(Molecule mol) {
+		typeCounts[mol.getMoleculeType().ordinal()]--;
+		Integer msgId = mol.getMsgId();
+		if((msgId != null) && (msgId > 0) && (msgId < messageCounts.length)) {
+			messageCounts[msgId]--;
+		}
+	}
+
+	/**
+	 * Takes a sample of sim if one is due, to be called at the end of every step
+	 * it runs.  Steps skipped by the simulation are not sampled, the next sample
+	 * is taken at the next step run instead.
+	 */
+	public void sample(MolComSim sim) {
+		int step = sim.getSimStep();
+		if(step < nextSampleStep) {
+			return;
+		}
+		nextSampleStep = (step / interval + 1) * interval;
+		int row = (half * RING_ROWS / 2 + numRows) * numColumns;
+		long collisions = sim.getCollisionStatistics().getTotal();
+		MoleculeStore molecules = sim.getMovingMolecules();
+		ring[row++] = step;
+		for(int count : typeCounts) {
+			ring[row++] = count;
+		}
+		ring[row++] = molecules.size();
+		ring[row++] = molecules.count(MovementState.ON_MICROTUBULE);
+		ring[row++] = sim.getMedium().getNumMoleculePositions();
+		ring[row++] = collisions - lastCollisions;
+		for(int msgId = 1; msgId < messageCounts.length; msgId++) {
+			ring[row++] = messageCounts[msgId];
+		}
+		lastCollisions = collisions;
+		if(++numRows == RING_ROWS / 2) {
+			flush();
+		}
+	}
+
+	// Hands the half being filled to the writer thread, and goes on with the other half
+	private void flush() {
+		if(numRows == 0) {
+			return;
+		}
+		waitForWrite();
+		final int from = half * RING_ROWS / 2;
+		final int to = from + numRows;
+		half = 1 - half;
+		numRows = 0;
+		pendingWrite = writer.submit(new Runnable() {
+			public void run() {
+				try {
+					write(from, to);
+				} catch (IOException e) {
+					System.out.println("Error: unable to write to file: " + fileName);
+					e.printStackTrace();
+				}
+			}
+		});
+	}
+
+	private void write(int from, int to) throws IOException {
+		StringBuilder line = new StringBuilder();
+		for(int row = from; row < to; row++) {
+			line.setLength(0);
+			for(int column = 0; column < numColumns; column++) {
+				if(column > 0) {
+					line.append(',');
+				}
+				line.append(ring[row * numColumns + column]);
+			}
+			out.write(line.append('\n').toString());
+		}
+	}
+
+	private void waitForWrite() {
+		if(pendingWrite == null) {
+			return;
+		}
+		try {
+			pendingWrite.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			e.printStackTrace();
+		} finally {
+			pendingWrite = null;
+		}
+	}
+
+	// Saves the counters, samples already taken are not saved, see MolComSim.writeState
+	public void writeState(CheckpointWriter out) {
+		out.putInt(nextSampleStep);
+		out.putLong(lastCollisions);
+		for(int count : typeCounts) {
+			out.putInt(count);
+		}
+		for(int count : messageCounts) {
+			out.putInt(count);
+		}
+	}
+
+	// Restores the counters saved by writeState, samples go on in the new file
+	public void readState(CheckpointReader in) {
+		nextSampleStep = in.getInt();
+		lastCollisions = in.getLong();
+		for(int i = 0; i < typeCounts.length; i++) {
+			typeCounts[i] = in.getInt();
+		}
+		for(int i = 0; i < messageCounts.length; i++) {
+			messageCounts[i] = in.getInt();
+		}
+	}
+
+	/**
+	 * Writes the last samples and closes the file, to be called when the
+	 * simulation ends
+	 */
+	public void close() throws IOException {
+		try {
+			flush();
+			waitForWrite();
+		} finally {
+			writer.shutdown();
+			out.close();
+		}
+	}
+}
@@ -0,0 +1,306 @@
+/**
+ * Reads a trajectory log written by a TrajectoryRecorder, one record at
+ * a time, giving the position every molecule ends up at after each
+ * record.  Segment files are mapped one after the other, and only the
+ * positions of the recorded molecules in the medium are kept, so logs
+ * of any length can be read.
+ *
+ * Run on its own, prints every record of the log (or of one molecule,
+ * or one type of molecules), or a summary of the log: how many molecules
+ * of each type were recorded, how often they moved, were blocked, jumped
+ * and left the medium, and the positions where moves were blocked most.
+ */
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+
+public class TrajectoryReader {
+
+	private static final int NUM_BLOCKED_POSITIONS = 10;
+	// bits of each coordinate of a position key, see positionKey
+	private static final int COORDINATE_BITS = 20;
+
+	private final String fileName;
+	private int numSegments = 0;
+	private MappedByteBuffer segment = null;
+	private int segmentEnd;
+	private int blockEnd = 0;
+	private long numBytes = 0;
+
+	// position (x, y, z) and type of each recorded molecule in the medium, by id
+	private final HashMap<Integer, int[]> molecules = new HashMap<Integer, int[]>();
+
+	// the current record
+	private int step;
+	private int id;
+	private int event;
+	private int[] molecule;
+
+	public TrajectoryReader(String fileName) {
+		this.fileName = fileName;
+	}
+
+	/**
+	 * Moves on to the next record
+	 *
+	 * @return false at the end of the log
+	 */
+	public boolean next() throws IOException {
+		try {
+			while((segment == null) || (segment.position() >= blockEnd)) {
+				if(!nextBlock()) {
+					return false;
+				}
+			}
+			int header = getVarint();
+			step += header >>> TrajectoryRecorder.EVENT_BITS;
+			event = header & ((1 << TrajectoryRecorder.EVENT_BITS) - 1);
+			id += getSigned();
+			if(event == TrajectoryRecorder.ENTERED) {
+				molecule = new int[] {getSigned(), getSigned(), getSigned(), getVarint()};
+				molecules.put(id, molecule);
+				return true;
+			}
+			molecule = (event == TrajectoryRecorder.LEFT) ? molecules.remove(id) : molecules.get(id);
+			if(molecule == null) {
+				throw new IOException("Trajectory file " + fileName + " is corrupt: molecule " + id +
+						" moves at step " + step + " without having entered the medium");
+			}
+			if(event != TrajectoryRecorder.LEFT) {
+				molecule[0] += getSigned();
+				molecule[1] += getSigned();
+				molecule[2] += getSigned();
+			}
+			return true;
+		} catch (BufferUnderflowException e) {
+			throw new IOException("Trajectory file " + fileName + " is corrupt", e);
+		}
+	}
+
+	// Starts the next block, in the next segment file if needed, false if there is none
+	private boolean nextBlock() throws IOException {
+		if((segment == null) || (segment.position() >= segmentEnd)) {
+			if(!nextSegment()) {
+				return false;
+			}
+			if(segment.position() >= segmentEnd) {
+				return true; // empty segment
+			}
+		}
+		int length = segment.getInt();
+		step = segment.getInt();
+		id = 0;
+		blockEnd = segment.position() + length;
+		if(blockEnd > segmentEnd) {
+			throw new IOException("Trajectory file " + fileName + " is corrupt");
+		}
+		return true;
+	}
+
+	private boolean nextSegment() throws IOException {
+		Path file = Paths.get(TrajectoryRecorder.getSegmentFileName(fileName, numSegments));
+		if(!Files.exists(file)) {
+			if(numSegments == 0) {
+				throw new IOException("No trajectory file " + file);
+			}
+			return false;
+		}
+		numSegments++;
+		try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			segment = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		segment.order(ByteOrder.LITTLE_ENDIAN);
+		if((segment.remaining() < TrajectoryRecorder.SEGMENT_HEADER_SIZE) ||
+				(segment.getInt() != TrajectoryRecorder.TRAJECTORY_MAGIC) ||
+				(segment.getInt() != TrajectoryRecorder.TRAJECTORY_VERSION)) {
+			throw new IOException("Not a trajectory file: " + file);
+		}
+		segmentEnd = segment.getInt();
+		if(segmentEnd > segment.capacity()) {
+			throw new IOException("Trajectory file " + file + " is corrupt");
+		}
+		numBytes += segmentEnd;
+		blockEnd = segment.position();
+		return true;
+	}
+
+	private int getVarint() {
+		int value = 0;
+		for(int shift = 0; ; shift += 7) {
+			byte b = segment.get();
+			value |= (b & 0x7f) << shift;
+			if(b >= 0) {
+				return value;
+			}
+		}
+	}
+
+	private int getSigned() {
+		int value = getVarint();
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	public int getStep() {
+		return step;
+	}
+
+	public int getId() {
+		return id;
+	}
+
+	// One of the events of TrajectoryRecorder
+	public int getEvent() {
+		return event;
+	}
+
+	public String getEventName() {
+		return TrajectoryRecorder.EVENT_NAMES[event];
+	}
+
+	public MoleculeType getType() {
+		return MoleculeType.values()[molecule[3]];
+	}
+
+	// Where the molecule is after the record
+	public int getX() {
+		return molecule[0];
+	}
+
+	public int getY() {
+		return molecule[1];
+	}
+
+	public int getZ() {
+		return molecule[2];
+	}
+
+	// Number of bytes of records read so far, headers included
+	public long getNumBytes() {
+		return numBytes;
+	}
+
+	/**
+	 * @param args The trajectory file, then -summary to summarise it, or
+	 *  -molecule: <id> and/or -type: <molecule type> to print only some records
+	 */
+	public static void main(String[] args) throws IOException {
+		if(args.length < 1) {
+			System.out.println("Usage: java TrajectoryReader <trajectory file> [-summary] " +
+					"[-molecule: <id>] [-type: <INFO, ACK or NOISE>]");
+			return;
+		}
+		boolean summary = false;
+		int moleculeId = -1;
+		MoleculeType type = null;
+		for(int i = 1; i < args.length; i++) {
+			if(args[i].equals("-summary")) {
+				summary = true;
+			} else if(args[i].equals("-molecule:")) {
+				moleculeId = Integer.parseInt(args[++i]);
+			} else if(args[i].equals("-type:")) {
+				type = MoleculeType.getMoleculeType(args[++i]);
+			}
+		}
+		TrajectoryReader reader = new TrajectoryReader(args[0]);
+		if(summary) {
+			summarise(reader);
+			return;
+		}
+		System.out.println("step,id,type,event,x,y,z");
+		StringBuilder line = new StringBuilder();
+		while(reader.next()) {
+			if(((moleculeId >= 0) && (reader.getId() != moleculeId)) || ((type != null) && (reader.getType() != type))) {
+				continue;
+			}
+			line.setLength(0);
+			line.append(reader.getStep()).append(',').append(reader.getId()).append(',').append(reader.getType())
+					.append(',').append(reader.getEventName()).append(',').append(reader.getX())
+					.append(',').append(reader.getY()).append(',').append(reader.getZ());
+			System.out.println(line);
+		}
+	}
+
+	// Prints counts of molecules and events by type, and where moves were blocked most
+	private static void summarise(TrajectoryReader reader) throws IOException {
+		int numTypes = MoleculeType.values().length;
+		int numEvents = TrajectoryRecorder.EVENT_NAMES.length;
+		long[][] counts = new long[numTypes][numEvents];
+		HashMap<Long, long[]> blocked = new HashMap<Long, long[]>();
+		long numRecords = 0;
+		int firstStep = -1;
+		while(reader.next()) {
+			if(firstStep < 0) {
+				firstStep = reader.getStep();
+			}
+			numRecords++;
+			counts[reader.getType().ordinal()][reader.getEvent()]++;
+			if(reader.getEvent() == TrajectoryRecorder.BLOCKED) {
+				Long key = positionKey(reader);
+				long[] count = blocked.get(key);
+				if(count == null) {
+					blocked.put(key, new long[] {1});
+				} else {
+					count[0]++;
+				}
+			}
+		}
+		if(numRecords == 0) {
+			System.out.println("No records");
+			return;
+		}
+		System.out.println("Steps: " + firstStep + " to " + reader.getStep());
+		System.out.println("Records: " + numRecords + ", " + reader.getNumBytes() + " bytes (" +
+				String.format("%.2f", (double) reader.getNumBytes() / numRecords) + " bytes per record)");
+		for(int t = 0; t < numTypes; t++) {
+			if(counts[t][TrajectoryRecorder.ENTERED] == 0) {
+				continue;
+			}
+			StringBuilder line = new StringBuilder(MoleculeType.values()[t].toString()).append(':');
+			for(int e = 0; e < numEvents; e++) {
+				line.append(' ').append(TrajectoryRecorder.EVENT_NAMES[e]).append(' ').append(counts[t][e]);
+			}
+			System.out.println(line);
+		}
+		ArrayList<Map.Entry<Long, long[]>> positions = new ArrayList<Map.Entry<Long, long[]>>(blocked.entrySet());
+		Collections.sort(positions, new Comparator<Map.Entry<Long, long[]>>() {
+			public int compare(Map.Entry<Long, long[]> a, Map.Entry<Long, long[]> b) {
+				return Long.compare(b.getValue()[0], a.getValue()[0]);
+			}
+		});
+		if(!positions.isEmpty()) {
+			System.out.println("Positions with the most blocked moves:");
+		}
+		for(int i = 0; i < Math.min(NUM_BLOCKED_POSITIONS, positions.size()); i++) {
+			long key = positions.get(i).getKey();
+			System.out.println("  " + MoleculeType.values()[(int) (key >>> (3 * COORDINATE_BITS))] + " (" +
+					coordinate(key, 0) + ", " + coordinate(key, 1) + ", " + coordinate(key, 2) + "): " +
+					positions.get(i).getValue()[0]);
+		}
+	}
+
+	// The type and position of the molecule of the current record, in one long
+	private static long positionKey(TrajectoryReader reader) {
+		long mask = (1L << COORDINATE_BITS) - 1;
+		return ((long) reader.getType().ordinal() << (3 * COORDINATE_BITS)) |
+				((reader.getX() & mask) << (2 * COORDINATE_BITS)) |
+				((reader.getY() & mask) << COORDINATE_BITS) | (reader.getZ() & mask);
+	}
+
+	// Coordinate axis of a position key, sign extended
+	private static int coordinate(long key, int axis) {
+		long value = key >>> ((2 - axis) * COORDINATE_BITS);
+		return (int) ((value << (64 - COORDINATE_BITS)) >> (64 - COORDINATE_BITS));
+	}
+}
@@ -0,0 +1,306 @@
+/**
+ * Records how molecules move to a trajectory log, for instance to find
+ * out where information molecules got stuck when a message failed.
+ * TrajectoryReader replays or summarises the log.
+ *
+ * Only the molecules whose id is a multiple of the sampling rate, and of
+ * the types asked for, are recorded, so recording can be kept cheap for
+ * large simulations.  Each record is (step, molecule id, event, and the
+ * move of the molecule), and records are encoded on the simulation's
+ * thread into blocks of at most BLOCK_SIZE bytes, as varints, relative to
+ * the previous record of the block:
+ *
+ *   header:  varint (steps since the previous record << 3 | event)
+ *   id:      zigzag varint (id - id of the previous record)
+ *   ENTERED: zigzag varint x, y, z, then varint molecule type
+ *   MOVED, BLOCKED, JUMPED: zigzag varint dx, dy, dz
+ *   LEFT:    nothing more
+ *
+ * A full block is handed to a background thread, which copies it into
+ * the current segment file, memory mapped, while the next block is
+ * being encoded.  Only one block is ever waiting to be written: if the
+ * previous one is still being written when the next one is full, the
+ * simulation waits for it.  Segment files are named after the log file
+ * followed by .0, .1..., start with
+ *
+ *   int TRAJECTORY_MAGIC, int TRAJECTORY_VERSION, int length used
+ *
+ * and hold whole blocks of the form (int length, int step of the block,
+ * records), each decodable on its own.  The length used is updated after
+ * every block, so a log cut short by a crash can still be read up to the
+ * last complete block.  If the log cannot be written, an error is
+ * printed and the simulation goes on without recording.
+ */
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+public class TrajectoryRecorder {
+
+	// first bytes of every segment file, and version of their format
+	static final int TRAJECTORY_MAGIC = 0x4d43544a;
+	static final int TRAJECTORY_VERSION = 1;
+	static final int SEGMENT_HEADER_SIZE = 12;
+	static final int LENGTH_OFFSET = 8;
+	static final int BLOCK_HEADER_SIZE = 8;
+
+	// events, in the low 3 bits of the header of a record
+	static final int ENTERED = 0;
+	static final int MOVED = 1;
+	static final int BLOCKED = 2;
+	static final int JUMPED = 3;
+	static final int LEFT = 4;
+	static final int EVENT_BITS = 3;
+	static final String[] EVENT_NAMES = {"ENTERED", "MOVED", "BLOCKED", "JUMPED", "LEFT"};
+
+	private static final int BLOCK_SIZE = 1 << 16;
+	private static final int SEGMENT_SIZE = 1 << 24;
+	// longest record: header and id of 5 bytes, three coordinates of 5 bytes, type
+	private static final int MAX_RECORD_SIZE = 5 + 5 + 15 + 5;
+
+	private final String fileName;
+	private final int sampling;
+	private final boolean[] types;
+
+	// block being encoded, and the one being written
+	private byte[] block = new byte[BLOCK_SIZE];
+	private byte[] spare = new byte[BLOCK_SIZE];
+	private int blockLength = BLOCK_HEADER_SIZE;
+	private int blockStep = -1;
+	private int previousStep;
+	private int previousId;
+	private long numRecords = 0;
+
+	private final ExecutorService writer;
+	private Future<?> pendingWrite = null;
+	// set by the writer thread if a block could not be written
+	private volatile boolean failed = false;
+	// written by the writer thread only
+	private MappedByteBuffer segment = null;
+	private FileChannel segmentChannel = null;
+	private int numSegments = 0;
+
+	/**
+	 * Starts a new log, deleting the segment files of any earlier log of the same name
+	 * 
+	 * @param fileName What to name the segment files after
+	 * @param sampling Only molecules whose id is a multiple of it are recorded
+	 * @param types The types of molecules to record
+	 */
+	public TrajectoryRecorder(String fileName, int sampling, MoleculeType[] types) throws IOException {
+		for(int i = 0; Files.deleteIfExists(Paths.get(getSegmentFileName(fileName, i))); i++) {
+		}
+		this.fileName = fileName;
+		this.sampling = Math.max(1, sampling);
+		this.types = new boolean[MoleculeType.values().length];
+		for(MoleculeType type : types) {
+			this.types[type.ordinal()] = true;
+		}
+		this.writer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "trajectory writer");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	// Whether the movements of mol are to be recorded
+	public boolean isRecorded(Molecule mol) {
+		return (mol.getId() % sampling == 0) && types[mol.getMoleculeType().ordinal()];
+	}
+
+	/**
+	 * Records that mol entered the medium at step, and marks it as recorded
+	 * if it is to be (see isRecorded), so its moves are recorded as well.
+	 */
+	public void entered(Molecule mol, int step) {
+		mol.setRecorded(isRecorded(mol));
+		if(!mol.isRecorded()) {
+			return;
+		}
+		Position p = mol.getPosition();
+		startRecord(step, mol.getId(), ENTERED);
+		putSigned(p.getX());
+		putSigned(p.getY());
+		putSigned(p.getZ());
+		putVarint(mol.getMoleculeType().ordinal());
+	}
+
+	/**
+	 * Records a move of a recorded molecule
+	 *
+	 * @param from Where mol was
+	 * @param proposed Where it tried to go
+	 * @param to Where it ended up
+	 * @param jumped Whether it moved by several steps at once, see ProtectiveDomains
+	 */
+	public void moved(Molecule mol, int step, Position from, Position proposed, Position to, boolean jumped) {
+		int event = jumped ? JUMPED : to.equals(proposed) ? MOVED : BLOCKED;
+		startRecord(step, mol.getId(), event);
+		putSigned(to.getX() - from.getX());
+		putSigned(to.getY() - from.getY());
+		putSigned(to.getZ() - from.getZ());
+	}
+
+	// Records that a recorded molecule left the medium (absorbed, decomposed or parked)
+	public void left(Molecule mol, int step) {
+		startRecord(step, mol.getId(), LEFT);
+	}
+
+	public long getNumRecords() {
+		return numRecords;
+	}
+
+	private void startRecord(int step, int id, int event) {
+		if(blockLength + MAX_RECORD_SIZE > BLOCK_SIZE) {
+			flushBlock();
+		}
+		if(blockStep < 0) {
+			blockStep = step;
+			previousStep = step;
+			previousId = 0;
+		}
+		putVarint(((step - previousStep) << EVENT_BITS) | event);
+		putSigned(id - previousId);
+		previousStep = step;
+		previousId = id;
+		numRecords++;
+	}
+
+	private void putVarint(int value) {
+		while((value & ~0x7f) != 0) {
+			block[blockLength++] = (byte) ((value & 0x7f) | 0x80);
+			value >>>= 7;
+		}
+		block[blockLength++] = (byte) value;
+	}
+
+	// zigzag encoded, so small negative values take one byte too
+	private void putSigned(int value) {
+		putVarint((value << 1) ^ (value >> 31));
+	}
+
+	/**
+	 * Hands the current block to the writer thread, once the previous
+	 * one is written, and starts a new block.
+	 */
+	private void flushBlock() {
+		if(blockStep < 0) {
+			return;
+		}
+		waitForWrite();
+		final byte[] full = block;
+		final int length = blockLength;
+		final int step = blockStep;
+		block = spare;
+		spare = full;
+		blockLength = BLOCK_HEADER_SIZE;
+		blockStep = -1;
+		pendingWrite = writer.submit(new Runnable() {
+			public void run() {
+				if(failed) {
+					return;
+				}
+				try {
+					write(full, length, step);
+				} catch (IOException e) {
+					failed = true;
+					System.out.println("Error: unable to write trajectory file: " + fileName);
+					e.printStackTrace();
+				}
+			}
+		});
+	}
+
+	private void waitForWrite() {
+		if(pendingWrite == null) {
+			return;
+		}
+		try {
+			pendingWrite.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			e.printStackTrace();
+		} finally {
+			pendingWrite = null;
+		}
+	}
+
+	// Copies a block into the current segment, starting a new segment if it does not fit
+	private void write(byte[] full, int length, int step) throws IOException {
+		if((segment == null) || (segment.remaining() < length)) {
+			closeSegment();
+			Path file = Paths.get(getSegmentFileName(fileName, numSegments++));
+			segmentChannel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+					StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+			segment = segmentChannel.map(FileChannel.MapMode.READ_WRITE, 0, SEGMENT_SIZE);
+			segment.order(ByteOrder.LITTLE_ENDIAN);
+			segment.putInt(TRAJECTORY_MAGIC);
+			segment.putInt(TRAJECTORY_VERSION);
+			segment.putInt(SEGMENT_HEADER_SIZE);
+		}
+		segment.putInt(length - BLOCK_HEADER_SIZE);
+		segment.putInt(step);
+		segment.put(full, BLOCK_HEADER_SIZE, length - BLOCK_HEADER_SIZE);
+		segment.putInt(LENGTH_OFFSET, segment.position());
+	}
+
+	// Saves the current segment and cuts it down to the length used
+	private void closeSegment() throws IOException {
+		if(segment == null) {
+			return;
+		}
+		int used = segment.position();
+		segment.force();
+		segment = null;
+		try {
+			segmentChannel.truncate(used);
+		} catch (IOException e) {
+			// some platforms cannot truncate a mapped file, the header gives the length used anyway
+		}
+		segmentChannel.close();
+		segmentChannel = null;
+	}
+
+	/**
+	 * Writes the last block and closes the log, to be called when the
+	 * simulation ends
+	 */
+	public void close() {
+		try {
+			flushBlock();
+			waitForWrite();
+			pendingWrite = writer.submit(new Runnable() {
+				public void run() {
+					try {
+						closeSegment();
+					} catch (IOException e) {
+						System.out.println("Error: unable to write trajectory file: " + fileName);
+						e.printStackTrace();
+					}
+				}
+			});
+			waitForWrite();
+		} finally {
+			writer.shutdown();
+		}
+	}
+
+	// The name of segment index of the log fileName
+	static String getSegmentFileName(String fileName, int index) {
+		return fileName + "." + index;
+	}
+}
@@ -0,0 +1,113 @@
+/**
+ * Compares how fast molecules on a random walk are moved by their movement
+ * controllers (moleculeLayout OBJECTS) and by the columnar kernel of
+ * MoleculeStore.proposeMoves (moleculeLayout COLUMNS), each drawing steps
+ * from the random streams of the molecules (walkRandom STREAMS) or from
+ * CounterRandom (walkRandom COUNTER), the latter filled for all molecules
+ * at once by the columnar kernel.
+ *
+ * The same simulation (same seed) is run with each layout and walk random
+ * in turn, for a number of rounds, on the current thread, and the fastest
+ * round of each is printed as molecule steps per second.  Both layouts
+ * give the same results for the same walk random, STREAMS and COUNTER
+ * give different random walks, so they may take a different number of
+ * molecule steps.  The first rounds warm the JIT compiler up and are not
+ * counted.  Runs append their results to a temporary results file, deleted
+ * at the end.  Use a params file without collisions or microtubules, many
+ * molecules and a large medium, for the walks to be most of the work.
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+
+public class WalkKernelBenchmark {
+
+	private static final int BENCHMARK_HISTOGRAM_BINS = 16;
+
+	/** Runs the simulation given by the remaining command line arguments
+	 *
+	 *  @param args -steps: <number of steps of each run>, -rounds: <number of runs with
+	 *   each kernel>, -warmups: <number of runs with each kernel before measuring>,
+	 *   followed by any of the MolComSim command line arguments
+	 */
+	public static void main(String[] args) throws IOException {
+		int numSteps = 1000;
+		int numRounds = 5;
+		int numWarmups = 2;
+		ArrayList<String> simArgs = new ArrayList<String>();
+		for(int i = 0; i < args.length; i++) {
+			if(args[i].equals("-steps:")) {
+				numSteps = Integer.parseInt(args[++i]);
+			} else if(args[i].equals("-rounds:")) {
+				numRounds = Integer.parseInt(args[++i]);
+			} else if(args[i].equals("-warmups:")) {
+				numWarmups = Integer.parseInt(args[++i]);
+			} else {
+				simArgs.add(args[i]);
+			}
+		}
+		SimulationParams simParams = new SimulationParams(simArgs.toArray(new String[simArgs.size()]));
+		simParams.setBatchRun(true);
+		simParams.setMaxNumSteps(numSteps);
+		simParams.setCollisionHistogramBins(BENCHMARK_HISTOGRAM_BINS);
+		File resultsFile = File.createTempFile("walk_results", ".txt");
+		simParams.setResultsFileName(resultsFile.getPath());
+		MoleculeLayout[] layouts = MoleculeLayout.values();
+		WalkRandom[] walkRandoms = WalkRandom.values();
+		double[][] best = new double[layouts.length][walkRandoms.length];
+		long[] moleculeSteps = new long[walkRandoms.length];
+		try {
+			for(int round = 0; round < numWarmups + numRounds; round++) {
+				for(int w = 0; w < walkRandoms.length; w++) {
+					for(int l = 0; l < layouts.length; l++) {
+						long[] run = measure(simParams, layouts[l], walkRandoms[w]);
+						if((round == 0) && (l == 0)) {
+							moleculeSteps[w] = run[1];
+						} else if(run[1] != moleculeSteps[w]) {
+							System.out.println("Warning: " + layouts[l] + " " + walkRandoms[w] + " took " +
+									run[1] + " molecule steps instead of " + moleculeSteps[w]);
+						}
+						if(round >= numWarmups) {
+							best[l][w] = Math.max(best[l][w], run[1] * 1e9 / run[0]);
+						}
+					}
+				}
+			}
+		} finally {
+			resultsFile.delete();
+		}
+		for(int w = 0; w < walkRandoms.length; w++) {
+			if(moleculeSteps[w] == 0) {
+				System.out.println("No molecule moved, nothing to measure");
+				return;
+			}
+		}
+		for(int w = 0; w < walkRandoms.length; w++) {
+			System.out.println("Molecule steps per run with " + walkRandoms[w] + ": " + moleculeSteps[w]);
+			for(int l = 0; l < layouts.length; l++) {
+				System.out.println(layouts[l] + " " + walkRandoms[w] + ": " +
+						String.format("%.0f", best[l][w]) + " molecule steps per second");
+			}
+		}
+		int objects = MoleculeLayout.OBJECTS.ordinal();
+		int columns = MoleculeLayout.COLUMNS.ordinal();
+		System.out.println("COLUMNS COUNTER / OBJECTS STREAMS: " + String.format("%.3f",
+				best[columns][WalkRandom.COUNTER.ordinal()] / best[objects][WalkRandom.STREAMS.ordinal()]));
+	}
+
+	/**
+	 * @return the nanoseconds taken to run the simulation with the given
+	 *  layout and walk random, and the number of molecule steps taken
+	 */
+	private static long[] measure(SimulationParams params, MoleculeLayout layout, WalkRandom walkRandom) throws IOException {
+		SimulationParams runParams = new SimulationParams(params);
+		runParams.setMoleculeLayout(layout);
+		runParams.setWalkRandom(walkRandom);
+		MolComSim sim = new MolComSim(runParams);
+		long start = System.nanoTime();
+		sim.run();
+		long elapsed = System.nanoTime() - start;
+		return new long[] {elapsed, sim.getStepEngine().getMoleculeSteps()};
+	}
+}
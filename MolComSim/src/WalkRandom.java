@@ -0,0 +1,17 @@
+
+public enum WalkRandom {
+
+	STREAMS,
+	COUNTER;
+
+	public static WalkRandom getWalkRandom(String stringRep) {
+		if(stringRep.equals("STREAMS")) {
+			return STREAMS;
+		} else if(stringRep.equals("COUNTER")) {
+			return COUNTER;
+		} else {
+			throw new IllegalArgumentException("Invalid argument: " + stringRep +
+					" to WalkRandom.getWalkRandom");
+		}
+	}
+}
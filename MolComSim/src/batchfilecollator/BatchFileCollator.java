@@ -1,18 +1,36 @@
 /**
- * Reads data from all batch files (files with "batch_" as first part of name) in the current directory.
- * Outputs data to new file "collated.txt" where each line starts with the name of a batch file and 
- * contains the space separated data from that batch file, so there will be as many lines as there
- * are "batch_..." files in the current directory.  The output is intended to be used by an Excel 
+ * Reads data from all batch files (files with "batch_" as first part of name) in the current directory,
+ * or from the batch files given on the command line.
+ *
+ * By default outputs statistics of each column of each batch file to new file "statistics.txt": the
+ * number of values, mean, variance, minimum, percentiles, maximum and 95% confidence interval of the
+ * mean, one line per column.  Batch files are read in chunks, memory mapped, in parallel, and no line
+ * is kept in memory, so batch files of millions of lines are summarized in seconds.
+ *
+ * With -concat, outputs data to new file "collated.txt" where each line starts with the name of a batch
+ * file and contains the space separated data from that batch file, so there will be as many lines as there
+ * are "batch_..." files in the current directory.  The output is intended to be used by an Excel
  * spreadsheet for graphing purposes.
  */
 package batchfilecollator;
 
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 
 /**
@@ -21,51 +39,298 @@ import java.util.ArrayList;
  */
 public class BatchFileCollator {
 
-	// Same field as in MolComSim.  I was in a rush and having problems with imports.  TODO: avoid duplication. 
+	// Same field as in MolComSim.  I was in a rush and having problems with imports.  TODO: avoid duplication.
 	private static final boolean APPEND_TO_FILE = true; // used to set the append field for FileWriter to write out to the
 	// same file as other simulations during a batch run.
-	
+
+	// batch files are read in chunks of this many bytes, one chunk per task
+	private static final long CHUNK_SIZE = 1 << 24;
+	private static final double[] QUANTILES = {0.05, 0.25, 0.5, 0.75, 0.95};
+
 	/**
-	 * @param args
+	 * @param args [-concat] [-threads: <number of threads>] [batch files...]
 	 */
 	public static void main(String[] args) {
-		File dir = new File(".");
-		ArrayList<String> batchFileContent = new ArrayList<>();
-		File[] files = dir.listFiles((File dir2, String name)-> name.startsWith("batch_"));
-		FileWriter writer;
+		boolean concat = false;
+		int numThreads = Runtime.getRuntime().availableProcessors();
+		ArrayList<File> files = new ArrayList<File>();
+		for(int i = 0; i < args.length; i++) {
+			if(args[i].equals("-concat")) {
+				concat = true;
+			} else if(args[i].equals("-threads:")) {
+				numThreads = Integer.parseInt(args[++i]);
+			} else {
+				files.add(new File(args[i]));
+			}
+		}
+		if(files.isEmpty()) {
+			File dir = new File(".");
+			files.addAll(Arrays.asList(dir.listFiles((File dir2, String name)-> name.startsWith("batch_"))));
+		}
+		files.sort((File a, File b) -> a.getName().compareTo(b.getName()));
 		try {
-			writer = new FileWriter("collated.txt", APPEND_TO_FILE);
-			for (File file : files) {
-			    if (file.isFile()) {
-					BufferedReader br = new BufferedReader(new FileReader(file.getName()));
-					String line = null;
-					while((line = br.readLine()) != null) {
-						if(line.isEmpty()) {
-							continue;
-						}
-						
-						// strip of any end of line characters
-						while(line.endsWith("\n") || line.endsWith("\r")) {
-							line = line.substring(0, line.length() - 1);
-						}
-						batchFileContent.add(line);		
+			if(concat) {
+				concatenate(files);
+			} else {
+				writeStatistics(files, numThreads);
+			}
+		} catch (IOException | InterruptedException | ExecutionException e) {
+			e.printStackTrace();
+		}
+	}
+
+	// Writes collated.txt, one line per batch file
+	private static void concatenate(ArrayList<File> files) throws IOException {
+		BufferedWriter writer = new BufferedWriter(new FileWriter("collated.txt", APPEND_TO_FILE));
+		for (File file : files) {
+		    if (file.isFile()) {
+				BufferedReader br = new BufferedReader(new FileReader(file));
+				boolean isEmpty = true;
+				String line = null;
+				while((line = br.readLine()) != null) {
+					if(line.isEmpty()) {
+						continue;
 					}
-					br.close();
-					if(!batchFileContent.isEmpty()) {
+					if(isEmpty) {
 						writer.append(file.getName() + " ");
-						for(String data : batchFileContent) {
-							writer.append(data + " ");
-						}
-						writer.append("\n");
-						batchFileContent.clear();
+						isEmpty = false;
 					}
-			        
-			    }
+					writer.append(line + " ");
+				}
+				br.close();
+				if(!isEmpty) {
+					writer.append("\n");
+				}
+		    }
+		}
+		writer.close();
+	}
+
+	// Writes statistics.txt, one line per column of each batch file
+	private static void writeStatistics(ArrayList<File> files, int numThreads)
+			throws IOException, InterruptedException, ExecutionException {
+		ArrayList<FileSummary> summaries = summarize(files, numThreads);
+		BufferedWriter writer = new BufferedWriter(new FileWriter("statistics.txt"));
+		writer.append("file column count mean variance min");
+		for(double q : QUANTILES) {
+			writer.append(" p" + Math.round(q * 100));
+		}
+		writer.append(" max ci95low ci95high\n");
+		for(int i = 0; i < files.size(); i++) {
+			ArrayList<ColumnStatistics> columns = summaries.get(i).columns;
+			for(int c = 0; c < columns.size(); c++) {
+				ColumnStatistics column = columns.get(c);
+				String name = files.get(i).getName() + " " + (c + 1);
+				if(!column.hasFixedParts()) {
+					writeStatistics(writer, name + ".n", column.getEntries());
+				} else if(column.getNumParts() == 1) {
+					writeStatistics(writer, name, column.getPart(0));
+				} else {
+					for(int part = 0; part < column.getNumParts(); part++) {
+						writeStatistics(writer, name + "." + (part + 1), column.getPart(part));
+					}
+				}
+			}
+		}
+		writer.close();
+	}
+
+	private static void writeStatistics(BufferedWriter writer, String name, OnlineStatistics stats) throws IOException {
+		if(stats.getCount() == 0) {
+			return;
+		}
+		double halfWidth = stats.getConfidenceHalfWidth95();
+		writer.append(name + " " + stats.getCount() + format(stats.getMean()) + format(stats.getVariance()) +
+				format(stats.getMin()));
+		for(double q : QUANTILES) {
+			writer.append(format(stats.getQuantile(q)));
+		}
+		writer.append(format(stats.getMax()) + format(stats.getMean() - halfWidth) +
+				format(stats.getMean() + halfWidth) + "\n");
+	}
+
+	private static String format(double value) {
+		return " " + String.format(Locale.ROOT, "%.6g", value);
+	}
+
+	/**
+	 * Summarizes each column of each file, reading chunks of all files in parallel
+	 *
+	 * @return the summary of each file, in order
+	 */
+	public static ArrayList<FileSummary> summarize(ArrayList<File> files, int numThreads)
+			throws InterruptedException, ExecutionException {
+		ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+		try {
+			ArrayList<ArrayList<Future<FileSummary>>> chunks = new ArrayList<ArrayList<Future<FileSummary>>>();
+			for(File file : files) {
+				ArrayList<Future<FileSummary>> fileChunks = new ArrayList<Future<FileSummary>>();
+				for(long start = 0; start < file.length(); start += CHUNK_SIZE) {
+					fileChunks.add(executor.submit(new ChunkReader(file, start, Math.min(file.length(), start + CHUNK_SIZE))));
+				}
+				chunks.add(fileChunks);
+			}
+			ArrayList<FileSummary> summaries = new ArrayList<FileSummary>();
+			for(ArrayList<Future<FileSummary>> fileChunks : chunks) {
+				FileSummary summary = new FileSummary();
+				for(Future<FileSummary> chunk : fileChunks) {
+					summary.merge(chunk.get());
+				}
+				summaries.add(summary);
+			}
+			return summaries;
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	// Statistics of every column of (part of) a batch file
+	public static class FileSummary {
+		private final ArrayList<ColumnStatistics> columns = new ArrayList<ColumnStatistics>();
+
+		ColumnStatistics getColumn(int column) {
+			while(columns.size() <= column) {
+				columns.add(new ColumnStatistics());
+			}
+			return columns.get(column);
+		}
+
+		public ArrayList<ColumnStatistics> getColumns() {
+			return columns;
+		}
+
+		void merge(FileSummary other) {
+			for(int c = 0; c < other.columns.size(); c++) {
+				getColumn(c).merge(other.columns.get(c));
+			}
+		}
+	}
+
+	// Summarizes the lines of a file starting from start up to, but not including, end
+	private static class ChunkReader implements Callable<FileSummary> {
+		private final File file;
+		private final long start;
+		private final long end;
+
+		private MappedByteBuffer buffer;
+		private final double[] values = new double[ColumnStatistics.MAX_PARTS];
+
+		ChunkReader(File file, long start, long end) {
+			this.file = file;
+			this.start = start;
+			this.end = end;
+		}
+
+		public FileSummary call() throws IOException {
+			FileSummary summary = new FileSummary();
+			try(FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+				// map from the byte before the chunk, to tell whether it starts with a new line,
+				// and past its end, to read its last line whole
+				long mapStart = Math.max(0, start - 1);
+				buffer = channel.map(FileChannel.MapMode.READ_ONLY, mapStart,
+						Math.min(channel.size() - mapStart, Integer.MAX_VALUE));
+				int pos = 0;
+				if(start > 0) {
+					pos = skipLine(0);
+				}
+				int limit = (int) Math.min(end - mapStart, buffer.limit());
+				while(pos < limit) {
+					pos = readLine(pos, summary);
+				}
+			}
+			return summary;
+		}
+
+		private boolean isEndOfLine(byte b) {
+			return (b == '\n') || (b == '\r');
+		}
+
+		// Position right after the end of the line pos is in
+		private int skipLine(int pos) {
+			while((pos < buffer.limit()) && (buffer.get(pos) != '\n')) {
+				pos++;
+			}
+			return pos + 1;
+		}
+
+		// Adds the cells of the line starting at pos to summary, returns the position of the next line
+		private int readLine(int pos, FileSummary summary) {
+			if((pos < buffer.limit()) && isEndOfLine(buffer.get(pos))) {
+				return skipLine(pos); // empty line
+			}
+			int column = 0;
+			while(true) {
+				int numParts = 0;
+				boolean numeric = true;
+				byte separator;
+				while(true) {
+					int tokenEnd = pos;
+					while((tokenEnd < buffer.limit()) && (buffer.get(tokenEnd) != ',') && (buffer.get(tokenEnd) != '/')
+							&& !isEndOfLine(buffer.get(tokenEnd))) {
+						tokenEnd++;
+					}
+					double value = parse(pos, tokenEnd);
+					if(Double.isNaN(value)) {
+						numeric = false;
+					} else if(numParts < values.length) {
+						values[numParts] = value;
+					}
+					numParts++;
+					separator = (tokenEnd < buffer.limit()) ? buffer.get(tokenEnd) : (byte) '\n';
+					pos = tokenEnd + 1;
+					if(separator != '/') {
+						break;
+					}
+				}
+				if(numeric) {
+					summary.getColumn(column).add(values, numParts);
+				} else {
+					summary.getColumn(column).skip();
+				}
+				column++;
+				if(separator != ',') {
+					break;
+				}
+			}
+			// pos is right after the \n, or right after the \r of \r\n
+			if((pos - 1 < buffer.limit()) && (buffer.get(pos - 1) == '\r')) {
+				pos = skipLine(pos - 1);
+			}
+			return pos;
+		}
+
+		// The number in bytes from up to, but not including, to, or NaN if there is none
+		private double parse(int from, int to) {
+			if(from >= to) {
+				return Double.NaN;
+			}
+			if(to - from == 1) {
+				if(buffer.get(from) == 'T') {
+					return 1.0;
+				} else if(buffer.get(from) == 'F') {
+					return 0.0;
+				}
+			}
+			// integers, by far the most common, without creating a String
+			boolean negative = (buffer.get(from) == '-');
+			int pos = negative ? from + 1 : from;
+			long value = 0;
+			while((pos < to) && (pos - from < 18) && (buffer.get(pos) >= '0') && (buffer.get(pos) <= '9')) {
+				value = value * 10 + (buffer.get(pos) - '0');
+				pos++;
+			}
+			if((pos == to) && (pos > (negative ? from + 1 : from))) {
+				return negative ? -value : value;
+			}
+			byte[] token = new byte[to - from];
+			for(int i = 0; i < token.length; i++) {
+				token[i] = buffer.get(from + i);
+			}
+			try {
+				return Double.parseDouble(new String(token, java.nio.charset.StandardCharsets.US_ASCII));
+			} catch (NumberFormatException e) {
+				return Double.NaN;
 			}
-			writer.close();
-		} catch (IOException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
 		}
 	}
 
@@ -0,0 +1,79 @@
+/**
+ * Statistics of one comma separated column of a batch file.
+ *
+ * A cell may hold a single number, or several separated by '/'.
+ * If every cell of the column holds the same small number of parts,
+ * each part gets its own statistics, otherwise only the number of
+ * entries in each cell (for instance the number of collisions) is
+ * summarized.  T and F are counted as 1 and 0, so their mean is the
+ * proportion of T.  Cells holding anything else are skipped.
+ */
+package batchfilecollator;
+
+public class ColumnStatistics {
+
+	public static final int MAX_PARTS = 8;
+
+	private int minParts = Integer.MAX_VALUE;
+	private int maxParts = 0;
+	private final OnlineStatistics[] parts = new OnlineStatistics[MAX_PARTS];
+	private final OnlineStatistics entries = new OnlineStatistics();
+	private long skipped = 0;
+
+	public ColumnStatistics() {
+		for(int i = 0; i < MAX_PARTS; i++) {
+			parts[i] = new OnlineStatistics();
+		}
+	}
+
+	/**
+	 * Adds a cell
+	 *
+	 * @param values The first MAX_PARTS values of the cell
+	 * @param numParts The number of values in the cell
+	 */
+	public void add(double[] values, int numParts) {
+		minParts = Math.min(minParts, numParts);
+		maxParts = Math.max(maxParts, numParts);
+		for(int i = 0; i < Math.min(numParts, MAX_PARTS); i++) {
+			parts[i].add(values[i]);
+		}
+		entries.add(numParts);
+	}
+
+	// Counts a cell that is not made of numbers
+	public void skip() {
+		skipped++;
+	}
+
+	public void merge(ColumnStatistics other) {
+		minParts = Math.min(minParts, other.minParts);
+		maxParts = Math.max(maxParts, other.maxParts);
+		for(int i = 0; i < MAX_PARTS; i++) {
+			parts[i].merge(other.parts[i]);
+		}
+		entries.merge(other.entries);
+		skipped += other.skipped;
+	}
+
+	// Whether each part of the cells is summarized, rather than the number of entries
+	public boolean hasFixedParts() {
+		return (minParts == maxParts) && (maxParts <= MAX_PARTS);
+	}
+
+	public int getNumParts() {
+		return maxParts;
+	}
+
+	public OnlineStatistics getPart(int part) {
+		return parts[part];
+	}
+
+	public OnlineStatistics getEntries() {
+		return entries;
+	}
+
+	public long getSkipped() {
+		return skipped;
+	}
+}
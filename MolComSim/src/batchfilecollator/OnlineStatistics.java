@@ -0,0 +1,179 @@
+/**
+ * Summary statistics of a stream of numbers, in constant memory.
+ *
+ * Count, mean and variance are updated one value at a time (Welford),
+ * and percentiles are estimated from a histogram with logarithmically
+ * sized buckets, so every estimate is within RELATIVE_ACCURACY of a
+ * value of the stream at the right rank.  Estimates are rounded if all
+ * values are whole numbers, which makes them exact for small ones.
+ * Statistics of parts of a stream can be merged, to process the parts
+ * in parallel.
+ */
+package batchfilecollator;
+
+import java.util.Arrays;
+
+public class OnlineStatistics {
+
+	public static final double RELATIVE_ACCURACY = 0.005;
+	private static final double GAMMA = (1 + RELATIVE_ACCURACY) / (1 - RELATIVE_ACCURACY);
+	private static final double LOG_GAMMA = Math.log(GAMMA);
+	// values closer to 0 than this are counted as 0
+	private static final double MIN_MAGNITUDE = 1e-9;
+	// z value of a two sided 95% confidence interval
+	private static final double Z_95 = 1.959963984540054;
+
+	private long count = 0;
+	private double mean = 0.0;
+	private double m2 = 0.0; // sum of squared differences to the mean
+	private double min = Double.POSITIVE_INFINITY;
+	private double max = Double.NEGATIVE_INFINITY;
+	private boolean integers = true; // whether every value is a whole number
+
+	private final Buckets positive = new Buckets();
+	private final Buckets negative = new Buckets();
+	private long zeroCount = 0;
+
+	public void add(double value) {
+		count++;
+		double delta = value - mean;
+		mean += delta / count;
+		m2 += delta * (value - mean);
+		min = Math.min(min, value);
+		max = Math.max(max, value);
+		integers &= (value == Math.rint(value));
+		if(value >= MIN_MAGNITUDE) {
+			positive.add(bucketIndex(value), 1);
+		} else if(value <= -MIN_MAGNITUDE) {
+			negative.add(bucketIndex(-value), 1);
+		} else {
+			zeroCount++;
+		}
+	}
+
+	// Adds all the values other has seen, as if they had been added to this
+	public void merge(OnlineStatistics other) {
+		if(other.count == 0) {
+			return;
+		}
+		long total = count + other.count;
+		double delta = other.mean - mean;
+		mean += delta * other.count / total;
+		m2 += other.m2 + delta * delta * ((double) count * other.count / total);
+		count = total;
+		min = Math.min(min, other.min);
+		max = Math.max(max, other.max);
+		integers &= other.integers;
+		positive.merge(other.positive);
+		negative.merge(other.negative);
+		zeroCount += other.zeroCount;
+	}
+
+	private static int bucketIndex(double magnitude) {
+		return (int) Math.ceil(Math.log(magnitude) / LOG_GAMMA);
+	}
+
+	// The value bucket index stands for, all values in it are within RELATIVE_ACCURACY of it
+	private static double bucketValue(int index) {
+		return 2 * Math.pow(GAMMA, index) / (GAMMA + 1);
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	public double getMean() {
+		return (count == 0) ? Double.NaN : mean;
+	}
+
+	// Sample variance
+	public double getVariance() {
+		return (count < 2) ? Double.NaN : m2 / (count - 1);
+	}
+
+	public double getStandardDeviation() {
+		return Math.sqrt(getVariance());
+	}
+
+	public double getMin() {
+		return (count == 0) ? Double.NaN : min;
+	}
+
+	public double getMax() {
+		return (count == 0) ? Double.NaN : max;
+	}
+
+	// Half the width of the 95% confidence interval of the mean (normal approximation)
+	public double getConfidenceHalfWidth95() {
+		return Z_95 * Math.sqrt(getVariance() / count);
+	}
+
+	/**
+	 * @param q The quantile, between 0 and 1
+	 * @return an estimate of the value with rank q * (count - 1) among the values seen
+	 */
+	public double getQuantile(double q) {
+		if(count == 0) {
+			return Double.NaN;
+		}
+		long rank = (long) Math.floor(q * (count - 1));
+		double value;
+		if(rank < negative.total) {
+			// the most negative values are in the highest buckets
+			value = -bucketValue(negative.indexOfRank(negative.total - 1 - rank));
+		} else if(rank < negative.total + zeroCount) {
+			value = 0.0;
+		} else {
+			value = bucketValue(positive.indexOfRank(rank - negative.total - zeroCount));
+		}
+		if(integers) {
+			value = Math.rint(value);
+		}
+		return Math.max(min, Math.min(max, value));
+	}
+
+	// Counts of values by bucket index, for indexes from offset on
+	private static class Buckets {
+		private long[] counts = new long[0];
+		private int offset = 0;
+		private long total = 0;
+
+		void add(int index, long n) {
+			if(counts.length == 0) {
+				counts = new long[16];
+				offset = index - 8;
+			}
+			if(index < offset) {
+				int grow = Math.max(offset - index, counts.length / 2);
+				long[] larger = new long[counts.length + grow];
+				System.arraycopy(counts, 0, larger, grow, counts.length);
+				counts = larger;
+				offset -= grow;
+			} else if(index - offset >= counts.length) {
+				counts = Arrays.copyOf(counts, Math.max(index - offset + 1, counts.length + counts.length / 2));
+			}
+			counts[index - offset] += n;
+			total += n;
+		}
+
+		void merge(Buckets other) {
+			for(int i = 0; i < other.counts.length; i++) {
+				if(other.counts[i] != 0) {
+					add(other.offset + i, other.counts[i]);
+				}
+			}
+		}
+
+		// Index of the bucket holding the value of the given rank, counting from the lowest bucket
+		int indexOfRank(long rank) {
+			long seen = 0;
+			for(int i = 0; i < counts.length; i++) {
+				seen += counts[i];
+				if(seen > rank) {
+					return offset + i;
+				}
+			}
+			return offset + counts.length - 1;
+		}
+	}
+}